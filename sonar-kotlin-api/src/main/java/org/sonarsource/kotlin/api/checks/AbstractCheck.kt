@@ -41,6 +41,12 @@ abstract class AbstractCheck : KotlinCheck, KtVisitor<Unit, KotlinFileContext>()
     lateinit var ruleKey: RuleKey
         private set
 
+    /**
+     * `true` when the check only inspects the syntax tree of the file and never uses the Analysis API,
+     * so that it can run without a compiler session, see [org.sonarsource.kotlin.api.visiting.KotlinFileVisitor.isSyntaxOnly].
+     */
+    open val isSyntaxOnly: Boolean = false
+
     override fun initialize(ruleKey: RuleKey) {
         this.ruleKey = ruleKey
     }
@@ -82,6 +82,7 @@ import org.sonar.api.utils.Version
 import org.sonarsource.kotlin.api.frontend.KotlinFileContext
 import org.sonarsource.kotlin.api.reporting.KotlinTextRanges.merge
 import org.sonarsource.kotlin.api.reporting.KotlinTextRanges.textRange
+import org.sonarsource.kotlin.api.visiting.resolvedFunctionCall
 import org.sonarsource.kotlin.api.visiting.withKaSession
 
 private val GET_PROP_WITH_DEFAULT_MATCHER = FunMatcher {
@@ -152,13 +153,13 @@ fun KtExpression.predictRuntimeValueExpression(
         }
 
         else -> withKaSession {
-            deparenthesized.resolveToCall()?.successfulFunctionCallOrNull()?.predictValueExpression()
+            deparenthesized.resolvedFunctionCall()?.predictValueExpression()
         }
     } ?: deparenthesized as? KtExpression
 } ?: this
 
 fun KtExpression.predictReceiverExpression(): KtExpression? = withKaSession {
-    val resolvedCall = this@predictReceiverExpression.resolveToCall()?.successfulFunctionCallOrNull()
+    val resolvedCall = this@predictReceiverExpression.resolvedFunctionCall()
     val receiver = resolvedCall?.extensionReceiver ?: resolvedCall?.dispatchReceiver
     when (receiver) {
         is KaExplicitReceiverValue -> receiver.expression.predictRuntimeValueExpression()
@@ -282,7 +283,7 @@ fun KtElement.getParentCallExpr(): KtElement? {
 }
 
 fun KtElement.getParentCall(): KaFunctionCall<*>? {
-    return withKaSession { getParentCallExpr()?.resolveToCall()?.successfulFunctionCallOrNull() }
+    return getParentCallExpr()?.resolvedFunctionCall()
 }
 
 fun KaFunctionCall<*>.getFirstArgumentExpression() =
@@ -406,7 +407,7 @@ fun KtExpression.findCallInPrecedingCallChain(
     matcher: FunMatcherImpl,
 ): Pair<KtExpression, KaFunctionCall<*>>? = withKaSession {
     var receiver = this@findCallInPrecedingCallChain
-    var receiverResolved = receiver.resolveToCall()?.successfulFunctionCallOrNull() ?: return null
+    var receiverResolved = receiver.resolvedFunctionCall() ?: return null
     while (!matcher.matches(receiverResolved)) {
         receiver = receiver.predictReceiverExpression() ?: return null
         receiverResolved = receiver.resolveToCall()?.singleFunctionCallOrNull() ?: return null
@@ -17,10 +17,8 @@
 package org.sonarsource.kotlin.api.checks
 
 import org.jetbrains.kotlin.analysis.api.resolution.KaFunctionCall
-import org.jetbrains.kotlin.analysis.api.resolution.successfulFunctionCallOrNull
 import org.jetbrains.kotlin.psi.KtCallExpression
 import org.sonarsource.kotlin.api.frontend.KotlinFileContext
-import org.sonarsource.kotlin.api.visiting.withKaSession
 
 abstract class CallAbstractCheck : AbstractCheck() {
     abstract val functionsToVisit: Iterable<FunMatcherImpl>
@@ -35,14 +33,9 @@ abstract class CallAbstractCheck : AbstractCheck() {
     open fun visitFunctionCall(callExpression: KtCallExpression, resolvedCall: KaFunctionCall<*>, kotlinFileContext: KotlinFileContext) = Unit
 
     final override fun visitCallExpression(callExpression: KtCallExpression, kotlinFileContext: KotlinFileContext) {
-        withKaSession {
-            val resolvedCall = callExpression.resolveToCall()
-                // Using successfulFunctionCallOrNull instead of singleFunctionCallOrNull to avoid incorrect resolution
-                // of functions when semantics are missing. E.g. extension methods may not be found without semantics,
-                // leading to a function definition to be selected that has the same name but different signature.
-                ?.successfulFunctionCallOrNull() ?: return
-            functionsToVisit.firstOrNull { it.matches(resolvedCall) }
-                ?.let { visitFunctionCall(callExpression, resolvedCall, it, kotlinFileContext) }
-        }
+        // Resolved once per file for all the checks
+        val resolvedCall = kotlinFileContext.resolvedCalls.successfulFunctionCall(callExpression) ?: return
+        functionsToVisit.firstOrNull { it.matches(resolvedCall) }
+            ?.let { visitFunctionCall(callExpression, resolvedCall, it, kotlinFileContext) }
     }
 }
@@ -21,7 +21,6 @@ import org.jetbrains.kotlin.analysis.api.resolution.KaCallableMemberCall
 import org.jetbrains.kotlin.analysis.api.resolution.KaFunctionCall
 import org.jetbrains.kotlin.analysis.api.resolution.KaReceiverValue
 import org.jetbrains.kotlin.analysis.api.resolution.KaVariableAccessCall
-import org.jetbrains.kotlin.analysis.api.resolution.successfulFunctionCallOrNull
 import org.jetbrains.kotlin.analysis.api.resolution.symbol
 import org.jetbrains.kotlin.analysis.api.signatures.KaCallableSignature
 import org.jetbrains.kotlin.analysis.api.symbols.KaCallableSymbol
@@ -34,6 +33,7 @@ import org.jetbrains.kotlin.analysis.api.symbols.name
 import org.jetbrains.kotlin.analysis.api.types.KaClassType
 import org.jetbrains.kotlin.psi.KtCallExpression
 import org.jetbrains.kotlin.psi.KtNamedFunction
+import org.sonarsource.kotlin.api.visiting.resolvedFunctionCall
 import org.sonarsource.kotlin.api.visiting.withKaSession
 
 private const val VARARG_PREFIX = "vararg ";
@@ -60,8 +60,27 @@ class FunMatcherImpl(
         if (definingSupertypes.isEmpty()) qualifiers else
             if (qualifiers.isEmpty()) definingSupertypes else qualifiers + definingSupertypes
 
-    fun matches(node: KtCallExpression): Boolean = withKaSession {
-        val call = node.resolveToCall()?.successfulFunctionCallOrNull()
+    /**
+     * Names of the functions this matcher can match, `null` when it is not restricted to a set of names, see [FunMatcherIndex].
+     */
+    internal val indexedNames: Set<String>? =
+        if (matchConstructor || nameRegex != null || names.isEmpty()) null else names
+
+    /**
+     * Types of the constructors this matcher can match, `null` when it is not restricted to constructors of some types,
+     * see [FunMatcherIndex].
+     */
+    internal val indexedConstructedTypes: Set<String>? =
+        if (matchConstructor && qualifiersOrDefiningSupertypes.isNotEmpty()) qualifiersOrDefiningSupertypes else null
+
+    /**
+     * [nameRegex] when it restricts the names of the functions this matcher can match, see [FunMatcherIndex.mayMatchCallee].
+     */
+    internal val calleeNameRegex: Regex? =
+        if (matchConstructor) null else nameRegex
+
+    fun matches(node: KtCallExpression): Boolean {
+        val call = node.resolvedFunctionCall()
         return call != null && matches(call)
     }
 
@@ -0,0 +1,119 @@
+/*
+ * SonarSource Kotlin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.kotlin.api.checks
+
+import org.jetbrains.kotlin.analysis.api.resolution.KaFunctionCall
+import org.jetbrains.kotlin.analysis.api.symbols.KaConstructorSymbol
+import org.jetbrains.kotlin.analysis.api.symbols.name
+import org.jetbrains.kotlin.analysis.api.types.KaClassType
+
+/**
+ * Index of the [FunMatcherImpl]s of several owners, e.g. of the [CallAbstractCheck.functionsToVisit] of all the active
+ * checks, by the name of the functions and by the type of the constructors they can match, so that a resolved call
+ * is only tested against the matchers which can match it. The matchers restricted to neither, e.g. the ones using
+ * [FunMatcherImpl.nameRegex], are tested against every call.
+ *
+ * @param matchersByOwner the matchers of each owner, in the order in which they are tested for that owner
+ */
+class FunMatcherIndex(matchersByOwner: List<Iterable<FunMatcherImpl>>) {
+
+    private val byName = HashMap<String, MutableList<Entry>>()
+
+    private val byConstructedType = HashMap<String, MutableList<Entry>>()
+
+    private val others = mutableListOf<Entry>()
+
+    /**
+     * Names of the callees of the calls which the matchers can match, `null` when a matcher can match any name,
+     * see [mayMatchCallee].
+     */
+    private val calleeNames: Set<String>?
+
+    private val calleeNameRegexes: List<Regex>
+
+    init {
+        var order = 0
+        matchersByOwner.forEachIndexed { owner, matchers ->
+            matchers.forEach { matcher ->
+                val entry = Entry(order++, owner, matcher)
+                val names = matcher.indexedNames
+                val constructedTypes = matcher.indexedConstructedTypes
+                when {
+                    names != null -> names.forEach { byName.getOrPut(it) { mutableListOf() }.add(entry) }
+                    constructedTypes != null -> constructedTypes.forEach { byConstructedType.getOrPut(it) { mutableListOf() }.add(entry) }
+                    else -> others.add(entry)
+                }
+            }
+        }
+        calleeNameRegexes = others.mapNotNull { it.matcher.calleeNameRegex }
+        calleeNames = if (others.any { it.matcher.calleeNameRegex == null } || INVOKE in byName) {
+            // Any call can be matched, e.g. `x()` calls the `invoke` operator of `x`
+            null
+        } else {
+            byName.keys + byConstructedType.keys.map { it.substringAfterLast('.') } + others.flatMap { it.matcher.names }
+        }
+    }
+
+    /**
+     * Tells, without resolving the call, whether a call whose callee is a simple name can be matched by one of the
+     * matchers: a function is matched by its name, and a constructor by the simple name of its type.
+     * Resolving a call costs much more, and most of the calls cannot be matched.
+     *
+     * @param name the name of the callee, or the name it stands for when it is an import alias
+     */
+    fun mayMatchCallee(name: String): Boolean =
+        calleeNames == null || name in calleeNames || calleeNameRegexes.any { it.matches(name) }
+
+    /**
+     * Calls [action] with each owner having a matcher which matches the call, and with the first of its matchers
+     * which does, in the order of the owners, like `matchers.firstOrNull { it.matches(call) }` would for each owner.
+     */
+    fun forEachFirstMatch(call: KaFunctionCall<*>, action: (owner: Int, matcher: FunMatcherImpl) -> Unit) {
+        var matchedOwner = -1
+        for (entry in candidates(call)) {
+            if (entry.owner != matchedOwner && entry.matcher.matches(call)) {
+                matchedOwner = entry.owner
+                action(entry.owner, entry.matcher)
+            }
+        }
+    }
+
+    private fun candidates(call: KaFunctionCall<*>): List<Entry> {
+        val symbol = call.signature.symbol
+        val indexed = if (symbol is KaConstructorSymbol) {
+            val receiverType = (call.dispatchReceiver?.type as? KaClassType)?.classId?.asFqNameString()
+            listOfNotNull(symbol.returnType.asFqNameString(), receiverType)
+                .distinct()
+                .flatMap { byConstructedType[it].orEmpty() }
+                .distinct()
+                .sortedBy { it.order }
+        } else {
+            symbol.name?.let { byName[it.asString()] }.orEmpty()
+        }
+        return when {
+            indexed.isEmpty() -> others
+            others.isEmpty() -> indexed
+            else -> (indexed + others).sortedBy { it.order }
+        }
+    }
+
+    private companion object {
+        const val INVOKE = "invoke"
+    }
+
+    private class Entry(val order: Int, val owner: Int, val matcher: FunMatcherImpl)
+}
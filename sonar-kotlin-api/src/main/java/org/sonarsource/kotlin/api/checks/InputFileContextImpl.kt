@@ -26,6 +26,7 @@ import org.sonar.api.batch.sensor.issue.NewIssueLocation
 import org.sonar.api.rule.RuleKey
 import org.sonarsource.kotlin.api.reporting.KotlinTextRanges.contains
 import org.sonarsource.kotlin.api.reporting.Message
+import org.sonarsource.kotlin.api.reporting.ReportedIssue
 import org.sonarsource.kotlin.api.reporting.SecondaryLocation
 
 private const val PARSING_ERROR_RULE_KEY = "ParsingError"
@@ -37,15 +38,33 @@ private val LOG = LoggerFactory.getLogger(InputFileContextImpl::class.java)
 // acceptable and will eventually be removed when we remove the entire API version guard.
 private var alreadyLoggedIssueMessageWithHighlightingFailed = false
 
+/**
+ * @param recordsIssues when `true`, the saved issues are kept in [reportedIssues]
+ */
 class InputFileContextImpl(
     override val sensorContext: SensorContext,
     override val inputFile: InputFile,
     override val isAndroid: Boolean,
     override val isTestFile: Boolean = false,
+    recordsIssues: Boolean = false,
 ) : InputFileContext {
 
     override var filteredRules: Map<String, Set<TextRange>> = HashMap()
 
+    private val recordedIssues: MutableList<ReportedIssue>? = if (recordsIssues) mutableListOf() else null
+
+    /**
+     * The issues saved so far, empty when the issues are not recorded.
+     */
+    val reportedIssues: List<ReportedIssue>
+        get() = recordedIssues ?: emptyList()
+
+    /**
+     * `true` once an analysis error was reported, i.e. when the results of the analysis of the file may be incomplete.
+     */
+    var hasAnalysisErrors = false
+        private set
+
     override fun reportIssue(
         ruleKey: RuleKey,
         textRange: TextRange?,
@@ -80,6 +99,7 @@ class InputFileContextImpl(
 
             save()
         }
+        recordedIssues?.add(ReportedIssue(ruleKey, textRange, message, secondaryLocations, gap))
     }
 
     private fun NewIssueLocation.message(message: Message): NewIssueLocation {
@@ -133,6 +153,7 @@ class InputFileContextImpl(
     }
 
     override fun reportAnalysisError(message: String?, location: TextPointer?) {
+        hasAnalysisErrors = true
         with(sensorContext.newAnalysisError()) {
             if (message != null) message(message)
             onFile(inputFile)
@@ -0,0 +1,198 @@
+/*
+ * SonarSource Kotlin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.kotlin.api.common
+
+import com.google.gson.GsonBuilder
+import com.google.gson.JsonArray
+import com.google.gson.JsonObject
+import java.lang.management.ManagementFactory
+import java.util.PriorityQueue
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.LongAdder
+
+private const val SLOWEST_FILE_CHECKS = 50
+
+private val gson = GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create()
+
+/**
+ * `null` when the JVM cannot measure the memory allocated by a thread.
+ */
+private val threadMXBean = (ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean)
+    ?.takeIf { it.isThreadAllocatedMemorySupported && it.isThreadAllocatedMemoryEnabled }
+
+/**
+ * Time spent by each visitor over a whole analysis, always measured on each file, and by each check, accumulated by
+ * [org.sonarsource.kotlin.api.visiting.KtChecksVisitor] when the performance measures are activated, once per file rather
+ * than measured around each call, which would cost more than most of the calls themselves.
+ * Thread-safe, so that it can be shared by the visitors of the parallel analysis.
+ *
+ * Besides the totals, the durations of each check and of each visitor on the files are kept in a [LatencyHistogram],
+ * with the memory allocated by each check and the slowest files of each check, see [toJson].
+ */
+class CheckDurations(private val slowestFileChecksCount: Int = SLOWEST_FILE_CHECKS) {
+
+    private val checks = ConcurrentHashMap<String, Measures>()
+
+    private val visitors = ConcurrentHashMap<String, Measures>()
+
+    private val resolvedCallHits = LongAdder()
+
+    private val resolvedCallMisses = LongAdder()
+
+    /**
+     * The [slowestFileChecksCount] slowest (file, check) pairs, the fastest one first.
+     */
+    private val slowestFileChecks = PriorityQueue<FileCheckDuration>(compareBy { it.nanos })
+
+    /**
+     * Duration of the fastest of [slowestFileChecks] once full, so that most of the files are discarded without locking.
+     */
+    @Volatile
+    private var slowestFileChecksThreshold = 0L
+
+    /**
+     * Accumulates the time spent and the memory allocated by a check on a file.
+     */
+    fun addFile(file: String, check: String, nanos: Long, allocatedBytes: Long) {
+        val measures = checks.computeIfAbsent(check) { Measures() }
+        measures.nanos.add(nanos)
+        measures.allocatedBytes.add(allocatedBytes)
+        measures.histogram.record(nanos)
+        if (nanos > slowestFileChecksThreshold) {
+            addSlowestFileCheck(FileCheckDuration(file, check, nanos))
+        }
+    }
+
+    /**
+     * Accumulates the time spent by a visitor on a file.
+     */
+    fun addVisitor(visitor: String, nanos: Long) {
+        val measures = visitors.computeIfAbsent(visitor) { Measures() }
+        measures.nanos.add(nanos)
+        measures.histogram.record(nanos)
+    }
+
+    private fun addSlowestFileCheck(fileCheck: FileCheckDuration) {
+        synchronized(slowestFileChecks) {
+            slowestFileChecks.add(fileCheck)
+            if (slowestFileChecks.size > slowestFileChecksCount) slowestFileChecks.poll()
+            if (slowestFileChecks.size == slowestFileChecksCount) slowestFileChecksThreshold = slowestFileChecks.peek().nanos
+        }
+    }
+
+    /**
+     * Accumulates the lookups of a file in its [org.sonarsource.kotlin.api.frontend.ResolvedCallCache].
+     */
+    fun addResolvedCalls(hits: Long, misses: Long) {
+        resolvedCallHits.add(hits)
+        resolvedCallMisses.add(misses)
+    }
+
+    fun resolvedCallHits(): Long = resolvedCallHits.sum()
+
+    fun resolvedCallMisses(): Long = resolvedCallMisses.sum()
+
+    /**
+     * @return the time spent by each check, in nanoseconds, slowest first
+     */
+    fun nanosByCheck(): List<Pair<String, Long>> =
+        checks.map { (check, measures) -> check to measures.nanos.sum() }.sortedByDescending { it.second }
+
+    /**
+     * @return the slowest (file, check) pairs, the slowest first
+     */
+    fun slowestFileChecks(): List<FileCheckDuration> =
+        synchronized(slowestFileChecks) { slowestFileChecks.sortedByDescending { it.nanos } }
+
+    /**
+     * @return the time spent by each visitor, in nanoseconds, slowest first
+     */
+    fun nanosByVisitor(): List<Pair<String, Long>> =
+        visitors.map { (visitor, measures) -> visitor to measures.nanos.sum() }.sortedByDescending { it.second }
+
+    /**
+     * @return a one-line summary of the [count] slowest checks, when they are measured, of the [count] slowest visitors
+     * and of the resolved calls cache
+     */
+    fun summary(count: Int = 10): String =
+        listOf("Slowest checks" to nanosByCheck(), "Slowest visitors" to nanosByVisitor())
+            .filter { (_, nanosByName) -> nanosByName.isNotEmpty() }
+            .joinToString("") { (title, nanosByName) ->
+                nanosByName.take(count).joinToString(", ", prefix = "$title: ", postfix = ". ") { (name, nanos) ->
+                    "$name ${TimeUnit.NANOSECONDS.toMillis(nanos)} ms"
+                }
+            } + "Resolved calls: ${resolvedCallHits()} hits, ${resolvedCallMisses()} misses"
+
+    /**
+     * @return the measures of the checks and of the visitors, the slowest first, and the [slowestFileChecks], as JSON.
+     * The durations are in nanoseconds, and the percentiles are the ones of the durations on a single file.
+     */
+    fun toJson(): String {
+        val json = JsonObject()
+        json.add("checks", measuresToJson("check", checks, withAllocations = true))
+        json.add("visitors", measuresToJson("visitor", visitors, withAllocations = false))
+        json.add("slowestFileChecks", JsonArray().apply {
+            slowestFileChecks().forEach { (file, check, nanos) ->
+                add(JsonObject().apply {
+                    addProperty("file", file)
+                    addProperty("check", check)
+                    addProperty("nanos", nanos)
+                })
+            }
+        })
+        json.add("resolvedCalls", JsonObject().apply {
+            addProperty("hits", resolvedCallHits())
+            addProperty("misses", resolvedCallMisses())
+        })
+        return gson.toJson(json)
+    }
+
+    private fun measuresToJson(kind: String, measuresByName: Map<String, Measures>, withAllocations: Boolean) =
+        JsonArray().apply {
+            measuresByName.entries
+                .sortedByDescending { it.value.nanos.sum() }
+                .forEach { (name, measures) ->
+                    val histogram = measures.histogram
+                    add(JsonObject().apply {
+                        addProperty(kind, name)
+                        addProperty("files", histogram.count())
+                        addProperty("totalNanos", measures.nanos.sum())
+                        addProperty("p50Nanos", histogram.percentile(50.0))
+                        addProperty("p95Nanos", histogram.percentile(95.0))
+                        addProperty("p99Nanos", histogram.percentile(99.0))
+                        addProperty("maxNanos", histogram.max())
+                        if (withAllocations) addProperty("allocatedBytes", measures.allocatedBytes.sum())
+                    })
+                }
+        }
+
+    data class FileCheckDuration(val file: String, val check: String, val nanos: Long)
+
+    private class Measures {
+        val nanos = LongAdder()
+        val allocatedBytes = LongAdder()
+        val histogram = LatencyHistogram()
+    }
+
+    companion object {
+        /**
+         * @return the bytes allocated so far by the current thread, or 0 when the JVM cannot measure them
+         */
+        fun currentThreadAllocatedBytes(): Long = threadMXBean?.currentThreadAllocatedBytes ?: 0
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * SonarSource Kotlin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.kotlin.api.common
+
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.atomic.LongAccumulator
+import kotlin.math.ceil
+
+/**
+ * Sub-buckets per power of two: a percentile is approximated by the upper bound of its bucket, i.e. by at most 1/8 more.
+ */
+private const val SUB_BUCKET_BITS = 3
+private const val SUB_BUCKETS = 1 shl SUB_BUCKET_BITS
+private const val BUCKETS = (Long.SIZE_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS
+
+/**
+ * Distribution of durations, in nanoseconds, recorded in log-linear buckets of fixed size: recording a value is a single
+ * atomic increment, whatever the number of values, so that a histogram can be kept for each check of an analysis.
+ * Thread-safe.
+ */
+class LatencyHistogram {
+
+    private val counts = AtomicLongArray(BUCKETS)
+
+    private val max = LongAccumulator(Math::max, 0)
+
+    fun record(nanos: Long) {
+        val value = nanos.coerceAtLeast(0)
+        counts.incrementAndGet(bucketOf(value))
+        max.accumulate(value)
+    }
+
+    fun count(): Long = (0 until BUCKETS).sumOf { counts.get(it) }
+
+    fun max(): Long = max.get()
+
+    /**
+     * @return the duration under which [percentile] percent of the recorded durations are, or 0 when none was recorded
+     */
+    fun percentile(percentile: Double): Long {
+        val count = count()
+        if (count == 0L) return 0
+        val rank = ceil(count * percentile / 100).toLong().coerceIn(1, count)
+        var seen = 0L
+        for (bucket in 0 until BUCKETS) {
+            seen += counts.get(bucket)
+            if (seen >= rank) return upperBoundOf(bucket).coerceAtMost(max())
+        }
+        return max()
+    }
+
+    companion object {
+        internal fun bucketOf(value: Long): Int {
+            if (value < SUB_BUCKETS) return value.toInt()
+            val exponent = Long.SIZE_BITS - 1 - java.lang.Long.numberOfLeadingZeros(value)
+            val subBucket = (value ushr (exponent - SUB_BUCKET_BITS)).toInt() and (SUB_BUCKETS - 1)
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket
+        }
+
+        internal fun upperBoundOf(bucket: Int): Long {
+            if (bucket < SUB_BUCKETS) return bucket.toLong()
+            val shift = bucket / SUB_BUCKETS - 1
+            val lowerBound = (SUB_BUCKETS + bucket % SUB_BUCKETS).toLong() shl shift
+            return lowerBound + (1L shl shift) - 1
+        }
+    }
+}
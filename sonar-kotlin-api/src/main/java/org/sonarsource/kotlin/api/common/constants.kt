@@ -30,6 +30,16 @@ const val KOTLIN_LANGUAGE_VERSION = "sonar.kotlin.source.version"
 
 val DEFAULT_KOTLIN_LANGUAGE_VERSION = LanguageVersion.LATEST_STABLE
 const val FAIL_FAST_PROPERTY_NAME = "sonar.internal.analysis.failFast"
+const val ANALYSIS_THREADS_PROPERTY = "sonar.kotlin.analysis.threads"
+const val PROJECT_LEVEL_ANALYSIS_PROPERTY = "sonar.kotlin.analysis.projectLevel"
+const val CLASSPATH_PRUNING_PROPERTY = "sonar.kotlin.classpath.pruning"
+const val SYNTAX_ONLY_ANALYSIS_PROPERTY = "sonar.kotlin.analysis.syntaxOnly"
+// In milliseconds, not limited when not set
+const val FILE_TIME_BUDGET_PROPERTY = "sonar.kotlin.analysis.fileTimeBudget"
+const val CHECK_TIME_BUDGET_PROPERTY = "sonar.kotlin.analysis.checkTimeBudget"
+const val PERFORMANCE_MEASURE_ACTIVATION_PROPERTY = "sonar.kotlin.performance.measure"
+const val PERFORMANCE_MEASURE_DESTINATION_FILE = "sonar.kotlin.performance.measure.json"
+const val DEFAULT_PERFORMANCE_MEASURE_DESTINATION = "/tmp/sonar.kotlin.performance.measure.json"
 
 // https://jira.sonarsource.com/browse/SONARKT-242
 @Deprecated("was used, but not anymore, preserved for future")
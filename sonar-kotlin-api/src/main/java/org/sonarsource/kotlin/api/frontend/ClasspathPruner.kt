@@ -0,0 +1,222 @@
+/*
+ * SonarSource Kotlin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.kotlin.api.frontend
+
+import com.intellij.psi.tree.IElementType
+import java.io.File
+import java.nio.file.Files
+import kotlin.io.path.extension
+import kotlin.io.path.isRegularFile
+import kotlin.io.path.relativeTo
+import org.jetbrains.kotlin.lexer.KotlinLexer
+import org.jetbrains.kotlin.lexer.KotlinLexerException
+import org.jetbrains.kotlin.lexer.KtTokens
+import org.slf4j.LoggerFactory
+import org.sonarsource.kotlin.api.logging.debug
+
+private val LOG = LoggerFactory.getLogger(ClasspathPruner::class.java)
+
+/**
+ * Packages imported by default in Kotlin files, see https://kotlinlang.org/docs/packages.html#default-imports
+ */
+private val DEFAULT_IMPORTED_PACKAGES = listOf(
+    "kotlin", "kotlin.annotation", "kotlin.collections", "kotlin.comparisons", "kotlin.io", "kotlin.ranges",
+    "kotlin.sequences", "kotlin.text", "kotlin.jvm",
+)
+
+/**
+ * Reduces a classpath to the jars defining the packages referenced by the source files, through imports or fully
+ * qualified names, plus the jars defining the types exposed by the classes of the reached packages, transitively: their
+ * supertypes and the types of the signatures of their members, see [JarPackageIndex.signaturePackagesOf]. So a call
+ * like `a.foo().bar()` on an imported class `A` keeps the jar defining the return type of `foo`. Only the classes of the
+ * reached packages are read, not every class of the kept jars. Directories are always kept.
+ *
+ * When an import cannot be resolved to a package of the classpath, of the JDK or of the source files, when a file cannot
+ * be tokenized, or when a reached package has Kotlin metadata which cannot be followed, nothing is pruned:
+ * [prunedClasspath] returns `null` and the full classpath should be used.
+ */
+class ClasspathPruner(
+    private val jarPackageIndex: JarPackageIndex,
+    private val classpath: List<String>,
+) {
+
+    private val jarsByPackage: Map<String, List<File>> by lazy {
+        val jarsByPackage = HashMap<String, MutableList<File>>()
+        classpath.map(::File).filter { it.isFile && jarPackageIndex.isJar(it) }.forEach { jar ->
+            jarPackageIndex.packagesOf(jar).forEach { jarsByPackage.getOrPut(it) { mutableListOf() }.add(jar) }
+        }
+        jarsByPackage
+    }
+
+    private val directoryPackages: Set<String> by lazy {
+        classpath.map { File(it).toPath() }.filter { Files.isDirectory(it) }.flatMapTo(HashSet()) { directory ->
+            Files.walk(directory).use { paths ->
+                paths.filter { it.isRegularFile() && it.extension == "class" }
+                    .map { (it.parent?.relativeTo(directory)?.toString() ?: "").replace(File.separatorChar, '.') }
+                    .toList()
+            }
+        }
+    }
+
+    private val jdkPackages: Set<String> by lazy {
+        ModuleLayer.boot().modules().flatMapTo(HashSet()) { it.packages }
+    }
+
+    private val sourcePackages = HashSet<String>()
+    private val imports = ArrayList<Pair<String, Boolean>>()
+    private val qualifiedNames = HashSet<String>()
+    private var hasUnknownReferences = false
+
+    /**
+     * Records the packages referenced by the given file content: its package, its imports and its dotted names, e.g.
+     * fully qualified names. The content is only tokenized, not parsed, as the files are parsed by the compiler session.
+     */
+    fun addReferences(content: CharSequence) {
+        val tokens = try {
+            significantTokensOf(content)
+        } catch (_: KotlinLexerException) {
+            hasUnknownReferences = true
+            return
+        }
+        var packageName = ""
+        var index = 0
+        while (index < tokens.size) {
+            val token = tokens[index]
+            when {
+                token.type == KtTokens.PACKAGE_KEYWORD -> {
+                    val name = DottedName.at(tokens, index + 1)
+                    packageName = name.value
+                    index = name.end
+                }
+                token.isImportKeyword() -> {
+                    val name = DottedName.at(tokens, index + 1)
+                    if (name.value.isNotEmpty()) imports.add(name.value to name.isAllUnder)
+                    index = maxOf(name.end, index + 1)
+                }
+                token.type == KtTokens.IDENTIFIER -> {
+                    val name = DottedName.at(tokens, index)
+                    if ('.' in name.value) qualifiedNames.add(name.value)
+                    index = name.end
+                }
+                else -> index++
+            }
+        }
+        sourcePackages.add(packageName)
+    }
+
+    /**
+     * @return the classpath entries to keep, in their original order, or `null` when the full classpath should be used
+     */
+    fun prunedClasspath(): List<String>? {
+        if (hasUnknownReferences) {
+            LOG.debug { "Cannot tokenize all the Kotlin files, the classpath is not pruned" }
+            return null
+        }
+        val referencedPackages = HashSet<String>(DEFAULT_IMPORTED_PACKAGES)
+        referencedPackages.addAll(sourcePackages)
+        imports.forEach { (name, isAllUnder) ->
+            val importedPackage = prefixesOf(if (isAllUnder) name else name.substringBeforeLast('.', ""))
+                .firstOrNull { it in jarsByPackage || it in directoryPackages || it in jdkPackages || it in sourcePackages }
+            if (importedPackage == null) {
+                LOG.debug { "Cannot find the package of import '$name' in the classpath, the classpath is not pruned" }
+                return null
+            }
+            referencedPackages.add(importedPackage)
+        }
+        qualifiedNames.forEach { name -> prefixesOf(name).filterTo(referencedPackages) { it in jarsByPackage } }
+
+        val keptJars = HashSet<File>()
+        val packagesToVisit = ArrayDeque(referencedPackages)
+        val visitedPackages = HashSet<String>()
+        while (packagesToVisit.isNotEmpty()) {
+            val visitedPackage = packagesToVisit.removeFirst()
+            if (!visitedPackages.add(visitedPackage)) continue
+            jarsByPackage[visitedPackage]?.forEach { jar ->
+                keptJars.add(jar)
+                val exposedPackages = jarPackageIndex.signaturePackagesOf(jar, visitedPackage)
+                if (exposedPackages == null) {
+                    LOG.debug {
+                        "Cannot follow the Kotlin metadata of package '$visitedPackage' in '$jar', the classpath is not pruned"
+                    }
+                    return null
+                }
+                packagesToVisit.addAll(exposedPackages)
+            }
+        }
+        return classpath.filter { File(it).let { root -> root.isDirectory || root in keptJars } }
+    }
+}
+
+/**
+ * @return the given dotted name followed by its prefixes, from the longest one to the shortest one
+ */
+private fun prefixesOf(name: String): Sequence<String> =
+    generateSequence(name.takeIf { it.isNotEmpty() }) { prefix ->
+        prefix.substringBeforeLast('.', "").takeIf { it.isNotEmpty() }
+    }
+
+internal class Token(val type: IElementType, val text: String) {
+    // Depending on the version of the lexer, `import` is lexed as a keyword or as an identifier
+    fun isImportKeyword() = text == "import" && (type == KtTokens.IMPORT_KEYWORD || type == KtTokens.IDENTIFIER)
+}
+
+/**
+ * @return the tokens of the content, without the whitespaces and the comments
+ */
+internal fun significantTokensOf(content: CharSequence): List<Token> {
+    val lexer = KotlinLexer()
+    lexer.start(content)
+    val tokens = ArrayList<Token>()
+    while (true) {
+        val type = lexer.tokenType ?: break
+        if (type !in KtTokens.WHITESPACES && type !in KtTokens.COMMENTS) tokens.add(Token(type, lexer.tokenText))
+        lexer.advance()
+    }
+    return tokens
+}
+
+/**
+ * A name made of identifiers separated by dots, e.g. `com.example.A`, followed by `.*` when [isAllUnder].
+ *
+ * @param end the index of the token following the name
+ */
+private class DottedName(val value: String, val end: Int, val isAllUnder: Boolean) {
+    companion object {
+        /**
+         * @return the dotted name starting at the given index, empty when there is no identifier at that index
+         */
+        fun at(tokens: List<Token>, start: Int): DottedName {
+            val segments = ArrayList<String>()
+            var index = start
+            while (index < tokens.size && tokens[index].type == KtTokens.IDENTIFIER) {
+                segments.add(tokens[index].text.removeSurrounding("`"))
+                index++
+                if (index + 1 < tokens.size && tokens[index].type == KtTokens.DOT) {
+                    if (tokens[index + 1].type == KtTokens.MUL) {
+                        return DottedName(segments.joinToString("."), index + 2, isAllUnder = true)
+                    }
+                    if (tokens[index + 1].type == KtTokens.IDENTIFIER) {
+                        index++
+                        continue
+                    }
+                }
+                break
+            }
+            return DottedName(segments.joinToString("."), index, isAllUnder = false)
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * SonarSource Kotlin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.kotlin.api.frontend
+
+import com.intellij.psi.PsiElement
+
+private const val MIN_CAPACITY = 64
+
+/**
+ * Flat view of a syntax tree, built once per file, see [KotlinTree.flatTree]: the nodes are numbered in pre-order,
+ * so that the descendants of a node are the nodes from its index + 1 to its [subtreeEnd], and their properties are
+ * held in parallel primitive arrays. Visitors iterate it with an index, without allocating anything.
+ *
+ * ```
+ * var index = 0
+ * while (index < tree.size) {
+ *     if (isInteresting(tree.node(index))) index++ else index = tree.subtreeEnd(index)
+ * }
+ * ```
+ */
+class FlatTree private constructor(
+    /**
+     * Number of nodes of the tree, the root being the node at index 0.
+     */
+    val size: Int,
+    private val nodes: Array<PsiElement?>,
+    private val elementTypes: ShortArray,
+    private val startOffsets: IntArray,
+    private val endOffsets: IntArray,
+    private val parents: IntArray,
+    private val depths: IntArray,
+    private val subtreeEnds: IntArray,
+    private val psiChildren: BooleanArray,
+) {
+
+    fun node(index: Int): PsiElement = nodes[index]!!
+
+    /**
+     * Index of the [com.intellij.psi.tree.IElementType] of the node, see [com.intellij.psi.tree.IElementType.find].
+     */
+    fun elementType(index: Int): Short = elementTypes[index]
+
+    fun startOffset(index: Int): Int = startOffsets[index]
+
+    fun endOffset(index: Int): Int = endOffsets[index]
+
+    /**
+     * @return the index of the parent of the node, -1 for the root
+     */
+    fun parent(index: Int): Int = parents[index]
+
+    fun depth(index: Int): Int = depths[index]
+
+    /**
+     * @return the index following the last descendant of the node, i.e. the index to jump to in order to skip its subtree
+     */
+    fun subtreeEnd(index: Int): Int = subtreeEnds[index]
+
+    /**
+     * `true` when the node is reached from the root through [PsiElement.getChildren], which skips most of the leaves,
+     * i.e. when it is one of the nodes visited by [org.sonarsource.kotlin.api.visiting.KtTreeVisitor].
+     */
+    fun isPsiChild(index: Int): Boolean = psiChildren[index]
+
+    companion object {
+        /**
+         * Walks the tree once, following the child, sibling and parent links, without recursion.
+         */
+        @JvmStatic
+        fun of(root: PsiElement): FlatTree {
+            val builder = Builder(root.textLength / 4, root.textRange.startOffset)
+            var node = builder.addRoot(root)
+            while (true) {
+                val firstChild = node.firstChild
+                if (firstChild != null) {
+                    builder.enter(node)
+                    node = firstChild
+                    builder.add(node)
+                    continue
+                }
+                builder.addLeafText(node)
+                while (true) {
+                    val index = builder.exit()
+                    if (index == 0) return builder.build()
+                    val nextSibling = node.nextSibling
+                    if (nextSibling != null) {
+                        node = nextSibling
+                        builder.add(node)
+                        break
+                    }
+                    node = node.parent
+                }
+            }
+        }
+    }
+
+    private class Builder(expectedSize: Int, private var offset: Int) {
+        private var capacity = maxOf(expectedSize, MIN_CAPACITY)
+        private var size = 0
+        private var nodes = arrayOfNulls<PsiElement>(capacity)
+        private var elementTypes = ShortArray(capacity)
+        private var startOffsets = IntArray(capacity)
+        private var endOffsets = IntArray(capacity)
+        private var parents = IntArray(capacity)
+        private var depths = IntArray(capacity)
+        private var subtreeEnds = IntArray(capacity)
+        private var psiChildren = BooleanArray(capacity)
+
+        // Path from the root to the node being built: the index of each ancestor, its PSI children when it is a PSI child
+        // itself, and the position of the next expected PSI child in them
+        private var pathSize = 0
+        private var pathIndexes = IntArray(MIN_CAPACITY)
+        private var pathPsiChildren = arrayOfNulls<Array<PsiElement>>(MIN_CAPACITY)
+        private var pathCursors = IntArray(MIN_CAPACITY)
+
+        fun addRoot(root: PsiElement): PsiElement {
+            pathIndexes[0] = add(root, -1, 0, true)
+            pathSize = 1
+            return root
+        }
+
+        /**
+         * Adds a child of the last [entered][enter] node.
+         */
+        fun add(node: PsiElement) {
+            val top = pathSize - 1
+            val siblings = pathPsiChildren[top]
+            var isPsiChild = false
+            if (siblings != null) {
+                // PSI children are in the order of the siblings, but not all the siblings are PSI children
+                var cursor = pathCursors[top]
+                while (cursor < siblings.size && siblings[cursor] !== node) cursor++
+                if (cursor < siblings.size) {
+                    isPsiChild = true
+                    pathCursors[top] = cursor + 1
+                }
+            }
+            val index = add(node, pathIndexes[top], pathSize, isPsiChild)
+            if (pathSize == pathIndexes.size) growPath()
+            pathIndexes[pathSize] = index
+            pathPsiChildren[pathSize] = null
+            pathSize++
+        }
+
+        /**
+         * Marks the last added node as the parent of the next added nodes.
+         */
+        fun enter(node: PsiElement) {
+            val top = pathSize - 1
+            pathPsiChildren[top] = if (psiChildren[pathIndexes[top]]) node.children else null
+            pathCursors[top] = 0
+        }
+
+        fun addLeafText(leaf: PsiElement) {
+            offset += leaf.textLength
+        }
+
+        /**
+         * Completes the last added node which is not completed yet.
+         *
+         * @return its index
+         */
+        fun exit(): Int {
+            pathSize--
+            val index = pathIndexes[pathSize]
+            pathPsiChildren[pathSize] = null
+            endOffsets[index] = offset
+            subtreeEnds[index] = size
+            return index
+        }
+
+        private fun add(node: PsiElement, parent: Int, depth: Int, isPsiChild: Boolean): Int {
+            if (size == capacity) grow()
+            nodes[size] = node
+            elementTypes[size] = node.node?.elementType?.index ?: 0.toShort()
+            startOffsets[size] = offset
+            parents[size] = parent
+            depths[size] = depth
+            psiChildren[size] = isPsiChild
+            return size++
+        }
+
+        private fun grow() {
+            capacity *= 2
+            nodes = nodes.copyOf(capacity)
+            elementTypes = elementTypes.copyOf(capacity)
+            startOffsets = startOffsets.copyOf(capacity)
+            endOffsets = endOffsets.copyOf(capacity)
+            parents = parents.copyOf(capacity)
+            depths = depths.copyOf(capacity)
+            subtreeEnds = subtreeEnds.copyOf(capacity)
+            psiChildren = psiChildren.copyOf(capacity)
+        }
+
+        private fun growPath() {
+            val pathCapacity = pathIndexes.size * 2
+            pathIndexes = pathIndexes.copyOf(pathCapacity)
+            pathPsiChildren = pathPsiChildren.copyOf(pathCapacity)
+            pathCursors = pathCursors.copyOf(pathCapacity)
+        }
+
+        fun build() = FlatTree(
+            size,
+            nodes.copyOf(size),
+            elementTypes.copyOf(size),
+            startOffsets.copyOf(size),
+            endOffsets.copyOf(size),
+            parents.copyOf(size),
+            depths.copyOf(size),
+            subtreeEnds.copyOf(size),
+            psiChildren.copyOf(size),
+        )
+    }
+}
@@ -0,0 +1,383 @@
+/*
+ * SonarSource Kotlin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.kotlin.api.frontend
+
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.zip.ZipFile
+import org.slf4j.LoggerFactory
+import org.sonar.api.batch.sensor.cache.ReadCache
+import org.sonar.api.batch.sensor.cache.WriteCache
+
+private val LOG = LoggerFactory.getLogger(JarPackageIndex::class.java)
+
+private const val JAR_PACKAGE_INDEX_KEY = "kotlin:jarPackageIndex"
+private const val MAGIC = 0x4b434958 // "KCIX"
+private const val FORMAT_VERSION = 5
+private const val CLASS_FILE_SUFFIX = ".class"
+private const val MULTI_RELEASE_PREFIX = "META-INF/versions/"
+private const val ACC_PRIVATE = 0x0002
+private const val KOTLIN_METADATA_DESCRIPTOR = "Lkotlin/Metadata;"
+
+/**
+ * Class types of a field descriptor, of a method descriptor or of a generic signature, e.g. `Lcom/b/B;` or the
+ * `Ljava/util/List<` of `Ljava/util/List<Lcom/b/B;>;`
+ */
+private val CLASS_TYPE_PATTERN = Regex("L([^;<>]+)[;<]")
+
+/**
+ * Index of the packages defined by the jars of the classpath and of the packages the signatures of their classes refer
+ * to, package by package, kept in the analysis cache between analyses. It decides which entries of the classpath are
+ * given to the compiler, see [ClasspathPruner], but it is not an index of their declarations: the compiler session still
+ * indexes the jars it is given.
+ *
+ * A jar is read again only when its size or its modification time changes, the way build tools detect changed files
+ * before hashing them. A content hash would be more robust to a jar rewritten in place with the same size and time, but
+ * computing it means reading every jar in full on every analysis, which costs more than reading the central directory
+ * of the jar again, i.e. than what the index saves.
+ *
+ * Only the jars looked up during an analysis are [saved][save], so the index follows the classpath of the module.
+ */
+class JarPackageIndex private constructor(
+    private val writeCache: WriteCache?,
+    private val previousJars: Map<String, IndexedJar>,
+) {
+
+    private val jars = ConcurrentHashMap<String, IndexedJar>()
+
+    @Volatile
+    private var modified = false
+
+    @Volatile
+    private var saved = false
+
+    /**
+     * @return `true` when the given file is a jar, rather than another kind of file of the classpath
+     */
+    fun isJar(file: File): Boolean = indexedJar(file).isJar
+
+    /**
+     * @return the packages defined by the classes of the given jar
+     */
+    fun packagesOf(jar: File): Set<String> {
+        val indexedJar = indexedJar(jar)
+        return indexedJar.packages
+            ?: (if (indexedJar.isJar) jar.readPackages() else emptySet()).also {
+                indexedJar.packages = it
+                modified = true
+            }
+    }
+
+    /**
+     * Only the class files of the given package are read, the first time the package of the jar is looked up.
+     *
+     * @return the packages of the types which the classes of the given package of the jar expose: the types of their
+     * supertypes and of the signatures of their non-private fields and methods, e.g. return types, parameter types such
+     * as extension receivers, and the types of the synthetic methods of default arguments. `null` when some of these
+     * classes are compiled from Kotlin, outside of the standard library: their Kotlin metadata, which is not read, can
+     * refer to types which their class files do not, e.g. the expansions of type aliases or inline classes.
+     */
+    fun signaturePackagesOf(jar: File, packageName: String): Set<String>? {
+        val indexedJar = indexedJar(jar)
+        val exposedPackages = indexedJar.exposedPackages.computeIfAbsent(packageName) {
+            modified = true
+            if (indexedJar.isJar) jar.readExposedPackages(packageName) else ExposedPackages(emptySet(), true)
+        }
+        return exposedPackages.packages.takeIf { exposedPackages.isComplete }
+    }
+
+    private fun indexedJar(jar: File): IndexedJar {
+        val path = jar.absolutePath
+        return jars.computeIfAbsent(path) {
+            val size = jar.length()
+            val lastModified = jar.lastModified()
+            previousJars[path]?.takeIf { it.size == size && it.lastModified == lastModified }
+                ?: IndexedJar(size, lastModified, jar.isJar(), null, ConcurrentHashMap()).also { modified = true }
+        }
+    }
+
+    /**
+     * Writes the index to the cache of the next analysis, once per analysis. The index of the previous analysis is copied
+     * as is when no jar was indexed and no jar is no longer looked up, or when no jar was looked up at all, e.g. when the
+     * files were parsed without a compiler session.
+     */
+    fun save() {
+        if (writeCache == null || saved || (jars.isEmpty() && previousJars.isEmpty())) return
+        saved = true
+        try {
+            if (jars.isEmpty() || (!modified && jars.keys == previousJars.keys)) {
+                writeCache.copyFromPrevious(JAR_PACKAGE_INDEX_KEY)
+            } else {
+                writeCache.write(JAR_PACKAGE_INDEX_KEY, serialize())
+            }
+        } catch (e: IllegalArgumentException) {
+            LOG.debug("Cannot save the jar package index to the cache: {}", e.message)
+        }
+    }
+
+    private fun serialize(): ByteArray {
+        val bytes = ByteArrayOutputStream()
+        DataOutputStream(bytes).use { output ->
+            output.writeInt(MAGIC)
+            output.writeInt(FORMAT_VERSION)
+            output.writeInt(jars.size)
+            jars.forEach { (path, jar) ->
+                output.writeUTF(path)
+                output.writeLong(jar.size)
+                output.writeLong(jar.lastModified)
+                output.writeBoolean(jar.isJar)
+                output.writeStrings(jar.packages)
+                output.writeInt(jar.exposedPackages.size)
+                jar.exposedPackages.forEach { (packageName, exposedPackages) ->
+                    output.writeUTF(packageName)
+                    output.writeBoolean(exposedPackages.isComplete)
+                    output.writeStrings(exposedPackages.packages)
+                }
+            }
+        }
+        return bytes.toByteArray()
+    }
+
+    companion object {
+        /**
+         * An index which is not persisted.
+         */
+        fun inMemory() = JarPackageIndex(null, emptyMap())
+
+        /**
+         * Loads the index saved by the previous analysis, to be [saved][save] for the next one. The index is empty when
+         * the previous analysis did not save it or when it cannot be read.
+         */
+        fun load(readCache: ReadCache, writeCache: WriteCache): JarPackageIndex {
+            val previousJars = if (readCache.contains(JAR_PACKAGE_INDEX_KEY)) {
+                try {
+                    DataInputStream(readCache.read(JAR_PACKAGE_INDEX_KEY).buffered()).use(::readJars)
+                } catch (e: IOException) {
+                    LOG.debug("Cannot load the jar package index from the cache: {}", e.message)
+                    emptyMap()
+                }
+            } else {
+                emptyMap()
+            }
+            return JarPackageIndex(writeCache, previousJars)
+        }
+
+        private fun readJars(input: DataInputStream): Map<String, IndexedJar> {
+            if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION) return emptyMap()
+            val count = input.readInt()
+            val jars = HashMap<String, IndexedJar>(count)
+            repeat(count) {
+                val path = input.readUTF()
+                val size = input.readLong()
+                val lastModified = input.readLong()
+                val isJar = input.readBoolean()
+                val packages = input.readStrings()
+                val exposedPackages = ConcurrentHashMap<String, ExposedPackages>()
+                repeat(input.readInt()) {
+                    val packageName = input.readUTF()
+                    val isComplete = input.readBoolean()
+                    exposedPackages[packageName] = ExposedPackages(input.readStrings().orEmpty(), isComplete)
+                }
+                jars[path] = IndexedJar(size, lastModified, isJar, packages, exposedPackages)
+            }
+            return jars
+        }
+    }
+
+    /**
+     * [packages] is `null` until it is looked up for the first time, and [exposedPackages] only holds the packages of
+     * the jar looked up so far.
+     */
+    private class IndexedJar(
+        val size: Long,
+        val lastModified: Long,
+        val isJar: Boolean,
+        @Volatile var packages: Set<String>?,
+        val exposedPackages: ConcurrentHashMap<String, ExposedPackages>,
+    )
+}
+
+/**
+ * The packages exposed by the classes of a package of a jar, see [JarPackageIndex.signaturePackagesOf].
+ *
+ * @param isComplete `false` when some of the classes have Kotlin metadata which is not followed
+ */
+private class ExposedPackages(val packages: Set<String>, val isComplete: Boolean)
+
+internal fun File.isJar(): Boolean =
+    this.isFile && inputStream().use {
+        val header = (it.read() shl 24) or (it.read() shl 16) or (it.read() shl 8) or it.read()
+        header == 0x504b0304
+    }
+
+/**
+ * Reads the packages of the classes from the central directory of the jar, without decompressing any entry.
+ */
+private fun File.readPackages(): Set<String> =
+    try {
+        ZipFile(this).use { zip ->
+            zip.stream()
+                .map { it.name }
+                .filter { it.endsWith(CLASS_FILE_SUFFIX) }
+                .map(::packageOfClassEntry)
+                .filter { !it.startsWith("META-INF") }
+                .toList()
+                .toSet()
+        }
+    } catch (_: IOException) {
+        emptySet()
+    }
+
+/**
+ * @return the package of the class file with the given name in a jar, including the class files of multi-release jars
+ */
+private fun packageOfClassEntry(name: String): String {
+    val className = if (name.startsWith(MULTI_RELEASE_PREFIX)) {
+        name.substring(MULTI_RELEASE_PREFIX.length).substringAfter('/')
+    } else {
+        name
+    }
+    return className.substringBeforeLast('/', "").replace('/', '.')
+}
+
+/**
+ * Reads the packages of the types exposed by the classes of the given package of the jar from their class files, see
+ * [JarPackageIndex.signaturePackagesOf]. Only the class files of the package are decompressed.
+ */
+private fun File.readExposedPackages(packageName: String): ExposedPackages =
+    try {
+        ZipFile(this).use { zip ->
+            val packages = HashSet<String>()
+            var hasKotlinMetadata = false
+            zip.stream()
+                .filter { it.name.endsWith(CLASS_FILE_SUFFIX) && packageOfClassEntry(it.name) == packageName }
+                .forEach { entry ->
+                    try {
+                        zip.getInputStream(entry).use { input ->
+                            val signature = readClassSignature(DataInputStream(input.buffered()))
+                            signature.types.forEach { internalName ->
+                                packages.add(internalName.substringBeforeLast('/', "").replace('/', '.'))
+                            }
+                            hasKotlinMetadata = hasKotlinMetadata || signature.hasKotlinMetadata
+                        }
+                    } catch (_: IOException) {
+                        // Malformed class files are ignored, like the compiler does
+                    }
+                }
+            // The standard library only refers to its own packages and to the ones of the JDK
+            val isStandardLibrary = packageName == "kotlin" || packageName.startsWith("kotlin.")
+            ExposedPackages(packages, isComplete = !hasKotlinMetadata || isStandardLibrary)
+        }
+    } catch (_: IOException) {
+        ExposedPackages(emptySet(), true)
+    }
+
+/**
+ * @param types the internal names of the types exposed by a class file
+ * @param hasKotlinMetadata `true` when the class is compiled from Kotlin, i.e. it is annotated with `kotlin.Metadata`
+ */
+private class ClassSignature(val types: List<String>, val hasKotlinMetadata: Boolean)
+
+/**
+ * @return the internal names of the superclass and of the interfaces of the class file, and of the class types in the
+ * descriptors and generic signatures of the class and of its non-private fields and methods,
+ * see [the class file format](https://docs.oracle.com/javase/specs/jvms/se21/html/jvms-4.html)
+ */
+private fun readClassSignature(input: DataInputStream): ClassSignature {
+    if (input.readInt() != 0xCAFEBABE.toInt()) return ClassSignature(emptyList(), false)
+    input.readUnsignedShort() // minor version
+    input.readUnsignedShort() // major version
+    val constantPoolCount = input.readUnsignedShort()
+    val utf8s = arrayOfNulls<String>(constantPoolCount)
+    val classNameIndexes = IntArray(constantPoolCount)
+    var index = 1
+    while (index < constantPoolCount) {
+        when (val tag = input.readUnsignedByte()) {
+            1 -> utf8s[index] = input.readUTF()
+            7 -> classNameIndexes[index] = input.readUnsignedShort()
+            8, 16, 19, 20 -> input.skipNBytes(2)
+            15 -> input.skipNBytes(3)
+            3, 4, 9, 10, 11, 12, 17, 18 -> input.skipNBytes(4)
+            5, 6 -> {
+                input.skipNBytes(8)
+                // Long and double constants take two entries of the pool
+                index++
+            }
+            else -> throw IOException("Unexpected constant pool tag $tag")
+        }
+        index++
+    }
+    input.readUnsignedShort() // access flags
+    input.readUnsignedShort() // this class
+    val superClass = input.readUnsignedShort()
+    val interfaces = List(input.readUnsignedShort()) { input.readUnsignedShort() }
+    val types = (listOf(superClass) + interfaces)
+        .filter { it != 0 }
+        .mapNotNullTo(ArrayList()) { utf8s[classNameIndexes[it]] }
+
+    val signatures = ArrayList<String>()
+    // The fields, then the methods
+    repeat(2) {
+        repeat(input.readUnsignedShort()) {
+            val accessFlags = input.readUnsignedShort()
+            input.readUnsignedShort() // name
+            val descriptor = utf8s[input.readUnsignedShort()]
+            val signature = readSignatureAttribute(input, utf8s)
+            if ((accessFlags and ACC_PRIVATE) == 0) {
+                descriptor?.let(signatures::add)
+                signature?.let(signatures::add)
+            }
+        }
+    }
+    readSignatureAttribute(input, utf8s)?.let(signatures::add)
+    signatures.forEach { signature -> CLASS_TYPE_PATTERN.findAll(signature).mapTo(types) { it.groupValues[1] } }
+    // The constant pool holds the descriptor of every annotation of the class
+    return ClassSignature(types, KOTLIN_METADATA_DESCRIPTOR in utf8s)
+}
+
+/**
+ * Reads the attributes of a class, a field or a method.
+ *
+ * @return the generic signature among them, if any
+ */
+private fun readSignatureAttribute(input: DataInputStream, utf8s: Array<String?>): String? {
+    var signature: String? = null
+    repeat(input.readUnsignedShort()) {
+        val name = utf8s[input.readUnsignedShort()]
+        val length = input.readInt()
+        if (name == "Signature" && length == 2) {
+            signature = utf8s[input.readUnsignedShort()]
+        } else {
+            input.skipNBytes(length.toLong())
+        }
+    }
+    return signature
+}
+
+private fun DataOutputStream.writeStrings(values: Set<String>?) {
+    writeInt(values?.size ?: -1)
+    values?.forEach { writeUTF(it) }
+}
+
+private fun DataInputStream.readStrings(): Set<String>? {
+    val count = readInt()
+    return if (count < 0) null else HashSet<String>(count).apply { repeat(count) { add(readUTF()) } }
+}
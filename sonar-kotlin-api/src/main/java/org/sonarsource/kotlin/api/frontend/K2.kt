@@ -40,6 +40,8 @@ import java.io.InputStream
 import java.io.OutputStream
 import org.slf4j.LoggerFactory
 
+const val DEFAULT_SOURCE_MODULE_NAME = "module"
+
 /**
  * @see [org.jetbrains.kotlin.analysis.api.standalone.StandaloneAnalysisAPISessionBuilder.buildKtModuleProviderByCompilerConfiguration]
  */
@@ -47,6 +49,17 @@ fun createK2AnalysisSession(
     parentDisposable: Disposable,
     compilerConfiguration: CompilerConfiguration,
     virtualFiles: Collection<VirtualFile>,
+): StandaloneAnalysisAPISession =
+    createK2AnalysisSession(parentDisposable, compilerConfiguration, mapOf(DEFAULT_SOURCE_MODULE_NAME to virtualFiles))
+
+/**
+ * Creates a session with one source module per entry of [virtualFilesByModule]. The library and JDK modules built from
+ * the classpath of [compilerConfiguration] are indexed once and shared by all the source modules.
+ */
+fun createK2AnalysisSession(
+    parentDisposable: Disposable,
+    compilerConfiguration: CompilerConfiguration,
+    virtualFilesByModule: Map<String, Collection<VirtualFile>>,
 ): StandaloneAnalysisAPISession {
 
     if (!Logger.isInitialized()) {
@@ -62,24 +75,28 @@ fun createK2AnalysisSession(
         val platform = JvmPlatforms.defaultJvmPlatform
         buildKtModuleProvider {
             this.platform = platform
-            addModule(buildKtSourceModule {
+            val library = buildKtLibraryModule {
                 this.platform = platform
-                moduleName = "module"
-                languageVersionSettings = compilerConfiguration.languageVersionSettings
-                addSourceVirtualFiles(virtualFiles)
-                addRegularDependency(buildKtLibraryModule {
+                libraryName = "library"
+                addBinaryRoots(compilerConfiguration.jvmClasspathRoots.map { it.toPath() })
+            }
+            val jdk = compilerConfiguration[JVMConfigurationKeys.JDK_HOME]?.let { jdkHome ->
+                buildKtSdkModule {
                     this.platform = platform
-                    libraryName = "library"
-                    addBinaryRoots(compilerConfiguration.jvmClasspathRoots.map { it.toPath() })
-                })
-                compilerConfiguration[JVMConfigurationKeys.JDK_HOME]?.let { jdkHome ->
-                    addRegularDependency(buildKtSdkModule {
-                        this.platform = platform
-                        addBinaryRootsFromJdkHome(jdkHome.toPath(), isJre = false)
-                        libraryName = "JDK"
-                    })
+                    addBinaryRootsFromJdkHome(jdkHome.toPath(), isJre = false)
+                    libraryName = "JDK"
                 }
-            })
+            }
+            virtualFilesByModule.forEach { (name, virtualFiles) ->
+                addModule(buildKtSourceModule {
+                    this.platform = platform
+                    moduleName = name
+                    languageVersionSettings = compilerConfiguration.languageVersionSettings
+                    addSourceVirtualFiles(virtualFiles)
+                    addRegularDependency(library)
+                    jdk?.let { addRegularDependency(it) }
+                })
+            }
         }
     }
 }
@@ -109,7 +126,8 @@ class KotlinFileSystem : CoreLocalFileSystem() {
 class KotlinVirtualFile(
     private val fileSystem: KotlinFileSystem,
     private val file: File,
-    private val contentProvider: (() -> String)? = null,
+    contentProvider: (() -> String)? = null,
+    private val contentBytesProvider: (() -> ByteArray)? = contentProvider?.let { { it().toByteArray() } },
 ) : VirtualFile() {
 
     override fun getName(): String = file.name
@@ -138,7 +156,7 @@ class KotlinVirtualFile(
         throw UnsupportedOperationException()
 
     override fun contentsToByteArray(): ByteArray {
-        if (contentProvider != null) return contentProvider.invoke().toByteArray()
+        if (contentBytesProvider != null) return contentBytesProvider.invoke()
         return FileUtil.loadFileBytes(file)
     }
 
@@ -17,6 +17,8 @@
 package org.sonarsource.kotlin.api.frontend
 
 import com.intellij.openapi.Disposable
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.psi.PsiFile
 import java.io.File
 import org.jetbrains.kotlin.K1Deprecation
 import org.jetbrains.kotlin.analysis.api.standalone.StandaloneAnalysisAPISession
@@ -43,14 +45,34 @@ import org.jetbrains.kotlin.psi.KtPsiFactory
 class Environment(
     val disposable: Disposable,
     val classpath: List<String>,
-    kotlinLanguageVersion: LanguageVersion,
-    javaLanguageVersion: JvmTarget = JvmTarget.JVM_1_8,
+    private val kotlinLanguageVersion: LanguageVersion,
+    private val javaLanguageVersion: JvmTarget = JvmTarget.JVM_1_8,
+    private val jarPackageIndex: JarPackageIndex? = null,
 ) {
-    val configuration = compilerConfiguration(classpath, kotlinLanguageVersion, javaLanguageVersion)
+    val configuration = compilerConfiguration(classpath, kotlinLanguageVersion, javaLanguageVersion, jarPackageIndex)
     private val env = kotlinCoreEnvironment(configuration, disposable)
     val ktPsiFactory: KtPsiFactory = KtPsiFactory(env.project, false)
     // K2
     var k2session: StandaloneAnalysisAPISession? = null
+        set(value) {
+            field = value
+            sourceFiles = value?.modulesWithFiles?.values?.flatten()?.associateBy { it.virtualFile.path } ?: emptyMap()
+        }
+
+    /**
+     * Source files of [k2session] indexed by the path of their [VirtualFile], built once per session,
+     * so that looking up the file of each input file does not scan the whole module.
+     * Indexed by path rather than by instance, as [KotlinVirtualFile] does not define equality.
+     */
+    private var sourceFiles: Map<String, PsiFile> = emptyMap()
+
+    fun findSourceFile(virtualFile: VirtualFile): PsiFile? = sourceFiles[virtualFile.path]
+
+    /**
+     * The [configuration] with another classpath, e.g. a pruned one, see [ClasspathPruner].
+     */
+    fun configurationWithClasspath(classpath: List<String>): CompilerConfiguration =
+        compilerConfiguration(classpath, kotlinLanguageVersion, javaLanguageVersion, jarPackageIndex)
 }
 
 /**
@@ -83,6 +105,7 @@ fun compilerConfiguration(
     classpath: List<String>,
     languageVersion: LanguageVersion,
     jvmTarget: JvmTarget,
+    jarPackageIndex: JarPackageIndex? = null,
 ): CompilerConfiguration {
     val versionSettings = LanguageVersionSettingsImpl(
         languageVersion,
@@ -93,7 +116,7 @@ fun compilerConfiguration(
         put(CommonConfigurationKeys.LANGUAGE_VERSION_SETTINGS, versionSettings)
         put(JVMConfigurationKeys.JVM_TARGET, jvmTarget)
         put(JVMConfigurationKeys.JDK_HOME, File(System.getProperty("java.home")))
-        addJvmClasspathRoots(classpathRoots(classpath))
+        addJvmClasspathRoots(classpathRoots(classpath, jarPackageIndex))
     }
 }
 
@@ -102,11 +125,5 @@ fun compilerConfiguration(
  * [org.jetbrains.kotlin.cli.jvm.compiler.jarfs.FastJarHandler] and
  * [com.intellij.openapi.vfs.impl.ArchiveHandler.getEntriesMap].
  */
-private fun classpathRoots(classpath: List<String>): List<File> =
-    classpath.map(::File).filter { it.isDirectory || it.isJar() }
-
-private fun File.isJar(): Boolean =
-    this.isFile && inputStream().use {
-        val header = (it.read() shl 24) or (it.read() shl 16) or (it.read() shl 8) or it.read()
-        header == 0x504b0304
-    }
+private fun classpathRoots(classpath: List<String>, jarPackageIndex: JarPackageIndex?): List<File> =
+    classpath.map(::File).filter { it.isDirectory || (jarPackageIndex?.isJar(it) ?: it.isJar()) }
@@ -24,21 +24,53 @@ import org.jetbrains.kotlin.psi.KtFile
 import org.sonarsource.kotlin.api.checks.InputFileContext
 import org.sonarsource.kotlin.api.reporting.KotlinTextRanges.textRange
 import org.sonarsource.kotlin.api.reporting.SecondaryLocation
+import org.sonarsource.kotlin.api.visiting.FileBudget
 import org.sonarsource.kotlin.api.visiting.withKaSession
 
+/**
+ * @param kaSession `null` when the file is visited without a compiler session,
+ * see [org.sonarsource.kotlin.api.visiting.KotlinFileVisitor.isSyntaxOnly]
+ * @param resolvedCalls calls resolved with [kaSession], shared by all the checks visiting the file
+ * @param budget time budget of the visitors of the file, checked by the visitors walking the whole file
+ * @param sessionTypeAliases names of the type aliases declared by the source files of the analysis, computed once per
+ * analysis: a call to one of them, e.g. `C()` after `typealias C = javax.crypto.Cipher` in another file, can construct
+ * any type
+ */
 data class KotlinFileContext(
     val inputFileContext: InputFileContext,
     val ktFile: KtFile,
-    val kaSession: KaSession,
+    val kaSession: KaSession?,
     val regexCache: RegexCache,
+    val flatTree: FlatTree = FlatTree.of(ktFile),
+    val resolvedCalls: ResolvedCallCache = ResolvedCallCache(),
+    val budget: FileBudget = FileBudget.UNLIMITED,
+    val sessionTypeAliases: Lazy<Set<String>> = lazyOf(emptySet()),
 ) {
 
+    /**
+     * Collected once per file, and only when a check needs them, as running the checkers of the compiler is costly.
+     */
     val kaDiagnostics: Sequence<KaDiagnosticWithPsi<*>> by lazy {
         withKaSession {
             return@lazy ktFile.collectDiagnostics(KaDiagnosticCheckerFilter.EXTENDED_AND_COMMON_CHECKERS).asSequence()
         }
     }
 
+    private val kaDiagnosticsByFactory: Map<String, List<KaDiagnosticWithPsi<*>>> by lazy {
+        kaDiagnostics.groupBy { it.factoryName }
+    }
+
+    /**
+     * @return the [kaDiagnostics] reported by the given factories, e.g. `FirErrors.UNUSED_VARIABLE.name`,
+     * looked up by factory name rather than filtered out of all the diagnostics of the file
+     */
+    fun kaDiagnostics(vararg factoryNames: String): List<KaDiagnosticWithPsi<*>> =
+        if (factoryNames.size == 1) {
+            kaDiagnosticsByFactory[factoryNames[0]].orEmpty()
+        } else {
+            factoryNames.flatMap { kaDiagnosticsByFactory[it].orEmpty() }
+        }
+
 }
 
 fun KotlinFileContext.secondaryOf(psiElement: PsiElement, msg: String? = null) = SecondaryLocation(textRange(psiElement), msg)
@@ -22,15 +22,24 @@ import com.intellij.psi.PsiErrorElement
 import com.intellij.psi.PsiFile
 import org.jetbrains.kotlin.psi.KtFile
 import org.jetbrains.kotlin.psi.psiUtil.startOffset
-import org.jetbrains.kotlin.utils.addToStdlib.firstIsInstanceOrNull
 import org.sonar.api.batch.fs.InputFile
 import org.sonarsource.kotlin.api.reporting.KotlinTextRanges.textPointerAtOffset
 
+/**
+ * @param sessionTypeAliases names of the type aliases declared by the source files of the analysis, see
+ * [KotlinFileContext.sessionTypeAliases]
+ */
 class KotlinTree(
     val psiFile: KtFile,
     val document: Document,
+    val sessionTypeAliases: Lazy<Set<String>> = lazyOf(emptySet()),
 ) {
     val regexCache = RegexCache()
+
+    /**
+     * Built once, and shared by all the visitors of the file.
+     */
+    val flatTree: FlatTree = FlatTree.of(psiFile)
 }
 
 data class KotlinSyntaxStructure(val ktFile: KtFile, val document: Document, val inputFile: InputFile) {
@@ -38,16 +47,15 @@ data class KotlinSyntaxStructure(val ktFile: KtFile, val document: Document, val
         @JvmStatic
         fun of(environment: Environment, inputFile: InputFile, virtualFile: KotlinVirtualFile): KotlinSyntaxStructure {
 
-            // TODO SONARKT-711 improve performance, see also
+            // TODO SONARKT-711 see also
             // https://github.com/Kotlin/analysis-api/commit/eea50c3d826584461e7bb0087deb9f0d9b55eb8c
             // which requires Kotlin 2.1.20
             // https://github.com/JetBrains/kotlin/commit/774d253de8263e284f045a452369a7308d495d03
-            // At the beginning of Analysis API, the only way to retrieve KtFile from k2session was to use modulesWithFiles.
+            // At the beginning of Analysis API, the only way to retrieve KtFile from k2session was to use modulesWithFiles,
+            // which Environment indexes by virtual file once per session.
             // Currently, the API already allows analysis of String (i.e. in-memory file) and not KtFile.
             // Maybe, we can avoid creation of Kotlin VirtualFiles completely, but this needs to be investigated.
-            val psiFile = environment.k2session!!.modulesWithFiles.values.first().find {
-                it.virtualFile == virtualFile
-            }
+            val psiFile = environment.findSourceFile(virtualFile)
 
             if (psiFile == null) {
                 throw ParseException("Cannot find KtFile for virtual file ${virtualFile.path}")
@@ -55,6 +63,20 @@ data class KotlinSyntaxStructure(val ktFile: KtFile, val document: Document, val
                 throw ParseException("Cannot find KtFile for virtual file ${virtualFile.path}, found a file of type ${psiFile::class.java}: $psiFile")
             }
 
+            return of(psiFile, inputFile)
+        }
+
+        /**
+         * Parses the given [content] on its own, without any compiler session, for the analyses which only need
+         * the syntax tree, see [org.sonarsource.kotlin.api.visiting.KotlinFileVisitor.isSyntaxOnly].
+         *
+         * @param content the content of the file, with `\n` line separators only
+         */
+        @JvmStatic
+        fun ofSyntaxOnly(environment: Environment, inputFile: InputFile, content: String): KotlinSyntaxStructure =
+            of(environment.ktPsiFactory.createFile(inputFile.filename(), content), inputFile)
+
+        private fun of(psiFile: KtFile, inputFile: InputFile): KotlinSyntaxStructure {
             val document = try {
                 psiFile.viewProvider.document ?: throw ParseException("Cannot extract document")
             } catch (_: AssertionError) {
@@ -69,14 +91,32 @@ data class KotlinSyntaxStructure(val ktFile: KtFile, val document: Document, val
     }
 }
 
-fun checkParsingErrors(psiFile: PsiFile, document: Document, inputFile: InputFile) = descendants(psiFile)
-    .firstIsInstanceOrNull<PsiErrorElement>()
-    ?.let { element ->
+fun checkParsingErrors(psiFile: PsiFile, document: Document, inputFile: InputFile) =
+    firstErrorElement(psiFile)?.let { element ->
         throw ParseException(
             "Cannot convert file due to syntactic errors",
             inputFile.textPointerAtOffset(document, element.startOffset)
         )
     }
 
-private fun descendants(element: PsiElement): Sequence<PsiElement> =
-    element.children.asSequence().flatMap { tree -> sequenceOf(tree) + descendants(tree) }
+/**
+ * Pre-order traversal following the child, sibling and parent links of the tree:
+ * it neither recurses nor allocates, whatever the nesting depth of the file.
+ */
+private fun firstErrorElement(root: PsiElement): PsiErrorElement? {
+    var element: PsiElement? = root.firstChild
+    while (element != null) {
+        if (element is PsiErrorElement) return element
+        element = element.firstChild ?: nextSiblingOfSelfOrAncestor(element, root)
+    }
+    return null
+}
+
+private fun nextSiblingOfSelfOrAncestor(element: PsiElement, root: PsiElement): PsiElement? {
+    var current: PsiElement = element
+    while (current !== root) {
+        current.nextSibling?.let { return it }
+        current = current.parent ?: return null
+    }
+    return null
+}
@@ -0,0 +1,56 @@
+/*
+ * SonarSource Kotlin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.kotlin.api.frontend
+
+import org.jetbrains.kotlin.analysis.api.resolution.KaFunctionCall
+import org.jetbrains.kotlin.analysis.api.resolution.successfulFunctionCallOrNull
+import org.jetbrains.kotlin.psi.KtElement
+import org.sonarsource.kotlin.api.visiting.withKaSession
+
+/**
+ * Memo of the calls resolved in a file, so that a call expression is resolved once for all the checks rather than once
+ * per check. Bound to the [org.jetbrains.kotlin.analysis.api.KaSession] of the file, as a resolved call must not
+ * outlive it, and confined to the thread visiting the file.
+ */
+class ResolvedCallCache {
+
+    private val calls = HashMap<KtElement, KaFunctionCall<*>?>()
+
+    var hits = 0L
+        private set
+
+    var misses = 0L
+        private set
+
+    /**
+     * Using [successfulFunctionCallOrNull] instead of `singleFunctionCallOrNull` to avoid incorrect resolution
+     * of functions when semantics are missing. E.g. extension methods may not be found without semantics,
+     * leading to a function definition to be selected that has the same name but different signature.
+     *
+     * @return the successful function call the element resolves to, `null` when it does not resolve to one
+     */
+    fun successfulFunctionCall(element: KtElement): KaFunctionCall<*>? {
+        if (calls.containsKey(element)) {
+            hits++
+            return calls[element]
+        }
+        misses++
+        val call = withKaSession { element.resolveToCall()?.successfulFunctionCallOrNull() }
+        calls[element] = call
+        return call
+    }
+}
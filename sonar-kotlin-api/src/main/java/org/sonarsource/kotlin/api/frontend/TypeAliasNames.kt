@@ -0,0 +1,41 @@
+/*
+ * SonarSource Kotlin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.kotlin.api.frontend
+
+import org.jetbrains.kotlin.lexer.KotlinLexerException
+import org.jetbrains.kotlin.lexer.KtTokens
+
+/**
+ * Names of the type aliases declared by the given file content, e.g. `C` for `typealias C = javax.crypto.Cipher`.
+ * The content is only tokenized, like by [ClasspathPruner.addReferences], and only when it contains `typealias`, as
+ * most files declare none. A content which cannot be tokenized declares none either, as it cannot be parsed.
+ */
+fun typeAliasNamesOf(content: CharSequence): Set<String> {
+    if (!content.contains(KtTokens.TYPE_ALIAS_KEYWORD.value)) return emptySet()
+    val tokens = try {
+        significantTokensOf(content)
+    } catch (_: KotlinLexerException) {
+        return emptySet()
+    }
+    val names = HashSet<String>()
+    for (index in 0 until tokens.size - 1) {
+        if (tokens[index].type == KtTokens.TYPE_ALIAS_KEYWORD && tokens[index + 1].type == KtTokens.IDENTIFIER) {
+            names.add(tokens[index + 1].text.removeSurrounding("`"))
+        }
+    }
+    return names
+}
@@ -0,0 +1,32 @@
+/*
+ * SonarSource Kotlin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.kotlin.api.reporting
+
+import org.sonar.api.batch.fs.TextRange
+import org.sonar.api.rule.RuleKey
+
+/**
+ * An issue saved by [org.sonarsource.kotlin.api.checks.InputFileContextImpl.reportIssue], once the suppressed issues
+ * are filtered out, so that it can be reported again by a later analysis of the same file.
+ */
+data class ReportedIssue(
+    val ruleKey: RuleKey,
+    val textRange: TextRange?,
+    val message: Message,
+    val secondaryLocations: List<SecondaryLocation>,
+    val gap: Double?,
+)
@@ -23,46 +23,84 @@ import org.sonar.api.batch.sensor.SensorContext
 import org.sonarsource.analyzer.commons.ProgressReport
 import org.sonarsource.kotlin.api.checks.AbstractCheck
 import org.sonarsource.kotlin.api.checks.KotlinCheck
+import org.sonarsource.kotlin.api.common.DEFAULT_PERFORMANCE_MEASURE_DESTINATION
 import org.sonarsource.kotlin.api.common.KOTLIN_REPOSITORY_KEY
 import org.sonarsource.kotlin.api.common.KotlinLanguage
+import org.sonarsource.kotlin.api.common.PERFORMANCE_MEASURE_ACTIVATION_PROPERTY
+import org.sonarsource.kotlin.api.common.PERFORMANCE_MEASURE_DESTINATION_FILE
 import org.sonarsource.performance.measure.PerformanceMeasure
 import java.util.concurrent.TimeUnit
 
 
-private const val PERFORMANCE_MEASURE_ACTIVATION_PROPERTY = "sonar.kotlin.performance.measure"
-private const val PERFORMANCE_MEASURE_DESTINATION_FILE = "sonar.kotlin.performance.measure.json"
 abstract class AbstractKotlinSensor(
-    checkFactory: CheckFactory,
+    protected val checkFactory: CheckFactory,
     externalChecks: Collection<AbstractCheck>,
     val language: KotlinLanguage,
-    checks: List<Class<out KotlinCheck>>
+    private val checkClasses: List<Class<out KotlinCheck>>
 ) : Sensor {
 
-    val checks: Collection<AbstractCheck> = checkFactory.create<AbstractCheck>(KOTLIN_REPOSITORY_KEY).apply {
-        addAnnotatedChecks(checks)
-        all().forEach { it.initialize(ruleKey(it)!!) }
-    }.all() + externalChecks
+    val checks: Collection<AbstractCheck> = instantiateChecks() + externalChecks
+
+    /**
+     * Creates a fresh set of check instances, independent of [checks].
+     * Checks may keep state while visiting a file, so each worker thread of the parallel analysis needs its own set.
+     */
+    fun newChecks(): Collection<AbstractCheck> = instantiateChecks() + newExternalChecks()
+
+    /**
+     * Creates fresh instances of the checks provided by plugin extensions, see [newChecks].
+     */
+    protected open fun newExternalChecks(): Collection<AbstractCheck> = emptyList()
+
+    private fun instantiateChecks(): Collection<AbstractCheck> =
+        checkFactory.create<AbstractCheck>(KOTLIN_REPOSITORY_KEY).apply {
+            addAnnotatedChecks(checkClasses)
+            all().forEach { it.initialize(ruleKey(it)!!) }
+        }.all()
 
     abstract fun getExecuteContext(
         sensorContext: SensorContext,
         filesToAnalyze: Iterable<InputFile>,
         progressReport: ProgressReport,
-        filenames: List<String>
+        filenames: List<String>,
+        sourceContents: SourceContentStore,
     ): AbstractKotlinSensorExecuteContext
 
-    abstract fun getFilesToAnalyse(sensorContext: SensorContext): Iterable<InputFile>
+    /**
+     * Files read to select the files to analyze should be read through [sourceContents], and released when not selected.
+     */
+    abstract fun getFilesToAnalyse(sensorContext: SensorContext, sourceContents: SourceContentStore): Iterable<InputFile>
 
-    override fun execute(sensorContext: SensorContext) {
-        val sensorDuration = createPerformanceMeasureReport(sensorContext)
-        val filesToAnalyze = getFilesToAnalyse(sensorContext)
+    override fun execute(sensorContext: SensorContext) = measurePerformance(sensorContext) {
+        val sourceContents = SourceContentStore()
+        val filesToAnalyze = getFilesToAnalyse(sensorContext, sourceContents)
 
         val filenames = filesToAnalyze.map { it.toString() }
-        if (filenames.isEmpty()) return
+        if (filenames.isEmpty()) return@measurePerformance
+        analyzeFiles(filenames) { progressReport ->
+            getExecuteContext(sensorContext, filesToAnalyze, progressReport, filenames, sourceContents)
+        }
+    }
+
+    /**
+     * Runs [analysis] within the performance measure report of the sensor, written when
+     * [PERFORMANCE_MEASURE_ACTIVATION_PROPERTY] is set, so that analyses run outside of [execute] are measured as well.
+     */
+    protected fun measurePerformance(sensorContext: SensorContext, analysis: () -> Unit) {
+        val sensorDuration = createPerformanceMeasureReport(sensorContext)
+        analysis()
+        sensorDuration?.stop()
+    }
+
+    protected fun analyzeFiles(
+        filenames: List<String>,
+        executeContext: (ProgressReport) -> AbstractKotlinSensorExecuteContext,
+    ) {
         val progressReport = ProgressReport("Progress of the ${language.name} analysis", TimeUnit.SECONDS.toMillis(10))
 
         var success = false
         try {
-            success = getExecuteContext(sensorContext, filesToAnalyze, progressReport, filenames).analyzeFiles()
+            success = executeContext(progressReport).analyzeFiles()
         } finally {
             if (success) {
                 progressReport.stop()
@@ -70,12 +108,11 @@ abstract class AbstractKotlinSensor(
                 progressReport.cancel()
             }
         }
-        sensorDuration?.stop()
     }
 }
 private fun createPerformanceMeasureReport(context: SensorContext): PerformanceMeasure.Duration? =
     PerformanceMeasure.reportBuilder()
         .activate(context.config()[PERFORMANCE_MEASURE_ACTIVATION_PROPERTY].filter { "true" == it }.isPresent)
-        .toFile(context.config()[PERFORMANCE_MEASURE_DESTINATION_FILE].orElse("/tmp/sonar.kotlin.performance.measure.json"))
+        .toFile(context.config()[PERFORMANCE_MEASURE_DESTINATION_FILE].orElse(DEFAULT_PERFORMANCE_MEASURE_DESTINATION))
         .appendMeasurementCost()
         .start("KotlinSensor")
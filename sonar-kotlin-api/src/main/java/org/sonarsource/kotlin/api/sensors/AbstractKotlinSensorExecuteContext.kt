@@ -20,7 +20,14 @@ import com.intellij.openapi.util.Disposer
 import com.intellij.openapi.vfs.impl.ZipHandler
 import java.io.File
 import java.io.IOException
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 import kotlin.jvm.optionals.getOrElse
+import org.jetbrains.kotlin.config.CompilerConfiguration
 import org.jetbrains.kotlin.config.LanguageVersion
 import org.slf4j.Logger
 import org.sonar.api.batch.fs.InputFile
@@ -31,12 +38,24 @@ import org.sonarsource.analyzer.commons.ProgressReport
 import org.sonarsource.analyzer.commons.appsec.TestFileClassifier
 import org.sonarsource.kotlin.api.checks.InputFileContext
 import org.sonarsource.kotlin.api.checks.InputFileContextImpl
+import org.sonarsource.kotlin.api.checks.hasCacheEnabled
+import org.sonarsource.kotlin.api.common.ANALYSIS_THREADS_PROPERTY
+import org.sonarsource.kotlin.api.common.CHECK_TIME_BUDGET_PROPERTY
+import org.sonarsource.kotlin.api.common.CLASSPATH_PRUNING_PROPERTY
+import org.sonarsource.kotlin.api.common.CheckDurations
 import org.sonarsource.kotlin.api.common.DEFAULT_KOTLIN_LANGUAGE_VERSION
+import org.sonarsource.kotlin.api.common.DEFAULT_PERFORMANCE_MEASURE_DESTINATION
 import org.sonarsource.kotlin.api.common.FAIL_FAST_PROPERTY_NAME
+import org.sonarsource.kotlin.api.common.FILE_TIME_BUDGET_PROPERTY
 import org.sonarsource.kotlin.api.common.KOTLIN_LANGUAGE_VERSION
 import org.sonarsource.kotlin.api.common.KOTLIN_REPOSITORY_KEY
+import org.sonarsource.kotlin.api.common.PERFORMANCE_MEASURE_ACTIVATION_PROPERTY
+import org.sonarsource.kotlin.api.common.PERFORMANCE_MEASURE_DESTINATION_FILE
 import org.sonarsource.kotlin.api.common.SONAR_ANDROID_DETECTED
 import org.sonarsource.kotlin.api.common.measureDuration
+import org.sonarsource.kotlin.api.frontend.JarPackageIndex
+import org.sonarsource.kotlin.api.frontend.ClasspathPruner
+import org.sonarsource.kotlin.api.frontend.DEFAULT_SOURCE_MODULE_NAME
 import org.sonarsource.kotlin.api.frontend.Environment
 import org.sonarsource.kotlin.api.frontend.KotlinFileSystem
 import org.sonarsource.kotlin.api.frontend.KotlinSyntaxStructure
@@ -44,10 +63,14 @@ import org.sonarsource.kotlin.api.frontend.KotlinTree
 import org.sonarsource.kotlin.api.frontend.KotlinVirtualFile
 import org.sonarsource.kotlin.api.frontend.ParseException
 import org.sonarsource.kotlin.api.frontend.createK2AnalysisSession
+import org.sonarsource.kotlin.api.frontend.typeAliasNamesOf
 import org.sonarsource.kotlin.api.logging.debug
+import org.sonarsource.kotlin.api.reporting.ReportedIssue
+import org.sonarsource.kotlin.api.visiting.FileBudget
 import org.sonarsource.kotlin.api.visiting.KotlinFileVisitor
 
-private val EMPTY_FILE_CONTENT_PATTERN = Regex("""\s*+""")
+private const val CHECK_DURATIONS_FILE_NAME = "sonar.kotlin.performance.measure.checks.json"
+private val LINE_SEPARATORS = Regex("""\r\n?""")
 
 abstract class AbstractKotlinSensorExecuteContext(
     private val sensorContext: SensorContext,
@@ -55,7 +78,8 @@ abstract class AbstractKotlinSensorExecuteContext(
     private val progressReport: ProgressReport,
     private val visitors: List<KotlinFileVisitor>,
     private val filenames: List<String>,
-    private val logger: Logger
+    private val logger: Logger,
+    private val sourceContents: SourceContentStore,
 ) {
     private val isInAndroidContext: Boolean by lazy {
         sensorContext.config().getBoolean(SONAR_ANDROID_DETECTED).orElse(false)
@@ -77,19 +101,26 @@ abstract class AbstractKotlinSensorExecuteContext(
             KotlinVirtualFile(
                 virtualFileSystem,
                 File(it.uri().rawPath),
-                contentProvider = {
-                    try {
-                        it.contents()
-                    } catch (_: IOException) {
-                        ""
-                    }
-                },
+                // Read through the store, so that the session does not read again the files read to select them
+                contentBytesProvider = { sourceBytesOf(it) },
             )
         }
     }
 
+    private fun sourceBytesOf(inputFile: InputFile): ByteArray =
+        try {
+            sourceContents.bytesOf(inputFile)
+        } catch (_: IOException) {
+            ByteArray(0)
+        }
+
     abstract val classpath: List<String>
 
+    /**
+     * Name of the compiler source module of the given file: by default, all the files belong to the same module.
+     */
+    open fun sourceModuleNameOf(inputFile: InputFile): String = DEFAULT_SOURCE_MODULE_NAME
+
     open fun onFileRead() {
         // no-op by default; subclasses override to react to each file being processed (e.g. increment a telemetry counter)
     }
@@ -106,74 +137,224 @@ abstract class AbstractKotlinSensorExecuteContext(
         // no-op by default; subclasses override to react to a recovered analysis crash (e.g. increment a telemetry counter)
     }
 
+    /**
+     * Called on the analysis thread when the visitors of a file were stopped, or not started, to respect the time budgets,
+     * see [FileBudget].
+     */
+    open fun onTimeBudgetExceeded(inputFile: InputFile, exceeded: List<String>) {
+        // no-op by default; subclasses override to react to an incomplete analysis (e.g. post an analysis warning)
+    }
+
     open fun onAnalysisComplete() {
         // no-op by default; called once after the last file; subclasses override to report aggregated results
     }
 
+    /**
+     * The time spent by each visitor on each file is always added to it, and it may be shared with the [visitors]
+     * measuring each check. It is logged once the analysis is complete, and written next to the performance measure
+     * report when the performance measures are activated.
+     */
+    open val checkDurations: CheckDurations = CheckDurations()
+
+    /**
+     * Kept in the analysis cache, so that unchanged jars are not indexed again by the next analyses.
+     */
+    private val jarPackageIndex: JarPackageIndex by lazy {
+        if (sensorContext.hasCacheEnabled()) {
+            JarPackageIndex.load(sensorContext.previousCache(), sensorContext.nextCache())
+        } else {
+            JarPackageIndex.inMemory()
+        }
+    }
+
+    /**
+     * `true` when none of the [visitors], i.e. of the active rules, needs the Analysis API: the files are then parsed on
+     * their own, without building the compiler session and its module graph, see [KotlinFileVisitor.isSyntaxOnly].
+     */
+    private val isSyntaxOnly: Boolean = visitors.all { it.isSyntaxOnly }
+
     val environment: Environment by lazy {
         /** [analyzeFiles] */
-        val env = Environment(
-            Disposer.newDisposable(),
-            classpath,
-            determineKotlinLanguageVersion(sensorContext, logger),
-        )
-
+        val languageVersion = determineKotlinLanguageVersion(sensorContext, logger)
+        if (isSyntaxOnly) {
+            logger.debug { "Parsing the Kotlin files without a compiler session, all the visitors are syntax-only" }
+            return@lazy Environment(Disposer.newDisposable(), emptyList(), languageVersion)
+        }
+        val env = Environment(Disposer.newDisposable(), classpath, languageVersion, jarPackageIndex = jarPackageIndex)
+        val configuration = if (sensorContext.config().getBoolean(CLASSPATH_PRUNING_PROPERTY).orElse(false)) {
+            prunedCompilerConfiguration(env)
+        } else {
+            env.configuration
+        }
         env.k2session = createK2AnalysisSession(
             env.disposable,
-            env.configuration,
-            inputFileToVirtualFile.values,
+            configuration,
+            inputFileToVirtualFile.entries.groupBy({ sourceModuleNameOf(it.key) }, { it.value }),
         )
         return@lazy env
     }
 
-    val kotlinFiles: List<KotlinSyntaxStructure> by lazy {
-        inputFiles.mapNotNull {
-            onFileRead()
-            val inputFileContext = InputFileContextImpl(sensorContext, it, isInAndroidContext, isTestFile(it))
+    /**
+     * Tokenizes the input files up front to find the packages they reference, and builds the compiler session with the
+     * part of the [classpath] defining them only, see [ClasspathPruner].
+     */
+    private fun prunedCompilerConfiguration(env: Environment): CompilerConfiguration {
+        val pruner = ClasspathPruner(jarPackageIndex, classpath)
+        inputFiles.forEach { inputFile ->
             try {
-                // The current logic relies on eager loading of all files before the analysis starts.
-                // To trigger potential IO exceptions and report them, we need to do this call.
-                // TODO SONARKT-711
-                it.contents()
-                KotlinSyntaxStructure.of(environment, it, inputFileToVirtualFile.getValue(it))
-            } catch (e: ParseException) {
-                logParsingError(it, toParseException("parse", it, e))
-                inputFileContext.reportAnalysisParseError(KOTLIN_REPOSITORY_KEY, it, e.position)
-                onParseFailure()
-                null
-            } catch (e: Exception) {
-                val parseException = toParseException("read", it, e)
-                logParsingError(it, parseException)
-                inputFileContext.reportAnalysisParseError(KOTLIN_REPOSITORY_KEY, it, parseException.position)
-                onReadFailure()
-                null
-            } catch (e: StackOverflowError) {
-                // In case the Kotlin compiler crashes with SOE on e.g. recursive types,
-                // do not abort the whole scan; log a message without a huge stack trace
-                inputFileContext.reportAnalysisParseError(KOTLIN_REPOSITORY_KEY, it, null)
-                onAnalysisCrash(it)
-                logger.error("Cannot parse '$it': ${e.javaClass.name}")
-                null
+                pruner.addReferences(sourceContents.textOf(inputFile))
+            } catch (_: IOException) {
+                // Reported as a read failure when the file is analyzed
+            }
+        }
+        val prunedClasspath = pruner.prunedClasspath() ?: return env.configuration
+        logger.debug { "Pruned the classpath from ${classpath.size} to ${prunedClasspath.size} entries" }
+        return env.configurationWithClasspath(prunedClasspath)
+    }
+
+    /**
+     * Names of the type aliases declared by the input files, found by tokenizing every file the first time a visitor
+     * needs them, i.e. at most once per analysis, see
+     * [org.sonarsource.kotlin.api.frontend.KotlinFileContext.sessionTypeAliases]. The files are not parsed
+     * ahead of their analysis.
+     */
+    private val sessionTypeAliases: Lazy<Set<String>> = lazy {
+        inputFiles.flatMapTo(HashSet()) { inputFile ->
+            try {
+                typeAliasNamesOf(sourceContents.textOf(inputFile))
+            } catch (_: IOException) {
+                // Reported as a read failure when the file is analyzed
+                emptySet()
+            }
+        }
+    }
+
+    /**
+     * Streams the syntax structures of the input files: each file is read and parsed only when the analysis reaches it,
+     * so that only the syntax trees of the files in the analysis window are held in memory, rather than the ones of
+     * every file of the module.
+     * Files which cannot be read or parsed are reported and skipped.
+     * Each call returns a new sequence, whose iteration parses the files and reports them read, see [onFileRead], again.
+     */
+    fun kotlinFiles(): Sequence<KotlinSyntaxStructure> = inputFiles.asSequence().mapNotNull(::syntaxStructureOf)
+
+    private fun syntaxStructureOf(inputFile: InputFile): KotlinSyntaxStructure? {
+        onFileRead()
+        val inputFileContext = InputFileContextImpl(sensorContext, inputFile, isInAndroidContext, isTestFile(inputFile))
+        return try {
+            // The content provider of the virtual file falls back to an empty content on IO exceptions.
+            // To report them as read failures, we need to do this call.
+            val content = sourceContents.contentOf(inputFile)
+            if (isSyntaxOnly) {
+                KotlinSyntaxStructure.ofSyntaxOnly(environment, inputFile, content.text.replace(LINE_SEPARATORS, "\n"))
+            } else {
+                KotlinSyntaxStructure.of(environment, inputFile, inputFileToVirtualFile.getValue(inputFile))
             }
+        } catch (e: ParseException) {
+            sourceContents.release(inputFile)
+            logParsingError(inputFile, toParseException("parse", inputFile, e))
+            inputFileContext.reportAnalysisParseError(KOTLIN_REPOSITORY_KEY, inputFile, e.position)
+            onParseFailure()
+            null
+        } catch (e: Exception) {
+            sourceContents.release(inputFile)
+            val parseException = toParseException("read", inputFile, e)
+            logParsingError(inputFile, parseException)
+            inputFileContext.reportAnalysisParseError(KOTLIN_REPOSITORY_KEY, inputFile, parseException.position)
+            onReadFailure()
+            null
+        } catch (e: StackOverflowError) {
+            sourceContents.release(inputFile)
+            // In case the Kotlin compiler crashes with SOE on e.g. recursive types,
+            // do not abort the whole scan; log a message without a huge stack trace
+            inputFileContext.reportAnalysisParseError(KOTLIN_REPOSITORY_KEY, inputFile, null)
+            onAnalysisCrash(inputFile)
+            logger.error("Cannot parse '$inputFile': ${e.javaClass.name}")
+            null
+        }
+    }
+
+    /**
+     * Creates a fresh set of visitors for a worker thread of the parallel analysis, see [ANALYSIS_THREADS_PROPERTY].
+     * Only the [KotlinFileVisitor.isParallelizable] ones run on the worker, the others stay on the analysis thread.
+     * `null` when the sensor does not support parallel analysis.
+     */
+    open val workerVisitorsFactory: (() -> List<KotlinFileVisitor>)? = null
+
+    /**
+     * Issues kept between analyses: the files whose issues are replayed are not visited by the visitors reporting
+     * issues. `null` when the issues are not kept.
+     */
+    open val issueCache: IssueCache? = null
+
+    private fun newInputFileContext(inputFile: InputFile) =
+        InputFileContextImpl(sensorContext, inputFile, isInAndroidContext, isTestFile(inputFile), recordsIssues = issueCache != null)
+
+    private fun replayIssues(inputFileContext: InputFileContext, issues: List<ReportedIssue>) {
+        issues.forEach { issue ->
+            inputFileContext.reportIssue(issue.ruleKey, issue.textRange, issue.message, issue.secondaryLocations, issue.gap)
         }
     }
 
+    /**
+     * Keeps the issues of the file for the next analysis, unless they may be incomplete, i.e. when a visitor crashed or
+     * was stopped by the time budget.
+     */
+    private fun storeIssues(inputFileContext: InputFileContextImpl, isComplete: Boolean) {
+        if (!isComplete || inputFileContext.hasAnalysisErrors) return
+        issueCache?.store(inputFileContext, inputFileContext.reportedIssues)
+    }
+
+    private val analysisThreads: Int by lazy {
+        sensorContext.config().getInt(ANALYSIS_THREADS_PROPERTY).orElse(1)
+    }
+
+    private val fileTimeBudgetNanos: Long by lazy {
+        TimeUnit.MILLISECONDS.toNanos(sensorContext.config().getLong(FILE_TIME_BUDGET_PROPERTY).orElse(0))
+    }
+
+    private val checkTimeBudgetNanos: Long by lazy {
+        TimeUnit.MILLISECONDS.toNanos(sensorContext.config().getLong(CHECK_TIME_BUDGET_PROPERTY).orElse(0))
+    }
+
+    private fun newFileBudget(): FileBudget =
+        if (fileTimeBudgetNanos > 0 || checkTimeBudgetNanos > 0) {
+            FileBudget(fileTimeBudgetNanos, checkTimeBudgetNanos)
+        } else {
+            FileBudget.UNLIMITED
+        }
+
+    private fun reportExceededBudget(inputFile: InputFile, exceeded: List<String>) {
+        if (exceeded.isEmpty()) return
+        logger.warn("Time budget exceeded while analyzing '$inputFile', stopped: ${exceeded.joinToString(", ")}")
+        onTimeBudgetExceeded(inputFile, exceeded)
+    }
+
     fun analyzeFiles(): Boolean {
         try {
             progressReport.start(filenames)
-            kotlinFiles.filter {
-                !EMPTY_FILE_CONTENT_PATTERN.matches(it.inputFile.contents())
-            }.forEach { (ktFile, doc, inputFile) ->
-                if (sensorContext.isCancelled) return false
-                val inputFileContext = InputFileContextImpl(sensorContext, inputFile, isInAndroidContext, isTestFile(inputFile))
-                val tree = KotlinTree(ktFile, doc)
-
-                measureDuration(inputFile.filename()) {
-                    analyzeFile(inputFileContext, tree)
-                }
-                progressReport.nextFile()
+            val filesToAnalyze = kotlinFiles().filter {
+                val isBlank = sourceContents.contentOf(it.inputFile).isBlank
+                if (isBlank) sourceContents.release(it.inputFile)
+                !isBlank
             }
+            val workerVisitorsFactory = workerVisitorsFactory
+            val completed = if (analysisThreads > 1 && workerVisitorsFactory != null) {
+                logger.info("Analyzing Kotlin files with $analysisThreads threads")
+                analyzeFilesInParallel(filesToAnalyze, workerVisitorsFactory)
+            } else {
+                analyzeFilesSerially(filesToAnalyze)
+            }
+            if (!completed) return false
+            // Saved even when no session was built, so that the next analyses still find it
+            jarPackageIndex.save()
             onAnalysisComplete()
+            if (sensorContext.config().getBoolean(PERFORMANCE_MEASURE_ACTIVATION_PROPERTY).orElse(false)) {
+                logger.info(checkDurations.summary())
+                writeCheckDurations(checkDurations)
+            } else {
+                logger.debug { checkDurations.summary() }
+            }
             return true
         } finally {
             Disposer.dispose(environment.disposable)
@@ -188,20 +369,166 @@ abstract class AbstractKotlinSensorExecuteContext(
             // FastJarFileSystem IS available, as it uses a separate cache unaffected by this call.
             // If concurrent analysis were ever introduced, this call would need to be revisited
             // as it clears handles that may still be in use by a parallel analysis.
+            // The worker threads of the parallel analysis are all terminated at this point.
             ZipHandler.clearFileAccessorCache()
         }
     }
 
+    /**
+     * Analyzes one file at a time: its syntax structure, tree and caches are unreachable once its visitors are done.
+     */
+    private fun analyzeFilesSerially(files: Sequence<KotlinSyntaxStructure>): Boolean {
+        files.forEach { (ktFile, doc, inputFile) ->
+            if (sensorContext.isCancelled) return false
+            val inputFileContext = newInputFileContext(inputFile)
+            val tree = KotlinTree(ktFile, doc, sessionTypeAliases)
+            val budget = newFileBudget()
+            val previousIssues = issueCache?.previousIssues(inputFileContext)
+
+            val crashed = measureDuration(inputFile.filename()) {
+                if (previousIssues == null) {
+                    analyzeFile(inputFileContext, tree, visitors, budget)
+                } else {
+                    replayIssues(inputFileContext, previousIssues)
+                    analyzeFile(inputFileContext, tree, visitors.filterNot { it.reportsIssues }, budget)
+                }
+            }
+            if (crashed) onAnalysisCrash(inputFile)
+            reportExceededBudget(inputFile, budget.exceeded())
+            storeIssues(inputFileContext, isComplete = !crashed && budget.exceeded().isEmpty())
+            sourceContents.release(inputFile)
+            progressReport.nextFile()
+        }
+        return true
+    }
+
+    /**
+     * Runs the [KotlinFileVisitor.isParallelizable] visitors on a pool of worker threads, each one with its own visitor
+     * instances, while the other visitors run on the analysis thread. The reports of the workers are deferred and
+     * flushed file by file in the input order, so that the results are the same as in a serial analysis.
+     * At most twice as many files as threads are parsed ahead of the analysis thread.
+     * The workers share the compiler session of the analysis, see [org.sonarsource.kotlin.api.visiting.kaSession] for
+     * the thread-safety it relies on.
+     */
+    private fun analyzeFilesInParallel(
+        files: Sequence<KotlinSyntaxStructure>,
+        workerVisitorsFactory: () -> List<KotlinFileVisitor>,
+    ): Boolean {
+        val serialVisitors = visitors.filterNot { it.isParallelizable }
+        val workerVisitors = ThreadLocal.withInitial { workerVisitorsFactory().filter { it.isParallelizable } }
+        val threadCounter = AtomicInteger()
+        val executor = Executors.newFixedThreadPool(analysisThreads) { runnable ->
+            Thread(runnable, "sonar-kotlin-analysis-${threadCounter.incrementAndGet()}").apply { isDaemon = true }
+        }
+        val maxInFlight = analysisThreads * 2
+        val inFlight = ArrayDeque<ParallelFileAnalysis>()
+        val remaining = files.iterator()
+        try {
+            while (remaining.hasNext() || inFlight.isNotEmpty()) {
+                if (sensorContext.isCancelled) return false
+                while (remaining.hasNext() && inFlight.size < maxInFlight) {
+                    val (ktFile, doc, inputFile) = remaining.next()
+                    val inputFileContext = newInputFileContext(inputFile)
+                    val deferredContext = DeferredInputFileContext(inputFileContext)
+                    val tree = KotlinTree(ktFile, doc, sessionTypeAliases)
+                    val workerBudget = newFileBudget()
+                    val previousIssues = issueCache?.previousIssues(inputFileContext)
+                    val crashed = executor.submit(Callable {
+                        val fileVisitors = workerVisitors.get()
+                        analyzeFile(
+                            deferredContext,
+                            tree,
+                            if (previousIssues == null) fileVisitors else fileVisitors.filterNot { it.reportsIssues },
+                            workerBudget,
+                            onAnalysisThread = false,
+                        )
+                    })
+                    inFlight.addLast(ParallelFileAnalysis(inputFileContext, deferredContext, tree, workerBudget, previousIssues, crashed))
+                }
+
+                val next = inFlight.removeFirst()
+                val inputFile = next.inputFileContext.inputFile
+                measureDuration(inputFile.filename()) {
+                    val budget = newFileBudget()
+                    // Replayed in file order, like the issues of the workers
+                    next.previousIssues?.let { replayIssues(next.inputFileContext, it) }
+                    val crashedOnAnalysisThread = analyzeFile(next.inputFileContext, next.tree, serialVisitors, budget)
+                    val crashedOnWorker = next.awaitWorker()
+                    next.deferredContext.flush()
+                    val crashed = crashedOnAnalysisThread || crashedOnWorker
+                    if (crashed) onAnalysisCrash(inputFile)
+                    // The budget of the worker is read once its analysis is awaited
+                    val exceeded = (budget.exceeded() + next.workerBudget.exceeded()).distinct()
+                    reportExceededBudget(inputFile, exceeded)
+                    storeIssues(next.inputFileContext, isComplete = !crashed && exceeded.isEmpty())
+                }
+                sourceContents.release(inputFile)
+                progressReport.nextFile()
+            }
+            return true
+        } finally {
+            executor.shutdownNow()
+            executor.awaitTermination(1, TimeUnit.MINUTES)
+        }
+    }
+
+    private class ParallelFileAnalysis(
+        val inputFileContext: InputFileContextImpl,
+        val deferredContext: DeferredInputFileContext,
+        val tree: KotlinTree,
+        val workerBudget: FileBudget,
+        val previousIssues: List<ReportedIssue>?,
+        private val crashed: Future<Boolean>,
+    ) {
+        fun awaitWorker(): Boolean =
+            try {
+                crashed.get()
+            } catch (e: ExecutionException) {
+                // Fail fast exceptions are rethrown as is, as in a serial analysis
+                throw e.cause ?: e
+            }
+    }
+
+    private fun writeCheckDurations(checkDurations: CheckDurations) {
+        val performanceMeasureFile = sensorContext.config()[PERFORMANCE_MEASURE_DESTINATION_FILE]
+            .orElse(DEFAULT_PERFORMANCE_MEASURE_DESTINATION)
+        val file = File(performanceMeasureFile).resolveSibling(CHECK_DURATIONS_FILE_NAME)
+        try {
+            file.writeText(checkDurations.toJson())
+            logger.info("Check durations written to {}", file)
+        } catch (e: IOException) {
+            logger.warn("Cannot write the check durations to {}: {}", file, e.message)
+        }
+    }
+
+    /**
+     * Runs the given [visitors] on a file, within the given [budget], which starts with the first visitor.
+     * The performance measures are not thread-safe, so the visitors run by a worker thread are only measured in the
+     * [checkDurations].
+     *
+     * @return `true` when one of the visitors crashed with a [StackOverflowError]
+     */
     private fun analyzeFile(
         inputFileContext: InputFileContext,
         tree: KotlinTree,
-    ) {
+        visitors: List<KotlinFileVisitor>,
+        budget: FileBudget,
+        onAnalysisThread: Boolean = true,
+    ): Boolean {
+        var crashed = false
+        budget.start()
         visitors.forEach { visitor ->
             val visitorId = visitor.javaClass.simpleName
-            try {
-                measureDuration(visitorId) {
-                    visitor.scan(inputFileContext, tree)
+            val scan = {
+                val start = System.nanoTime()
+                try {
+                    visitor.scan(inputFileContext, tree, budget)
+                } finally {
+                    checkDurations.addVisitor(visitorId, System.nanoTime() - start)
                 }
+            }
+            try {
+                if (onAnalysisThread) measureDuration(visitorId, scan) else scan()
             } catch (e: Exception) {
                 inputFileContext.reportAnalysisError(e.message, null)
                 logger.error("Cannot analyse '${inputFileContext.inputFile}' with '$visitorId': ${e.message}", e)
@@ -217,7 +544,7 @@ abstract class AbstractKotlinSensorExecuteContext(
                 val message = "Cannot analyse '${inputFileContext.inputFile}' with '$visitorId': ${e.javaClass.name}"
                 inputFileContext.reportAnalysisError(message, null)
                 logger.error(message)
-                onAnalysisCrash(inputFileContext.inputFile)
+                crashed = true
                 if (sensorContext.config().getBoolean(FAIL_FAST_PROPERTY_NAME).getOrElse { false }) {
                     throw IllegalStateException(
                         "Exception in '$visitorId' while analyzing '${inputFileContext.inputFile}'",
@@ -226,6 +553,7 @@ abstract class AbstractKotlinSensorExecuteContext(
                 }
             }
         }
+        return crashed
     }
 
     private fun logParsingError(inputFile: InputFile, e: ParseException) {
@@ -268,6 +596,18 @@ fun postAnalysisCrashWarning(analysisWarnings: AnalysisWarnings, crashedFiles: C
     )
 }
 
+fun postTimeBudgetWarning(analysisWarnings: AnalysisWarnings, exceededFiles: Collection<String>) {
+    if (exceededFiles.isEmpty()) return
+    val shown = exceededFiles.take(10).joinToString(", ")
+    val more = if (exceededFiles.size > 10) " (and ${exceededFiles.size - 10} more)" else ""
+    val fileWord = if (exceededFiles.size == 1) "file" else "files"
+    analysisWarnings.addUnique(
+        "${exceededFiles.size} $fileWord exceeded the analysis time budget; the Kotlin analyzer stopped analyzing them " +
+            "early, so the analysis may be incomplete: $shown$more. See the '$FILE_TIME_BUDGET_PROPERTY' and " +
+            "'$CHECK_TIME_BUDGET_PROPERTY' properties."
+    )
+}
+
 /**
  * [AnalysisWarnings] is `@ScannerSide`-only, so SonarLint has no implementation to inject into the sensors. This
  * `@SonarLintSide` bean fills that gap; it is deliberately not `@ScannerSide` so it never competes with the real one.
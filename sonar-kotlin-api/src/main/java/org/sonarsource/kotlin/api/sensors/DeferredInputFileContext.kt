@@ -0,0 +1,58 @@
+/*
+ * SonarSource Kotlin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.kotlin.api.sensors
+
+import org.sonar.api.batch.fs.InputFile
+import org.sonar.api.batch.fs.TextPointer
+import org.sonar.api.batch.fs.TextRange
+import org.sonar.api.rule.RuleKey
+import org.sonarsource.kotlin.api.checks.InputFileContext
+import org.sonarsource.kotlin.api.reporting.Message
+import org.sonarsource.kotlin.api.reporting.SecondaryLocation
+import java.util.concurrent.ConcurrentLinkedQueue
+
+/**
+ * Records the reports of a visitor running on a worker thread of the parallel analysis, so that the analysis thread
+ * can [flush] them to the [delegate] in file order. Issues are then saved in the same order as in a serial analysis,
+ * and the [filteredRules] computed by the visitors running on the analysis thread are applied to them.
+ */
+internal class DeferredInputFileContext(private val delegate: InputFileContext) : InputFileContext by delegate {
+
+    private val pendingReports = ConcurrentLinkedQueue<InputFileContext.() -> Unit>()
+
+    override fun reportIssue(
+        ruleKey: RuleKey,
+        textRange: TextRange?,
+        message: Message,
+        secondaryLocations: List<SecondaryLocation>,
+        gap: Double?,
+    ) {
+        pendingReports.add { reportIssue(ruleKey, textRange, message, secondaryLocations, gap) }
+    }
+
+    override fun reportAnalysisParseError(repositoryKey: String, inputFile: InputFile, location: TextPointer?) {
+        pendingReports.add { reportAnalysisParseError(repositoryKey, inputFile, location) }
+    }
+
+    override fun reportAnalysisError(message: String?, location: TextPointer?) {
+        pendingReports.add { reportAnalysisError(message, location) }
+    }
+
+    fun flush() {
+        generateSequence { pendingReports.poll() }.forEach { it(delegate) }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * SonarSource Kotlin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.kotlin.api.sensors
+
+import org.sonarsource.kotlin.api.checks.InputFileContext
+import org.sonarsource.kotlin.api.reporting.ReportedIssue
+
+/**
+ * Issues of the files kept between analyses, so that the visitors reporting issues, see
+ * [org.sonarsource.kotlin.api.visiting.KotlinFileVisitor.reportsIssues], are not run again on the files which would
+ * produce the same issues as in the previous analysis.
+ */
+interface IssueCache {
+
+    /**
+     * @return the issues saved on the file by the previous analysis, when it analyzed the same content in the same
+     * context, or `null` when the file has to be analyzed again
+     */
+    fun previousIssues(inputFileContext: InputFileContext): List<ReportedIssue>?
+
+    /**
+     * Keeps the issues saved on the file, whether they were reported by the visitors or replayed, for the next analysis.
+     */
+    fun store(inputFileContext: InputFileContext, issues: List<ReportedIssue>)
+}
@@ -0,0 +1,127 @@
+/*
+ * SonarSource Kotlin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.kotlin.api.sensors
+
+import java.io.IOException
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+import org.sonar.api.batch.fs.InputFile
+
+private val BLANK_CONTENT_PATTERN = Regex("""\s*+""")
+
+/**
+ * Contents of the input files of one analysis: each file is read and decoded once, whatever the number of consumers
+ * (content hashes, classpath pruning, compiler session, parse error reporting, ...), and a single decoded copy of it is
+ * held from its first read until it is [released][release]. The analysis releases each file as soon as it leaves its
+ * analysis window, and the files it does not select as soon as they are left out, so that the files are read once.
+ */
+class SourceContentStore {
+
+    private val contents = ConcurrentHashMap<InputFile, Result<SourceContent>>()
+
+    /**
+     * @throws IOException when the file cannot be read; the failure is kept, so the file is not read again
+     */
+    fun contentOf(inputFile: InputFile): SourceContent =
+        contents.computeIfAbsent(inputFile) {
+            try {
+                Result.success(SourceContent(inputFile.contents()))
+            } catch (e: IOException) {
+                Result.failure(e)
+            }
+        }.getOrThrow()
+
+    fun release(inputFile: InputFile) {
+        contents.remove(inputFile)
+    }
+
+    /**
+     * The text of the file, see [contentOf].
+     *
+     * @throws IOException when the file cannot be read
+     */
+    fun textOf(inputFile: InputFile): String = contentOf(inputFile).text
+
+    /**
+     * The UTF-8 encoding of the text of the file, as the compiler reads it, see [contentOf].
+     *
+     * @throws IOException when the file cannot be read
+     */
+    fun bytesOf(inputFile: InputFile): ByteArray = contentOf(inputFile).bytes
+
+    private val digests = ConcurrentHashMap<String, ConcurrentHashMap<InputFile, ByteArray>>()
+
+    /**
+     * The hash of the content of the file computed with the given [MessageDigest] algorithm, see [SourceContent.digest].
+     * It is computed at most once per file for the whole analysis, and kept even after the file is [released][release].
+     * The returned array must not be modified.
+     *
+     * @throws IOException when the file cannot be read
+     */
+    fun digestOf(inputFile: InputFile, algorithm: String): ByteArray =
+        digests.computeIfAbsent(algorithm) { ConcurrentHashMap() }
+            .computeIfAbsent(inputFile) { contentOf(it).digest(algorithm) }
+
+    /**
+     * Computes the [digests][digestOf] of the given files on a pool of [threads] worker threads, so that they are already
+     * computed when the analysis thread asks for them. A file which cannot be read is skipped here, its failure is
+     * raised again when its digest is asked for.
+     */
+    fun precomputeDigests(inputFiles: Collection<InputFile>, algorithm: String, threads: Int) {
+        if (threads <= 1 || inputFiles.size <= 1) return
+        val threadCounter = AtomicInteger()
+        val executor = Executors.newFixedThreadPool(minOf(threads, inputFiles.size)) { runnable ->
+            Thread(runnable, "sonar-kotlin-hashing-${threadCounter.incrementAndGet()}").apply { isDaemon = true }
+        }
+        try {
+            inputFiles.map { inputFile ->
+                executor.submit {
+                    try {
+                        digestOf(inputFile, algorithm)
+                    } catch (_: Exception) {
+                        // Raised again by the consumer of the digest
+                    }
+                }
+            }.forEach { it.get() }
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+}
+
+/**
+ * The decoded [text] of a file, and the views derived from it, computed at most once.
+ */
+class SourceContent(val text: String) {
+
+    /**
+     * The UTF-8 encoding of [text], as the compiler reads it and as it is hashed. The returned array must not be modified.
+     */
+    val bytes: ByteArray by lazy { text.toByteArray(Charsets.UTF_8) }
+
+    val isBlank: Boolean by lazy { BLANK_CONTENT_PATTERN.matches(text) }
+
+    private val digests = ConcurrentHashMap<String, ByteArray>()
+
+    /**
+     * The hash of [bytes] computed with the given [MessageDigest] algorithm. The returned array must not be modified.
+     */
+    fun digest(algorithm: String): ByteArray =
+        digests.computeIfAbsent(algorithm) { MessageDigest.getInstance(it).digest(bytes) }
+}
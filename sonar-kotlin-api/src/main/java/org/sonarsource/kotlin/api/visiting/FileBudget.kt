@@ -0,0 +1,63 @@
+/*
+ * SonarSource Kotlin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.kotlin.api.visiting
+
+/**
+ * Time budget of the visitors of a file, enforced cooperatively: rather than being interrupted, [KotlinFileVisitor.scan]
+ * does not start a visitor once the file budget is exhausted, and [KtChecksVisitor] stops walking the file, or stops
+ * running a check which exceeded its own budget on the file. What was stopped is then reported as [exceeded].
+ *
+ * Confined to the thread analyzing the file.
+ *
+ * @param fileNanos time the visitors can spend on the file from [start], not limited when not positive
+ * @param checkNanos time each check can spend on the file, not limited when not positive
+ */
+class FileBudget(private val fileNanos: Long, val checkNanos: Long) {
+
+    private var deadline = 0L
+
+    private val exceeded = mutableListOf<String>()
+
+    val limitsChecks: Boolean
+        get() = checkNanos > 0
+
+    fun start() {
+        // The shared UNLIMITED budget is never written
+        if (fileNanos > 0) deadline = System.nanoTime() + fileNanos
+    }
+
+    fun isExhausted(): Boolean = fileNanos > 0 && System.nanoTime() - deadline >= 0
+
+    /**
+     * Records that the given visitor or check was stopped, or not started, to respect the budget.
+     */
+    fun markExceeded(what: String) {
+        if (what !in exceeded) exceeded.add(what)
+    }
+
+    /**
+     * @return the visitors and the checks which were stopped, or not started, to respect the budget
+     */
+    fun exceeded(): List<String> = exceeded
+
+    companion object {
+        /**
+         * Never exhausted, for the files analyzed without a budget.
+         */
+        val UNLIMITED = FileBudget(0, 0)
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * SonarSource Kotlin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.kotlin.api.visiting
+
+import org.sonarsource.kotlin.api.frontend.FlatTree
+import org.sonarsource.kotlin.api.frontend.KotlinFileContext
+
+/**
+ * Visitor fed with the nodes of the [flat tree][KotlinFileContext.flatTree] of a file, in pre-order. It walks the tree
+ * on its own when it is [scanned][scan], or shares a single walk with other visitors when it is part of a [VisitorBus].
+ */
+abstract class FlatTreeVisitor : KotlinFileVisitor() {
+
+    /**
+     * Classes of the nodes fed to [visitNode], `null` for all the nodes.
+     */
+    open val nodeClasses: List<Class<*>>? = null
+
+    open fun beginFile(kotlinFileContext: KotlinFileContext) {
+        // no-op by default
+    }
+
+    /**
+     * @return the index of the next node to feed to this visitor: `index + 1` to go on with the children of the node,
+     * or [FlatTree.subtreeEnd] to skip them
+     */
+    abstract fun visitNode(tree: FlatTree, index: Int, kotlinFileContext: KotlinFileContext): Int
+
+    open fun endFile(kotlinFileContext: KotlinFileContext) {
+        // no-op by default
+    }
+
+    private val ownBus by lazy(LazyThreadSafetyMode.NONE) { VisitorBus(listOf(this)) }
+
+    final override fun visit(kotlinFileContext: KotlinFileContext) {
+        ownBus.visit(kotlinFileContext)
+    }
+}
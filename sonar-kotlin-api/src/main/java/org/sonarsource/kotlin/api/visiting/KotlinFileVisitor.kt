@@ -23,20 +23,44 @@ import org.jetbrains.kotlin.analysis.api.analyze
 import org.jetbrains.kotlin.analysis.api.components.KaCompilationResult
 import org.jetbrains.kotlin.analysis.api.components.KaCompilerTarget
 import org.jetbrains.kotlin.analysis.api.diagnostics.KaDiagnostic
+import org.jetbrains.kotlin.analysis.api.resolution.KaFunctionCall
+import org.jetbrains.kotlin.analysis.api.resolution.successfulFunctionCallOrNull
 import org.jetbrains.kotlin.config.CompilerConfiguration
+import org.jetbrains.kotlin.psi.KtElement
 import org.jetbrains.kotlin.psi.KtFile
 import org.sonarsource.kotlin.api.checks.InputFileContext
 import org.sonarsource.kotlin.api.frontend.KotlinFileContext
 import org.sonarsource.kotlin.api.frontend.KotlinTree
+import org.sonarsource.kotlin.api.frontend.ResolvedCallCache
 
 /**
  * Executes the given [action] in a [KaSession] context
  * providing access to [Kotlin Analysis API](https://kotl.in/analysis-api).
  */
-inline fun <R> withKaSession(action: KaSession.() -> R): R = action(kaSession!!)
+inline fun <R> withKaSession(action: KaSession.() -> R): R = action(currentKaSession.get()!!)
 
+/**
+ * Confined to the thread which opened it in [kaSession], so that several files can be analyzed in parallel.
+ */
 @PublishedApi
-internal var kaSession: KaSession? = null
+internal val currentKaSession = ThreadLocal<KaSession?>()
+
+/**
+ * Calls resolved with [currentKaSession], shared by the checks and the API extensions, see [resolvedFunctionCall].
+ */
+internal val currentResolvedCalls = ThreadLocal<ResolvedCallCache?>()
+
+/**
+ * @return the successful function call this element resolves to, memoized for the file being visited
+ */
+fun KtElement.resolvedFunctionCall(): KaFunctionCall<*>? {
+    val resolvedCalls = currentResolvedCalls.get()
+    return if (resolvedCalls != null) {
+        resolvedCalls.successfulFunctionCall(this)
+    } else {
+        withKaSession { resolveToCall()?.successfulFunctionCallOrNull() }
+    }
+}
 
 @OptIn(KaImplementationDetail::class)
 internal class SonarKaSession(
@@ -56,24 +80,85 @@ internal class SonarKaSession(
 }
 
 /**
- * Manages lifetime of [kaSession].
+ * Manages lifetime of [currentKaSession].
+ *
+ * The worker threads of the parallel analysis call it concurrently on the same session, for distinct files. This relies
+ * on the Analysis API being safe for concurrent [analyze] calls, as in the IDE where they run in concurrent read
+ * actions: the lazy resolution of the declarations is guarded by their own locks, and the session caches are
+ * concurrent. A [KaSession] itself is not thread-safe, so it is confined to the thread which opened it, and so are the
+ * [currentKaSession] and [currentResolvedCalls] thread locals.
  */
 internal inline fun kaSession(ktFile: KtFile, action: () -> Unit) {
-    check(kaSession == null)
+    check(currentKaSession.get() == null)
     try {
         analyze(ktFile) {
-            kaSession = SonarKaSession(this)
+            currentKaSession.set(SonarKaSession(this))
+            currentResolvedCalls.set(ResolvedCallCache())
             action()
         }
     } finally {
-        kaSession = null
+        currentKaSession.remove()
+        currentResolvedCalls.remove()
     }
 }
 
 abstract class KotlinFileVisitor {
-    fun scan(fileContext: InputFileContext, root: KotlinTree) {
-        kaSession(root.psiFile) {
-            visit(KotlinFileContext(fileContext, root.psiFile, kaSession!!, root.regexCache))
+    /**
+     * `true` when [visit] keeps no state shared between files and reports its results only through
+     * [InputFileContext.reportIssue] and [InputFileContext.reportAnalysisError], so that it can run on a worker thread
+     * of the parallel analysis. Visitors writing directly to the sensor context (measures, highlighting, CPD tokens)
+     * keep the default and are run on the analysis thread, in file order.
+     */
+    open val isParallelizable: Boolean = false
+
+    /**
+     * `true` when [visit] only needs the syntax tree of the file and never uses the Analysis API, e.g. [withKaSession].
+     * Such visitors are run without opening a [KaSession], and when all the visitors of an analysis are syntax-only,
+     * the files are parsed without building a compiler session at all.
+     */
+    open val isSyntaxOnly: Boolean = false
+
+    /**
+     * `true` when [visit] reports issues, so that it is not run on the files whose issues are replayed from the previous
+     * analysis, see [org.sonarsource.kotlin.api.sensors.IssueCache].
+     */
+    open val reportsIssues: Boolean = false
+
+    /**
+     * Visits the given file, unless its [budget] is already exhausted, e.g. by the visitors which ran before this one.
+     */
+    fun scan(fileContext: InputFileContext, root: KotlinTree, budget: FileBudget = FileBudget.UNLIMITED) {
+        if (budget.isExhausted()) {
+            budget.markExceeded(javaClass.simpleName)
+            return
+        }
+        if (isSyntaxOnly) {
+            visit(
+                KotlinFileContext(
+                    fileContext,
+                    root.psiFile,
+                    null,
+                    root.regexCache,
+                    root.flatTree,
+                    budget = budget,
+                    sessionTypeAliases = root.sessionTypeAliases,
+                )
+            )
+        } else {
+            kaSession(root.psiFile) {
+                visit(
+                    KotlinFileContext(
+                        fileContext,
+                        root.psiFile,
+                        currentKaSession.get()!!,
+                        root.regexCache,
+                        root.flatTree,
+                        currentResolvedCalls.get()!!,
+                        budget,
+                        root.sessionTypeAliases,
+                    )
+                )
+            }
         }
     }
 
@@ -17,30 +17,224 @@
 package org.sonarsource.kotlin.api.visiting
 
 import com.intellij.psi.PsiElement
+import java.lang.reflect.Modifier
+import java.util.concurrent.ConcurrentHashMap
+import org.jetbrains.kotlin.psi.KtCallExpression
 import org.jetbrains.kotlin.psi.KtElement
+import org.jetbrains.kotlin.psi.KtImportDirective
+import org.jetbrains.kotlin.psi.KtNameReferenceExpression
+import org.jetbrains.kotlin.psi.KtTypeAlias
+import org.jetbrains.kotlin.psi.KtVisitor
 import org.sonarsource.kotlin.api.checks.AbstractCheck
-import org.sonarsource.kotlin.api.common.measureDuration
+import org.sonarsource.kotlin.api.checks.CallAbstractCheck
+import org.sonarsource.kotlin.api.checks.FunMatcherIndex
+import org.sonarsource.kotlin.api.common.CheckDurations
+import org.sonarsource.kotlin.api.frontend.FlatTree
 import org.sonarsource.kotlin.api.frontend.KotlinFileContext
 
-class KtChecksVisitor(val checks: Collection<AbstractCheck>) : KotlinFileVisitor() {
+/**
+ * Visits the [flat tree][KotlinFileContext.flatTree] of each file once, in pre-order, and dispatches each node only to
+ * the checks which override a `visitXxx` method accepting it, instead of walking the whole tree once per check.
+ *
+ * @param checkDurations accumulates the time spent and the memory allocated by each check on each file, and the lookups
+ * of resolved calls, when not `null`
+ */
+class KtChecksVisitor(
+    val checks: Collection<AbstractCheck>,
+    private val checkDurations: CheckDurations? = null,
+) : KotlinFileVisitor() {
+
+    override val isParallelizable = true
+
+    override val reportsIssues = true
+
+    override val isSyntaxOnly = checks.all { it.isSyntaxOnly }
+
+    private val checkArray = checks.toTypedArray()
+
+    private val visitedTypes = checkArray.map { visitedTypesOf(it.javaClass) }
+
+    /**
+     * Indexes in [checkArray] of the checks interested in each class of node, computed the first time a class is met.
+     * Not shared, as a visitor is confined to a single thread.
+     */
+    private val dispatchTable = HashMap<Class<*>, IntArray>()
+
+    /**
+     * Indexes in [checkArray] of the [CallAbstractCheck]s. They are not dispatched the call expressions like the other
+     * checks: each call is resolved once and routed only to the checks having a matcher for it, see [funMatcherIndex].
+     */
+    private val callChecks = checkArray.indices.filter { checkArray[it] is CallAbstractCheck }.toIntArray()
+
+    // Lazy, as the matchers of a check can depend on its parameters, which are set after its creation
+    private val funMatcherIndex by lazy(LazyThreadSafetyMode.NONE) {
+        FunMatcherIndex(callChecks.map { (checkArray[it] as CallAbstractCheck).functionsToVisit })
+    }
+
+    /**
+     * Aliases of the file which a callee name can stand for, see [calleeAliases]. Computed for the file being visited,
+     * when a callee name cannot be matched on its own.
+     */
+    private var aliases: Lazy<Map<String, String?>> = lazyOf(emptyMap())
 
     override fun visit(kotlinFileContext: KotlinFileContext) {
-        flattenNodes(listOf(kotlinFileContext.ktFile)).let { flatNodes ->
-            checks.forEach { check ->
-                measureDuration(check.javaClass.simpleName) {
-                    flatNodes.forEach { node ->
-                        // Note: we only visit KtElements. If we need to visit PsiElement, add a
-                        // visitPsiElement function in KotlinCheck and call it here in the else branch.
-                        when (node) {
-                            is KtElement -> node.accept(check, kotlinFileContext)
-                        }
-                    }
+        // No active rule: the file is not even walked
+        if (checkArray.isEmpty()) return
+        aliases = lazy(LazyThreadSafetyMode.NONE) { calleeAliases(kotlinFileContext.flatTree) }
+        val budget = kotlinFileContext.budget
+        val measures = if (checkDurations != null || budget.limitsChecks) {
+            FileMeasures(checkArray.size, measuresAllocations = checkDurations != null)
+        } else {
+            null
+        }
+        val tree = kotlinFileContext.flatTree
+        for (nodeIndex in 0 until tree.size) {
+            if ((nodeIndex and BUDGET_CHECK_INTERVAL_MASK) == 0 && budget.isExhausted()) {
+                budget.markExceeded(javaClass.simpleName)
+                break
+            }
+            val node = tree.node(nodeIndex)
+            // Note: we only visit KtElements. If we need to visit PsiElement, add a
+            // visitPsiElement function in KotlinCheck and call it here in the else branch.
+            if (tree.isPsiChild(nodeIndex) && node is KtElement) {
+                checksInterestedIn(node.javaClass).forEach { index ->
+                    runCheck(index, measures, budget) { node.accept(checkArray[index], kotlinFileContext) }
+                }
+                if (node is KtCallExpression && callChecks.isNotEmpty()) {
+                    visitCall(node, kotlinFileContext, measures)
                 }
             }
         }
+        if (checkDurations != null && measures != null) {
+            val file = kotlinFileContext.ktFile.virtualFilePath
+            checkArray.forEachIndexed { index, check ->
+                checkDurations.addFile(file, check.javaClass.simpleName, measures.nanos[index], measures.allocatedBytes[index])
+            }
+            checkDurations.addResolvedCalls(kotlinFileContext.resolvedCalls.hits, kotlinFileContext.resolvedCalls.misses)
+        }
+    }
+
+    private fun visitCall(callExpression: KtCallExpression, kotlinFileContext: KotlinFileContext, measures: FileMeasures?) {
+        if (!mayBeMatched(callExpression, kotlinFileContext)) return
+        val resolvedCall = kotlinFileContext.resolvedCalls.successfulFunctionCall(callExpression) ?: return
+        funMatcherIndex.forEachFirstMatch(resolvedCall) { owner, matcher ->
+            val index = callChecks[owner]
+            val check = checkArray[index] as CallAbstractCheck
+            runCheck(index, measures, kotlinFileContext.budget) {
+                check.visitFunctionCall(callExpression, resolvedCall, matcher, kotlinFileContext)
+            }
+        }
     }
 
-    private tailrec fun flattenNodes(childNodes: List<PsiElement>, acc: MutableList<PsiElement> = mutableListOf()): List<PsiElement> =
-        if (childNodes.none()) acc
-        else flattenNodes(childNodes = childNodes.flatMap { it.children.asList() }, acc = acc.apply { addAll(childNodes) })
+    /**
+     * Runs the given check on a node, measured when [measures] is not `null`. A check which exceeded its own
+     * [budget][FileBudget.checkNanos] on the file is not run anymore on the following nodes of the file.
+     */
+    private inline fun runCheck(index: Int, measures: FileMeasures?, budget: FileBudget, action: () -> Unit) {
+        if (measures == null) {
+            action()
+            return
+        }
+        if (measures.stopped[index]) return
+        measures.measure(index, action)
+        if (budget.limitsChecks && measures.nanos[index] > budget.checkNanos) {
+            measures.stopped[index] = true
+            budget.markExceeded(checkArray[index].javaClass.simpleName)
+        }
+    }
+
+    /**
+     * Tells from the callee name alone whether the call can be matched by a call check, so that most of the calls are
+     * never resolved. A callee which is not a simple name, e.g. `foo()()`, is always resolved, and so is a type alias
+     * declared by any source file of the analysis, see [KotlinFileContext.sessionTypeAliases].
+     */
+    private fun mayBeMatched(callExpression: KtCallExpression, kotlinFileContext: KotlinFileContext): Boolean {
+        val callee = callExpression.calleeExpression as? KtNameReferenceExpression ?: return true
+        val name = callee.getReferencedName()
+        if (funMatcherIndex.mayMatchCallee(name)) return true
+        if (name in kotlinFileContext.sessionTypeAliases.value) return true
+        val aliases = aliases.value
+        if (!aliases.containsKey(name)) return false
+        val aliasedName = aliases[name]
+        return aliasedName == null || funMatcherIndex.mayMatchCallee(aliasedName)
+    }
+
+    private fun checksInterestedIn(nodeClass: Class<*>): IntArray =
+        dispatchTable.getOrPut(nodeClass) {
+            val isCall = KtCallExpression::class.java.isAssignableFrom(nodeClass)
+            checkArray.indices
+                .filter { index -> !(isCall && index in callChecks) }
+                .filter { index -> visitedTypes[index].any { it.isAssignableFrom(nodeClass) } }
+                .toIntArray()
+        }
+
+    /**
+     * Time spent and memory allocated by each check on the file being visited, indexed like [checkArray], and the checks
+     * stopped for exceeding their budget on the file.
+     */
+    private class FileMeasures(size: Int, val measuresAllocations: Boolean) {
+        val nanos = LongArray(size)
+        val allocatedBytes = LongArray(size)
+        val stopped = BooleanArray(size)
+
+        inline fun measure(index: Int, action: () -> Unit) {
+            val allocatedBefore = if (measuresAllocations) CheckDurations.currentThreadAllocatedBytes() else 0
+            val start = System.nanoTime()
+            action()
+            nanos[index] += System.nanoTime() - start
+            if (measuresAllocations) allocatedBytes[index] += CheckDurations.currentThreadAllocatedBytes() - allocatedBefore
+        }
+    }
+
+    companion object {
+        /**
+         * The [file budget][FileBudget.isExhausted] is checked every 64 nodes, as reading the clock costs more than
+         * dispatching most of the nodes.
+         */
+        private const val BUDGET_CHECK_INTERVAL_MASK = 0x3F
+
+        /**
+         * @return the import aliases of the file, with the name they stand for, and the type aliases declared in the file,
+         * with `null` as the constructor they stand for is only known once resolved
+         */
+        internal fun calleeAliases(tree: FlatTree): Map<String, String?> {
+            val aliases = HashMap<String, String?>()
+            var index = 0
+            while (index < tree.size) {
+                when (val node = tree.node(index)) {
+                    is KtImportDirective -> {
+                        val aliasName = node.aliasName
+                        if (aliasName != null) aliases[aliasName] = node.importedFqName?.shortName()?.asString()
+                        index = tree.subtreeEnd(index)
+                    }
+                    is KtTypeAlias -> {
+                        node.name?.let { aliases[it] = null }
+                        index = tree.subtreeEnd(index)
+                    }
+                    else -> index++
+                }
+            }
+            return aliases
+        }
+
+        private val visitedTypesByCheckClass = ConcurrentHashMap<Class<*>, List<Class<*>>>()
+
+        /**
+         * The types of the nodes accepted by the `visitXxx` methods declared by the given check class and its superclasses
+         * below [KtVisitor]. [KtVisitor] methods call each other from the most specific node type to the most general one,
+         * e.g. `visitCallExpression` calls `visitReferenceExpression` by default, so a node can only reach a method of
+         * the check when the type accepted by the method is a supertype of the class of the node.
+         */
+        internal fun visitedTypesOf(checkClass: Class<*>): List<Class<*>> =
+            visitedTypesByCheckClass.computeIfAbsent(checkClass) {
+                generateSequence<Class<*>>(checkClass) { it.superclass }
+                    .takeWhile { it != KtVisitor::class.java && it != Any::class.java }
+                    .flatMap { it.declaredMethods.asSequence() }
+                    .filter { it.name.startsWith("visit") && !Modifier.isStatic(it.modifiers) && it.parameterCount > 0 }
+                    .map { it.parameterTypes[0] }
+                    .filter { PsiElement::class.java.isAssignableFrom(it) }
+                    .distinct()
+                    .toList()
+            }
+    }
 }
@@ -0,0 +1,97 @@
+/*
+ * SonarSource Kotlin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.kotlin.api.visiting
+
+import org.sonarsource.kotlin.api.frontend.KotlinFileContext
+
+/**
+ * Feeds several [FlatTreeVisitor]s from a single walk of the flat tree of each file, and from a single [scan], so that
+ * the file is traversed, and its analysis session opened, once for all of them rather than once per visitor.
+ * Each visitor still sees the nodes in pre-order, and skips the subtrees it is not interested in on its own.
+ *
+ * A visitor which fails on a file is not fed anymore for that file, but the other visitors are still fed to the end of
+ * the file, so that e.g. the suppressed rules are known even when the metrics cannot be computed. The first failure is
+ * then rethrown, to be reported like the failure of any other visitor.
+ */
+class VisitorBus(val visitors: List<FlatTreeVisitor>) : KotlinFileVisitor() {
+
+    override val isSyntaxOnly = visitors.all { it.isSyntaxOnly }
+
+    override val isParallelizable = visitors.all { it.isParallelizable }
+
+    private val visitorArray = visitors.toTypedArray()
+
+    /**
+     * Whether each visitor is interested in each class of node, computed the first time a class is met.
+     * Not shared, as a visitor is confined to a single thread.
+     */
+    private val interests = HashMap<Class<*>, BooleanArray>()
+
+    override fun visit(kotlinFileContext: KotlinFileContext) {
+        val failures = FileFailures(visitorArray.size)
+        visitorArray.indices.forEach { visitor ->
+            failures.isolate(visitor) { visitorArray[visitor].beginFile(kotlinFileContext) }
+        }
+        val tree = kotlinFileContext.flatTree
+        val nextIndexes = IntArray(visitorArray.size)
+        for (index in 0 until tree.size) {
+            val interested = interestsIn(tree.node(index).javaClass)
+            for (visitor in visitorArray.indices) {
+                if (index >= nextIndexes[visitor] && interested[visitor] && !failures.failed[visitor]) {
+                    failures.isolate(visitor) {
+                        nextIndexes[visitor] = visitorArray[visitor].visitNode(tree, index, kotlinFileContext)
+                    }
+                }
+            }
+        }
+        visitorArray.indices.forEach { visitor ->
+            if (!failures.failed[visitor]) failures.isolate(visitor) { visitorArray[visitor].endFile(kotlinFileContext) }
+        }
+        failures.first?.let { throw it }
+    }
+
+    /**
+     * The visitors which failed on the file being visited, and the first failure, to which the next ones are attached.
+     */
+    private class FileFailures(size: Int) {
+        val failed = BooleanArray(size)
+        var first: Throwable? = null
+
+        inline fun isolate(visitor: Int, action: () -> Unit) {
+            try {
+                action()
+            } catch (e: Exception) {
+                fail(visitor, e)
+            } catch (e: StackOverflowError) {
+                fail(visitor, e)
+            }
+        }
+
+        private fun fail(visitor: Int, e: Throwable) {
+            failed[visitor] = true
+            val firstFailure = first
+            if (firstFailure == null) first = e else firstFailure.addSuppressed(e)
+        }
+    }
+
+    private fun interestsIn(nodeClass: Class<*>): BooleanArray =
+        interests.getOrPut(nodeClass) {
+            BooleanArray(visitorArray.size) { visitor ->
+                visitorArray[visitor].nodeClasses?.any { it.isAssignableFrom(nodeClass) } ?: true
+            }
+        }
+}
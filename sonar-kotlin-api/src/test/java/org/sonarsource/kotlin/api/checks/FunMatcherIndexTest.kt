@@ -0,0 +1,127 @@
+/*
+ * SonarSource Kotlin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.kotlin.api.checks
+
+import com.intellij.openapi.util.Disposer
+import com.sonarsource.scanner.engine.sensor.test.fixtures.TestInputFileBuilder
+import java.io.File
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Paths
+import kotlin.io.path.name
+import org.assertj.core.api.Assertions.assertThat
+import org.jetbrains.kotlin.config.LanguageVersion
+import org.jetbrains.kotlin.psi.KtCallExpression
+import org.jetbrains.kotlin.psi.psiUtil.collectDescendantsOfType
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import org.sonarsource.kotlin.api.frontend.Environment
+import org.sonarsource.kotlin.api.visiting.kaSession
+import org.sonarsource.kotlin.api.visiting.resolvedFunctionCall
+import org.sonarsource.kotlin.testapi.DEFAULT_KOTLIN_CLASSPATH
+import org.sonarsource.kotlin.testapi.kotlinTreeOf
+
+class FunMatcherIndexTest {
+    private val disposable = Disposer.newDisposable()
+
+    @AfterEach
+    fun dispose() {
+        Disposer.dispose(disposable)
+    }
+
+    val classpath = System.getProperty("java.class.path").split(File.pathSeparatorChar) + DEFAULT_KOTLIN_CLASSPATH
+    val environment = Environment(disposable, classpath, LanguageVersion.LATEST_STABLE)
+    val path = Paths.get("../kotlin-checks-test-sources/src/main/kotlin/sample/functions.kt")
+    val content = String(Files.readAllBytes(path))
+    val inputFile = TestInputFileBuilder("moduleKey", path.name)
+        .setModuleBaseDir(path.parent)
+        .setCharset(StandardCharsets.UTF_8)
+        .initMetadata(content)
+        .build()
+
+    val tree = kotlinTreeOf(content, environment, inputFile)
+    private val allCallExpressions = tree.psiFile.collectDescendantsOfType<KtCallExpression>()
+
+    private val matchersByOwner = listOf(
+        listOf(
+            FunMatcher(qualifier = "sample.SampleClass", name = "sayBye"),
+            FunMatcher(qualifier = "sample.SampleClass", name = "sayHello"),
+            FunMatcher(qualifier = "sample.SampleClass") { withNames("sayHello", "sayHelloNullable") },
+        ),
+        listOf(
+            FunMatcher(nameRegex = Regex("say.*")),
+            FunMatcher(qualifier = "sample.SampleClass"),
+        ),
+        listOf(
+            ConstructorMatcher("sample.SampleClass"),
+            ConstructorMatcher("sample.MySampleClass"),
+        ),
+        listOf(
+            FunMatcher(name = "get"),
+            FunMatcher(name = "intAndVararg") { withArguments("kotlin.Int", "vararg kotlin.String") },
+        ),
+    )
+
+    @Test
+    fun `index matches like testing all the matchers of each owner in order`() = kaSession(tree.psiFile) {
+        val index = FunMatcherIndex(matchersByOwner)
+        val calls = allCallExpressions.mapNotNull { it.resolvedFunctionCall() }
+        assertThat(calls).hasSizeGreaterThan(8)
+
+        var matchCount = 0
+        calls.forEach { call ->
+            val expected = matchersByOwner.mapIndexedNotNull { owner, matchers ->
+                matchers.firstOrNull { it.matches(call) }?.let { owner to it }
+            }
+            val actual = mutableListOf<Pair<Int, FunMatcherImpl>>()
+            index.forEachFirstMatch(call) { owner, matcher -> actual.add(owner to matcher) }
+            assertThat(actual).isEqualTo(expected)
+            matchCount += actual.size
+        }
+        assertThat(matchCount).isPositive()
+    }
+
+    @Test
+    fun `matchers are indexed by name and by constructed type`() {
+        assertThat(matchersByOwner[0][2].indexedNames).containsExactlyInAnyOrder("sayHello", "sayHelloNullable")
+        assertThat(matchersByOwner[0][2].indexedConstructedTypes).isNull()
+        assertThat(matchersByOwner[1][0].indexedNames).isNull()
+        assertThat(matchersByOwner[1][1].indexedNames).isNull()
+        assertThat(matchersByOwner[2][0].indexedNames).isNull()
+        assertThat(matchersByOwner[2][0].indexedConstructedTypes).containsExactly("sample.SampleClass")
+    }
+
+    @Test
+    fun `callee names are filtered by the names, constructed types and name regexes of the matchers`() {
+        val index = FunMatcherIndex(matchersByOwner)
+        assertThat(index.mayMatchCallee("sayHelloNullable")).isTrue
+        assertThat(index.mayMatchCallee("sayAnything")).isTrue
+        assertThat(index.mayMatchCallee("SampleClass")).isTrue
+        assertThat(index.mayMatchCallee("MySampleClass")).isTrue
+        assertThat(index.mayMatchCallee("intAndVararg")).isTrue
+        assertThat(index.mayMatchCallee("println")).isFalse
+        assertThat(index.mayMatchCallee("let")).isFalse
+    }
+
+    @Test
+    fun `callee names are not filtered when a matcher can match any name`() {
+        assertThat(FunMatcherIndex(listOf(listOf(FunMatcher(qualifier = "sample.SampleClass")))).mayMatchCallee("println")).isTrue
+        assertThat(FunMatcherIndex(listOf(listOf(ConstructorMatcher()))).mayMatchCallee("println")).isTrue
+        assertThat(FunMatcherIndex(listOf(listOf(FunMatcher(name = "invoke")))).mayMatchCallee("println")).isTrue
+        assertThat(FunMatcherIndex(listOf(listOf(FunMatcher(name = "get")))).mayMatchCallee("println")).isFalse
+    }
+}
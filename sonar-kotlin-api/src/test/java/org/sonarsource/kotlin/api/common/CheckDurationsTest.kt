@@ -0,0 +1,109 @@
+/*
+ * SonarSource Kotlin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.kotlin.api.common
+
+import com.google.gson.JsonParser
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.data.Percentage
+import org.junit.jupiter.api.Test
+
+class CheckDurationsTest {
+
+    @Test
+    fun `histogram percentiles are within an eighth of the recorded durations`() {
+        val histogram = LatencyHistogram()
+        (1L..1000L).forEach { histogram.record(it * 1_000) }
+
+        assertThat(histogram.count()).isEqualTo(1000)
+        assertThat(histogram.max()).isEqualTo(1_000_000)
+        assertThat(histogram.percentile(50.0)).isCloseTo(500_000, Percentage.withPercentage(12.5))
+        assertThat(histogram.percentile(95.0)).isCloseTo(950_000, Percentage.withPercentage(12.5))
+        assertThat(histogram.percentile(99.0)).isCloseTo(990_000, Percentage.withPercentage(12.5))
+        assertThat(histogram.percentile(100.0)).isEqualTo(1_000_000)
+        assertThat(LatencyHistogram().percentile(50.0)).isZero
+    }
+
+    @Test
+    fun `histogram buckets cover all the durations`() {
+        listOf(0L, 1L, 7L, 8L, 9L, 15L, 16L, 17L, 1_000_003L, Long.MAX_VALUE).forEach { value ->
+            val bucket = LatencyHistogram.bucketOf(value)
+            assertThat(LatencyHistogram.upperBoundOf(bucket)).isGreaterThanOrEqualTo(value)
+            if (bucket > 0) assertThat(LatencyHistogram.upperBoundOf(bucket - 1)).isLessThan(value)
+        }
+    }
+
+    @Test
+    fun `slowest file checks are kept`() {
+        val checkDurations = CheckDurations(slowestFileChecksCount = 2)
+        checkDurations.addFile("A.kt", "FirstCheck", 30, 100)
+        checkDurations.addFile("B.kt", "FirstCheck", 10, 200)
+        checkDurations.addFile("A.kt", "SecondCheck", 20, 0)
+        checkDurations.addFile("C.kt", "SecondCheck", 50, 0)
+
+        assertThat(checkDurations.slowestFileChecks()).containsExactly(
+            CheckDurations.FileCheckDuration("C.kt", "SecondCheck", 50),
+            CheckDurations.FileCheckDuration("A.kt", "FirstCheck", 30),
+        )
+        assertThat(checkDurations.nanosByCheck()).containsExactly("SecondCheck" to 70L, "FirstCheck" to 40L)
+    }
+
+    @Test
+    fun `measures are written as json`() {
+        val checkDurations = CheckDurations()
+        checkDurations.addFile("dir/\"quoted\".kt", "SomeCheck", 5, 64)
+        checkDurations.addVisitor("KtChecksVisitor", 7)
+        checkDurations.addResolvedCalls(3, 1)
+
+        val json = JsonParser.parseString(checkDurations.toJson()).asJsonObject
+
+        assertThat(json.keySet()).containsExactly("checks", "visitors", "slowestFileChecks", "resolvedCalls")
+        assertThat(json.getAsJsonArray("checks").single()).isEqualTo(JsonParser.parseString(
+            """{"check": "SomeCheck", "files": 1, "totalNanos": 5, "p50Nanos": 5, "p95Nanos": 5, "p99Nanos": 5, "maxNanos": 5, "allocatedBytes": 64}"""
+        ))
+        assertThat(json.getAsJsonArray("visitors").single()).isEqualTo(JsonParser.parseString(
+            """{"visitor": "KtChecksVisitor", "files": 1, "totalNanos": 7, "p50Nanos": 7, "p95Nanos": 7, "p99Nanos": 7, "maxNanos": 7}"""
+        ))
+        assertThat(json.getAsJsonArray("slowestFileChecks").single()).isEqualTo(JsonParser.parseString(
+            """{"file": "dir/\"quoted\".kt", "check": "SomeCheck", "nanos": 5}"""
+        ))
+        assertThat(json.getAsJsonObject("resolvedCalls")).isEqualTo(JsonParser.parseString("""{"hits": 3, "misses": 1}"""))
+    }
+
+    @Test
+    fun `summary lists the visitors when the checks are not measured`() {
+        val checkDurations = CheckDurations()
+        checkDurations.addVisitor("VisitorBus", 2_000_000)
+        checkDurations.addVisitor("KtChecksVisitor", 5_000_000)
+
+        assertThat(checkDurations.summary())
+            .isEqualTo("Slowest visitors: KtChecksVisitor 5 ms, VisitorBus 2 ms. Resolved calls: 0 hits, 0 misses")
+
+        checkDurations.addFile("A.kt", "SomeCheck", 1_000_000, 0)
+
+        assertThat(checkDurations.summary()).isEqualTo(
+            "Slowest checks: SomeCheck 1 ms. Slowest visitors: KtChecksVisitor 5 ms, VisitorBus 2 ms. Resolved calls: 0 hits, 0 misses"
+        )
+    }
+
+    @Test
+    fun `allocated bytes of the current thread do not decrease`() {
+        val before = CheckDurations.currentThreadAllocatedBytes()
+        val allocated = List(1000) { it.toString() }
+        assertThat(allocated).hasSize(1000)
+        assertThat(CheckDurations.currentThreadAllocatedBytes()).isGreaterThanOrEqualTo(before)
+    }
+}
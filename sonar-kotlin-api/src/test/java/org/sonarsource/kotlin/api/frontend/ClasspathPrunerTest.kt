@@ -0,0 +1,132 @@
+/*
+ * SonarSource Kotlin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.kotlin.api.frontend
+
+import java.io.File
+import java.nio.file.Path
+import java.util.jar.JarOutputStream
+import java.util.zip.ZipEntry
+import javax.tools.ToolProvider
+import kotlin.io.path.createDirectories
+import kotlin.io.path.writeText
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+
+class ClasspathPrunerTest {
+
+  @TempDir
+  lateinit var tempDir: Path
+
+  private lateinit var jarA: File
+  private lateinit var jarB: File
+  private lateinit var jarC: File
+  private lateinit var jarE: File
+  private lateinit var jarK: File
+  private lateinit var classpath: List<String>
+
+  @BeforeEach
+  fun compileJars() {
+    val sources = tempDir.resolve("src").createDirectories()
+    val classes = tempDir.resolve("classes").createDirectories()
+    val javaFiles = listOf(
+      "B.java" to "package com.b; public class B {}",
+      "A.java" to "package com.a; public class A extends com.b.B {}",
+      "C.java" to "package com.c; public class C {}",
+      "E.java" to "package com.e; public class E { public com.c.C c() { return null; } private com.a.A a() { return null; } }",
+      "F.java" to "package com.f; public class F { public com.b.B b() { return null; } }",
+      "Metadata.java" to "package kotlin; public @interface Metadata {}",
+      "K.java" to "package com.k; @kotlin.Metadata public class K {}",
+    ).map { (name, content) -> sources.resolve(name).apply { writeText(content) }.toString() }
+    check(ToolProvider.getSystemJavaCompiler().run(null, null, null, "-d", classes.toString(), *javaFiles.toTypedArray()) == 0)
+
+    jarA = jar("a.jar", classes, "com/a/A.class")
+    jarB = jar("b.jar", classes, "com/b/B.class")
+    jarC = jar("c.jar", classes, "com/c/C.class")
+    jarE = jar("e.jar", classes, "com/e/E.class", "com/f/F.class")
+    jarK = jar("k.jar", classes, "com/k/K.class")
+    val directory = tempDir.resolve("output").createDirectories().toString()
+    classpath = listOf(jarA.path, jarB.path, jarC.path, jarE.path, jarK.path, directory)
+  }
+
+  @Test
+  fun `keeps the jars of the imported packages and of their supertypes`() {
+    val pruner = prunerOf("import com.a.A\nfun f(a: A) = a")
+
+    assertThat(pruner.prunedClasspath()).containsExactly(jarA.path, jarB.path, classpath[5])
+  }
+
+  @Test
+  fun `keeps the jars of the types exposed by the members of the kept classes`() {
+    // com.f.F exposes com.b.B, but the package com.f of e.jar is not reached
+    val pruner = prunerOf("import com.e.E\nfun f(e: E) = e.c()")
+
+    assertThat(pruner.prunedClasspath()).containsExactly(jarC.path, jarE.path, classpath[5])
+  }
+
+  @Test
+  fun `falls back to the full classpath when a reached package has Kotlin metadata`() {
+    val pruner = prunerOf("import com.k.K\nfun f(k: K) = k")
+
+    assertThat(pruner.prunedClasspath()).isNull()
+  }
+
+  @Test
+  fun `keeps the jars of fully qualified references`() {
+    val pruner = prunerOf("fun f() = com.c.C()", "fun g(c: com.c.C) = c")
+
+    assertThat(pruner.prunedClasspath()).containsExactly(jarC.path, classpath[5])
+  }
+
+  @Test
+  fun `comments, aliases and escaped names are tokenized`() {
+    val pruner = prunerOf("/* import com.a.A */\nimport com.`c`.C as D // com.e.E\nfun f() = D()")
+
+    assertThat(pruner.prunedClasspath()).containsExactly(jarC.path, classpath[5])
+  }
+
+  @Test
+  fun `imports of the JDK and of the source files are resolved`() {
+    val pruner = prunerOf("package org.sources\nclass S", "import java.util.UUID\nimport org.sources.S\nimport org.sources.*")
+
+    assertThat(pruner.prunedClasspath()).containsExactly(classpath[5])
+  }
+
+  @Test
+  fun `falls back to the full classpath when an import is not found`() {
+    val pruner = prunerOf("import com.a.A", "import com.unknown.X")
+
+    assertThat(pruner.prunedClasspath()).isNull()
+  }
+
+  private fun prunerOf(vararg contents: String) =
+    ClasspathPruner(JarPackageIndex.inMemory(), classpath).apply {
+      contents.forEach { addReferences(it) }
+    }
+
+  private fun jar(name: String, classes: Path, vararg entries: String): File =
+    tempDir.resolve(name).toFile().apply {
+      JarOutputStream(outputStream()).use { jar ->
+        entries.forEach {
+          jar.putNextEntry(ZipEntry(it))
+          jar.write(classes.resolve(it).toFile().readBytes())
+          jar.closeEntry()
+        }
+      }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * SonarSource Kotlin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.kotlin.api.frontend
+
+import com.intellij.openapi.util.Disposer
+import com.intellij.psi.PsiElement
+import org.assertj.core.api.Assertions.assertThat
+import org.jetbrains.kotlin.config.LanguageVersion
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.psi.psiUtil.allChildren
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+
+class FlatTreeTest {
+
+  private val disposable = Disposer.newDisposable()
+  private val environment = Environment(disposable, emptyList(), LanguageVersion.LATEST_STABLE)
+
+  @AfterEach
+  fun dispose() {
+    Disposer.dispose(disposable)
+  }
+
+  @Test
+  fun `nodes are in pre-order with the properties of the tree`() {
+    val ktFile = ktFile(
+      """
+      // header
+      package a.b
+
+      /** Doc */
+      class A(val x: Int) {
+        fun f() { if (x > 0) println("${'$'}x") }
+      }
+      """.trimIndent()
+    )
+
+    val tree = FlatTree.of(ktFile)
+
+    val nodes = mutableListOf<PsiElement>()
+    preOrder(ktFile, nodes)
+    assertThat(tree.size).isEqualTo(nodes.size)
+    nodes.forEachIndexed { index, node ->
+      assertThat(tree.node(index)).isSameAs(node)
+      assertThat(tree.elementType(index)).isEqualTo(node.node.elementType.index)
+      assertThat(tree.startOffset(index)).isEqualTo(node.textRange.startOffset)
+      assertThat(tree.endOffset(index)).isEqualTo(node.textRange.endOffset)
+      assertThat(tree.parent(index)).isEqualTo(if (index == 0) -1 else nodes.indexOf(node.parent))
+      assertThat(tree.depth(index)).isEqualTo(generateSequence(node) { it.parent }.takeWhile { it !== ktFile.parent }.count() - 1)
+      assertThat(tree.subtreeEnd(index)).isEqualTo(index + 1 + descendantCount(node))
+    }
+  }
+
+  @Test
+  fun `psi children are the nodes reached through PsiElement children`() {
+    val ktFile = ktFile(
+      """
+      fun f(list: List<Int>) {
+        // comment
+        for (i in list) { println(i) }
+      }
+      """.trimIndent()
+    )
+
+    val tree = FlatTree.of(ktFile)
+
+    val psiChildren = mutableSetOf<PsiElement>()
+    psiChildren(ktFile, psiChildren)
+    val flatPsiChildren = (0 until tree.size).filter { tree.isPsiChild(it) }.map { tree.node(it) }
+    assertThat(flatPsiChildren).containsExactlyInAnyOrderElementsOf(psiChildren)
+  }
+
+  @Test
+  fun `deeply nested trees are flattened without recursion`() {
+    val depth = 300
+    val ktFile = ktFile("val x = " + "(".repeat(depth) + "1" + ")".repeat(depth))
+
+    val tree = FlatTree.of(ktFile)
+
+    assertThat((0 until tree.size).maxOf { tree.depth(it) }).isGreaterThan(depth)
+    assertThat(tree.subtreeEnd(0)).isEqualTo(tree.size)
+    assertThat(tree.endOffset(0)).isEqualTo(ktFile.textLength)
+  }
+
+  private fun ktFile(content: String): KtFile = environment.ktPsiFactory.createFile(content)
+
+  private fun preOrder(node: PsiElement, acc: MutableList<PsiElement>) {
+    acc.add(node)
+    node.allChildren.forEach { preOrder(it, acc) }
+  }
+
+  private fun descendantCount(node: PsiElement): Int = node.allChildren.sumOf { 1 + descendantCount(it) }
+
+  private fun psiChildren(node: PsiElement, acc: MutableSet<PsiElement>) {
+    acc.add(node)
+    node.children.forEach { psiChildren(it, acc) }
+  }
+}
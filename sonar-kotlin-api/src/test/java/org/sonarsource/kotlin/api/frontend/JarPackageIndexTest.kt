@@ -0,0 +1,139 @@
+/*
+ * SonarSource Kotlin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.kotlin.api.frontend
+
+import java.io.ByteArrayInputStream
+import java.io.File
+import java.io.InputStream
+import java.nio.file.Path
+import java.util.jar.JarOutputStream
+import java.util.zip.ZipEntry
+import kotlin.io.path.writeText
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import org.sonar.api.batch.sensor.cache.ReadCache
+import org.sonar.api.batch.sensor.cache.WriteCache
+
+class JarPackageIndexTest {
+
+  @TempDir
+  lateinit var tempDir: Path
+
+  @Test
+  fun `jars are indexed by package`() {
+    val jar = jar("lib.jar", "com/example/A.class", "com/example/sub/B.class", "C.class", "META-INF/versions/11/com/mr/D.class", "META-INF/MANIFEST.MF")
+    val notAJar = tempDir.resolve("notes.txt").apply { writeText("not a jar") }.toFile()
+    val index = JarPackageIndex.inMemory()
+
+    assertThat(index.isJar(jar)).isTrue
+    assertThat(index.packagesOf(jar)).containsExactlyInAnyOrder("com.example", "com.example.sub", "", "com.mr")
+    assertThat(index.isJar(notAJar)).isFalse
+    assertThat(index.packagesOf(notAJar)).isEmpty()
+  }
+
+  @Test
+  fun `index is saved and reused while the jars do not change`() {
+    val jar = jar("lib.jar", "com/example/A.class")
+    val firstAnalysis = Caches()
+    JarPackageIndex.load(firstAnalysis, firstAnalysis).apply {
+      assertThat(packagesOf(jar)).containsExactly("com.example")
+      save()
+    }
+    assertThat(firstAnalysis.next).containsKey("kotlin:jarPackageIndex")
+
+    val lastModified = jar.lastModified()
+    jar.writeBytes(jarBytesOf("lib.jar", "org/example/B.class"))
+    jar.setLastModified(lastModified)
+    // Same size and modification time: the jar is considered unchanged, and the index is copied as is
+    val secondAnalysis = Caches(firstAnalysis.next)
+    JarPackageIndex.load(secondAnalysis, secondAnalysis).apply {
+      assertThat(packagesOf(jar)).containsExactly("com.example")
+      save()
+    }
+    assertThat(secondAnalysis.copied).containsExactly("kotlin:jarPackageIndex")
+
+    jar.setLastModified(lastModified + 10_000)
+    val thirdAnalysis = Caches(secondAnalysis.next)
+    assertThat(JarPackageIndex.load(thirdAnalysis, thirdAnalysis).packagesOf(jar)).containsExactly("org.example")
+  }
+
+  @Test
+  fun `index is kept when no jar is looked up`() {
+    val jar = jar("lib.jar", "com/example/A.class")
+    val firstAnalysis = Caches()
+    JarPackageIndex.load(firstAnalysis, firstAnalysis).apply {
+      packagesOf(jar)
+      save()
+    }
+
+    val secondAnalysis = Caches(firstAnalysis.next)
+    JarPackageIndex.load(secondAnalysis, secondAnalysis).save()
+    assertThat(secondAnalysis.copied).containsExactly("kotlin:jarPackageIndex")
+
+    val emptyAnalysis = Caches()
+    JarPackageIndex.load(emptyAnalysis, emptyAnalysis).save()
+    assertThat(emptyAnalysis.next).isEmpty()
+  }
+
+  @Test
+  fun `unreadable index is ignored`() {
+    val caches = Caches(mapOf("kotlin:jarPackageIndex" to "garbage".toByteArray()))
+    val jar = jar("lib.jar", "com/example/A.class")
+
+    assertThat(JarPackageIndex.load(caches, caches).packagesOf(jar)).containsExactly("com.example")
+  }
+
+  private fun jar(name: String, vararg entries: String): File =
+    tempDir.resolve(name).toFile().apply { writeBytes(jarBytesOf(name, *entries)) }
+
+  private fun jarBytesOf(name: String, vararg entries: String): ByteArray {
+    val file = tempDir.resolve("$name.tmp").toFile()
+    JarOutputStream(file.outputStream()).use { jar ->
+      entries.forEach {
+        jar.putNextEntry(ZipEntry(it))
+        jar.closeEntry()
+      }
+    }
+    return file.readBytes().also { file.delete() }
+  }
+
+  /**
+   * The caches of one analysis: [previous] is read, [next] is written.
+   */
+  private class Caches(private val previous: Map<String, ByteArray> = emptyMap()) : ReadCache, WriteCache {
+    val next = mutableMapOf<String, ByteArray>()
+    val copied = mutableListOf<String>()
+
+    override fun read(key: String): InputStream = ByteArrayInputStream(previous.getValue(key))
+
+    override fun contains(key: String) = key in previous
+
+    override fun write(key: String, data: InputStream) = write(key, data.readAllBytes())
+
+    override fun write(key: String, data: ByteArray) {
+      require(key !in next)
+      next[key] = data
+    }
+
+    override fun copyFromPrevious(key: String) {
+      require(key in previous && key !in next)
+      next[key] = previous.getValue(key)
+      copied.add(key)
+    }
+  }
+}
@@ -133,6 +133,48 @@ class KotlinCoreEnvironmentToolsTest {
     }
   }
 
+  @Test
+  fun `environment finds the source file of each virtual file of the session`() {
+    val environment = Environment(disposable, listOf(), LanguageVersion.LATEST_STABLE)
+    val fileSystem = KotlinFileSystem()
+    val virtualFiles = (1..100).map { i ->
+      KotlinVirtualFile(fileSystem, File("/file$i.kt"), contentProvider = { "class C$i" })
+    }
+    val unknownVirtualFile = KotlinVirtualFile(fileSystem, File("/unknown.kt"), contentProvider = { "" })
+
+    assertThat(environment.findSourceFile(virtualFiles[0])).isNull()
+
+    environment.k2session = createK2AnalysisSession(disposable, environment.configuration, virtualFiles)
+
+    virtualFiles.forEach { virtualFile ->
+      assertThat(environment.findSourceFile(virtualFile)!!.virtualFile).isSameAs(virtualFile)
+    }
+    assertThat(environment.findSourceFile(virtualFiles[41])!!.name).isEqualTo("file42.kt")
+    assertThat(environment.findSourceFile(unknownVirtualFile)).isNull()
+  }
+
+  @Test
+  fun `environment finds the source files of all the modules by path`() {
+    val environment = Environment(disposable, listOf(), LanguageVersion.LATEST_STABLE)
+    val fileSystem = KotlinFileSystem()
+    val virtualFilesByModule = listOf("app", "lib").associateWith { module ->
+      (1..50).map { i -> KotlinVirtualFile(fileSystem, File("/$module/file$i.kt"), contentProvider = { "class C$i" }) }
+    }
+
+    environment.k2session = createK2AnalysisSession(disposable, environment.configuration, virtualFilesByModule)
+
+    // Not only the files of the first module
+    val libFile = virtualFilesByModule.getValue("lib")[9]
+    assertThat(environment.findSourceFile(libFile)!!.virtualFile).isSameAs(libFile)
+    // A KotlinVirtualFile is not equal to another instance of the same path, which must find the same source file
+    val samePath = KotlinVirtualFile(fileSystem, File("/lib/file10.kt"), contentProvider = { "" })
+    assertThat(samePath).isNotEqualTo(libFile)
+    assertThat(environment.findSourceFile(samePath)!!.virtualFile).isSameAs(libFile)
+    // Files of the same name in different modules are not confused
+    assertThat(environment.findSourceFile(virtualFilesByModule.getValue("app")[9])!!.virtualFile)
+      .isSameAs(virtualFilesByModule.getValue("app")[9])
+  }
+
   @Test
   fun k2_language_version_1_9() {
     val analysisSession = createK2AnalysisSession(
@@ -0,0 +1,86 @@
+/*
+ * SonarSource Kotlin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.kotlin.api.frontend
+
+import com.intellij.openapi.util.Disposer
+import java.io.File
+import org.assertj.core.api.Assertions.assertThat
+import org.jetbrains.kotlin.config.JvmTarget
+import org.jetbrains.kotlin.config.LanguageVersion
+import org.jetbrains.kotlin.psi.KtCallExpression
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.psi.psiUtil.collectDescendantsOfType
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import org.sonarsource.kotlin.api.visiting.currentResolvedCalls
+import org.sonarsource.kotlin.api.visiting.kaSession
+import org.sonarsource.kotlin.api.visiting.resolvedFunctionCall
+
+class ResolvedCallCacheTest {
+
+  private val disposable = Disposer.newDisposable()
+
+  @AfterEach
+  fun dispose() {
+    Disposer.dispose(disposable)
+  }
+
+  private val content = """
+    fun f() = g(1) + unknown(2)
+    fun g(x: Int) = x
+    """.trimIndent()
+
+  @Test
+  fun `calls are resolved once per session`() {
+    val ktFile = ktFile()
+    val (knownCall, unknownCall) = ktFile.collectDescendantsOfType<KtCallExpression>()
+    kaSession(ktFile) {
+      val resolvedCalls = ResolvedCallCache()
+
+      val call = resolvedCalls.successfulFunctionCall(knownCall)
+      assertThat(call!!.signature.symbol.callableId?.callableName?.asString()).isEqualTo("g")
+      assertThat(resolvedCalls.successfulFunctionCall(knownCall)).isSameAs(call)
+      assertThat(resolvedCalls.successfulFunctionCall(unknownCall)).isNull()
+      assertThat(resolvedCalls.successfulFunctionCall(unknownCall)).isNull()
+
+      assertThat(resolvedCalls.hits).isEqualTo(2)
+      assertThat(resolvedCalls.misses).isEqualTo(2)
+    }
+  }
+
+  @Test
+  fun `api extensions share the cache of the session`() {
+    val ktFile = ktFile()
+    val knownCall = ktFile.collectDescendantsOfType<KtCallExpression>().first()
+    kaSession(ktFile) {
+      val call = knownCall.resolvedFunctionCall()
+      assertThat(knownCall.resolvedFunctionCall()).isSameAs(call)
+      assertThat(currentResolvedCalls.get()!!.hits).isEqualTo(1)
+      assertThat(currentResolvedCalls.get()!!.misses).isEqualTo(1)
+    }
+    assertThat(currentResolvedCalls.get()).isNull()
+  }
+
+  private fun ktFile(): KtFile {
+    val session = createK2AnalysisSession(
+      disposable,
+      compilerConfiguration(listOf(), LanguageVersion.LATEST_STABLE, JvmTarget.JVM_1_8),
+      listOf(KotlinVirtualFile(KotlinFileSystem(), File("/fake.kt"), contentProvider = { content })),
+    )
+    return session.modulesWithFiles.entries.first().value[0] as KtFile
+  }
+}
@@ -97,6 +97,25 @@ class AbstractKotlinSensorTest : AbstractSensorTest() {
             .contains("Unable to parse file: ${inputFile.uri()}. Parse error at position 1:14")
     }
 
+    @Test
+    fun test_fail_parsing_after_deeply_nested_code() {
+        // The parser reads a chain of binary operators in a loop, but each operation nests the previous ones in the
+        // syntax tree: deep enough for a scan recursing once per level to overflow the stack, and report no position
+        val depth = 20_000
+        val inputFile = createInputFile(
+            "file1.kt",
+            "val x = 1" + " + 1".repeat(depth) + "\nval = 1"
+        )
+        context.fileSystem().add(inputFile)
+
+        sensor().execute(context)
+        val analysisErrors = context.allAnalysisErrors()
+        assertThat(analysisErrors).hasSize(1)
+        val textPointer = analysisErrors.iterator().next().location()
+        assertThat(textPointer).isNotNull
+        assertThat(textPointer!!.line()).isEqualTo(2)
+    }
+
     @ParameterizedTest
     @ValueSource(strings = [
         "directory with spaces/file.kt",
@@ -217,14 +236,15 @@ class DummyKotlinSensor(checkFactory: CheckFactory, language: KotlinLanguage, ch
         sensorContext: SensorContext,
         filesToAnalyze: Iterable<InputFile>,
         progressReport: ProgressReport,
-        filenames: List<String>
+        filenames: List<String>,
+        sourceContents: SourceContentStore,
     ): AbstractKotlinSensorExecuteContext = object : AbstractKotlinSensorExecuteContext(
-        sensorContext, filesToAnalyze, progressReport, listOf(KtChecksVisitor(checks)), filenames, LOG
+        sensorContext, filesToAnalyze, progressReport, listOf(KtChecksVisitor(checks)), filenames, LOG, sourceContents
     ) {
         override val classpath: List<String> = listOf()
     }
 
-    override fun getFilesToAnalyse(sensorContext: SensorContext): Iterable<InputFile> =
+    override fun getFilesToAnalyse(sensorContext: SensorContext, sourceContents: SourceContentStore): Iterable<InputFile> =
         sensorContext.fileSystem().inputFiles(sensorContext.fileSystem().predicates().all())
 
     override fun describe(descriptor: SensorDescriptor) {}
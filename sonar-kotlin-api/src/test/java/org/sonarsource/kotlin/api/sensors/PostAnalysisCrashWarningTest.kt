@@ -67,4 +67,19 @@ internal class PostAnalysisCrashWarningTest {
         assertThat(message.captured).doesNotContain("f11.kt")
         assertThat(message.captured).endsWith("(and 3 more).")
     }
+
+    @Test
+    fun `files exceeding the time budget are listed with the budget properties`() {
+        val warnings = mockk<AnalysisWarnings>(relaxed = true)
+        val message = slot<String>()
+        postTimeBudgetWarning(warnings, emptyList())
+        verify(exactly = 0) { warnings.addUnique(any()) }
+
+        postTimeBudgetWarning(warnings, listOf("a.kt"))
+        verify(exactly = 1) { warnings.addUnique(capture(message)) }
+        assertThat(message.captured)
+            .startsWith("1 file exceeded the analysis time budget;")
+            .contains("incomplete: a.kt.")
+            .contains("'sonar.kotlin.analysis.fileTimeBudget'")
+    }
 }
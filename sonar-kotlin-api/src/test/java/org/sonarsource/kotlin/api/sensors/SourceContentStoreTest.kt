@@ -0,0 +1,102 @@
+/*
+ * SonarSource Kotlin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.kotlin.api.sensors
+
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.verify
+import java.io.IOException
+import java.security.MessageDigest
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.junit.jupiter.api.Test
+import org.sonar.api.batch.fs.InputFile
+
+internal class SourceContentStoreTest {
+
+    @Test
+    fun `each file is read once until it is released`() {
+        val inputFile = mockk<InputFile> { every { contents() } returns "fun main() {}" }
+        val store = SourceContentStore()
+
+        val content = store.contentOf(inputFile)
+        assertThat(store.contentOf(inputFile)).isSameAs(content)
+        verify(exactly = 1) { inputFile.contents() }
+
+        store.release(inputFile)
+        assertThat(store.contentOf(inputFile)).isNotSameAs(content)
+        verify(exactly = 2) { inputFile.contents() }
+    }
+
+    @Test
+    fun `read failures are kept`() {
+        val inputFile = mockk<InputFile> { every { contents() } throws IOException("Can't read") }
+        val store = SourceContentStore()
+
+        repeat(2) {
+            assertThatThrownBy { store.contentOf(inputFile) }
+                .isInstanceOf(IOException::class.java)
+                .hasMessage("Can't read")
+        }
+        verify(exactly = 1) { inputFile.contents() }
+    }
+
+    @Test
+    fun `bytes, blankness and hashes are derived from the text`() {
+        val content = SourceContent("val é = 1")
+
+        assertThat(content.bytes).isEqualTo("val é = 1".toByteArray(Charsets.UTF_8))
+        assertThat(content.isBlank).isFalse
+        assertThat(SourceContent(" \n\t").isBlank).isTrue
+        assertThat(content.digest("MD5")).isEqualTo(MessageDigest.getInstance("MD5").digest(content.bytes))
+        assertThat(content.digest("MD5")).isSameAs(content.digest("MD5"))
+    }
+
+    @Test
+    fun `text, bytes and digest share the content read once until it is released`() {
+        val inputFile = mockk<InputFile> { every { contents() } returns "val é = 1" }
+        val store = SourceContentStore()
+
+        val digest = store.digestOf(inputFile, "MD5")
+        assertThat(digest).isEqualTo(SourceContent("val é = 1").digest("MD5"))
+        assertThat(store.bytesOf(inputFile)).isSameAs(store.contentOf(inputFile).bytes)
+        assertThat(store.textOf(inputFile)).isEqualTo("val é = 1")
+        verify(exactly = 1) { inputFile.contents() }
+
+        // The digest is kept after the file is released
+        store.release(inputFile)
+        assertThat(store.digestOf(inputFile, "MD5")).isSameAs(digest)
+        verify(exactly = 1) { inputFile.contents() }
+    }
+
+    @Test
+    fun `digests are precomputed on worker threads`() {
+        val failing = mockk<InputFile> { every { contents() } throws IOException("Can't read") }
+        val inputFiles = (1..10).map { index -> mockk<InputFile> { every { contents() } returns "val x = $index" } } + failing
+        val store = SourceContentStore()
+
+        store.precomputeDigests(inputFiles, "MD5", 4)
+
+        inputFiles.dropLast(1).forEach { inputFile ->
+            store.digestOf(inputFile, "MD5")
+            verify(exactly = 1) { inputFile.contents() }
+        }
+        assertThatThrownBy { store.digestOf(failing, "MD5") }
+            .isInstanceOf(IOException::class.java)
+            .hasMessage("Can't read")
+    }
+}
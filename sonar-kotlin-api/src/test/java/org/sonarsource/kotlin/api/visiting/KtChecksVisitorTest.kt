@@ -0,0 +1,181 @@
+/*
+ * SonarSource Kotlin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.kotlin.api.visiting
+
+import com.intellij.psi.PsiElement
+import com.intellij.openapi.util.Disposer
+import io.mockk.mockk
+import org.assertj.core.api.Assertions.assertThat
+import org.jetbrains.kotlin.config.LanguageVersion
+import org.jetbrains.kotlin.psi.KtCallExpression
+import org.jetbrains.kotlin.psi.KtElement
+import org.jetbrains.kotlin.psi.KtExpression
+import org.jetbrains.kotlin.psi.KtNamedFunction
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import org.sonarsource.kotlin.api.checks.AbstractCheck
+import org.sonarsource.kotlin.api.common.CheckDurations
+import org.sonarsource.kotlin.api.frontend.Environment
+import org.sonarsource.kotlin.api.frontend.FlatTree
+import org.sonarsource.kotlin.api.frontend.KotlinFileContext
+import org.sonarsource.kotlin.api.frontend.RegexCache
+
+class KtChecksVisitorTest {
+
+    private val disposable = Disposer.newDisposable()
+
+    @AfterEach
+    fun dispose() {
+        Disposer.dispose(disposable)
+    }
+
+    private val content = """
+        fun f(x: Int): Int = g(x) + 1
+        fun g(x: Int): Int {
+            println(x)
+            return x * 2
+        }
+        """.trimIndent()
+
+    @Test
+    fun `visited types are the ones of the overridden visit methods`() {
+        assertThat(KtChecksVisitor.visitedTypesOf(CallCheck::class.java)).containsExactly(KtCallExpression::class.java)
+        assertThat(KtChecksVisitor.visitedTypesOf(FunctionAndExpressionCheck::class.java))
+            .containsExactlyInAnyOrder(KtNamedFunction::class.java, KtExpression::class.java)
+        assertThat(KtChecksVisitor.visitedTypesOf(ElementCheck::class.java)).containsExactly(PsiElement::class.java)
+    }
+
+    @Test
+    fun `each check visits the same nodes as when walking the tree in pre-order once per check`() {
+        val checks = listOf(CallCheck(), FunctionAndExpressionCheck(), ElementCheck())
+        val checkDurations = CheckDurations()
+
+        KtChecksVisitor(checks, checkDurations).visit(kotlinFileContext())
+
+        val expected = listOf(CallCheck(), FunctionAndExpressionCheck(), ElementCheck())
+        val fileContext = kotlinFileContext()
+        expected.forEach { check ->
+            allElements(fileContext.ktFile).forEach { it.accept(check, fileContext) }
+        }
+        checks.zip(expected).forEach { (actual, expected) ->
+            assertThat(actual.visited).isNotEmpty.isEqualTo(expected.visited)
+        }
+        assertThat(checkDurations.nanosByCheck().map { it.first })
+            .containsExactlyInAnyOrder("CallCheck", "FunctionAndExpressionCheck", "ElementCheck")
+    }
+
+    @Test
+    fun `the visitor is syntax-only when all its checks are`() {
+        assertThat(KtChecksVisitor(emptyList()).isSyntaxOnly).isTrue
+        assertThat(KtChecksVisitor(listOf(SyntaxOnlyCheck(), ElementCheck())).isSyntaxOnly).isFalse
+        assertThat(KtChecksVisitor(listOf(SyntaxOnlyCheck())).isSyntaxOnly).isTrue
+    }
+
+    @Test
+    fun `a check exceeding its budget is not run on the rest of the file`() {
+        val slowCheck = SlowCheck()
+        val callCheck = CallCheck()
+        val budget = FileBudget(0, 1)
+
+        KtChecksVisitor(listOf(slowCheck, callCheck)).visit(kotlinFileContext(budget))
+
+        assertThat(slowCheck.visited).hasSize(1)
+        assertThat(callCheck.visited).hasSizeGreaterThan(1)
+        assertThat(budget.exceeded()).containsExactly("SlowCheck")
+    }
+
+    @Test
+    fun `an exhausted file budget stops the walk`() {
+        val callCheck = CallCheck()
+        val budget = FileBudget(1, 0)
+        budget.start()
+        Thread.sleep(1)
+
+        KtChecksVisitor(listOf(callCheck)).visit(kotlinFileContext(budget))
+
+        assertThat(callCheck.visited).isEmpty()
+        assertThat(budget.exceeded()).containsExactly("KtChecksVisitor")
+        assertThat(FileBudget.UNLIMITED.isExhausted()).isFalse
+    }
+
+    @Test
+    fun `callee aliases are the import aliases and the type aliases of the file`() {
+        val environment = Environment(disposable, emptyList(), LanguageVersion.LATEST_STABLE)
+        val ktFile = environment.ktPsiFactory.createFile(
+            """
+            import java.security.MessageDigest.getInstance as digest
+            import javax.crypto.Cipher as C
+            import java.util.List
+
+            typealias Exc = IllegalStateException
+
+            fun f() = digest("MD5")
+            """.trimIndent()
+        )
+
+        assertThat(KtChecksVisitor.calleeAliases(FlatTree.of(ktFile)))
+            .containsExactlyInAnyOrderEntriesOf(mapOf("digest" to "getInstance", "C" to "Cipher", "Exc" to null))
+    }
+
+    private fun kotlinFileContext(budget: FileBudget = FileBudget.UNLIMITED): KotlinFileContext {
+        val environment = Environment(disposable, emptyList(), LanguageVersion.LATEST_STABLE)
+        return KotlinFileContext(mockk(), environment.ktPsiFactory.createFile(content), null, RegexCache(), budget = budget)
+    }
+
+    private fun allElements(node: PsiElement, acc: MutableList<KtElement> = mutableListOf()): List<KtElement> {
+        if (node is KtElement) acc.add(node)
+        node.children.forEach { allElements(it, acc) }
+        return acc
+    }
+
+    private abstract class RecordingCheck : AbstractCheck() {
+        val visited = mutableListOf<String>()
+    }
+
+    private class CallCheck : RecordingCheck() {
+        override fun visitCallExpression(expression: KtCallExpression, data: KotlinFileContext) {
+            visited.add(expression.text)
+        }
+    }
+
+    private class FunctionAndExpressionCheck : RecordingCheck() {
+        override fun visitNamedFunction(function: KtNamedFunction, data: KotlinFileContext) {
+            visited.add("fun ${function.name}")
+        }
+
+        override fun visitExpression(expression: KtExpression, data: KotlinFileContext) {
+            visited.add(expression.text)
+        }
+    }
+
+    private class SlowCheck : RecordingCheck() {
+        override fun visitCallExpression(expression: KtCallExpression, data: KotlinFileContext) {
+            visited.add(expression.text)
+            Thread.sleep(1)
+        }
+    }
+
+    private class SyntaxOnlyCheck : RecordingCheck() {
+        override val isSyntaxOnly = true
+    }
+
+    private class ElementCheck : RecordingCheck() {
+        override fun visitElement(element: PsiElement) {
+            visited.add(element.javaClass.simpleName)
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * SonarSource Kotlin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.kotlin.api.visiting
+
+import com.intellij.openapi.util.Disposer
+import com.sonarsource.scanner.engine.sensor.test.fixtures.TestInputFileBuilder
+import io.mockk.mockk
+import java.nio.charset.StandardCharsets
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.jetbrains.kotlin.config.LanguageVersion
+import org.jetbrains.kotlin.psi.KtCallExpression
+import org.jetbrains.kotlin.psi.KtNamedFunction
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import org.sonar.api.batch.fs.TextRange
+import org.sonar.api.batch.sensor.SensorContext
+import org.sonar.api.rule.RuleKey
+import org.sonarsource.kotlin.api.checks.InputFileContext
+import org.sonarsource.kotlin.api.checks.InputFileContextImpl
+import org.sonarsource.kotlin.api.frontend.Environment
+import org.sonarsource.kotlin.api.frontend.FlatTree
+import org.sonarsource.kotlin.api.frontend.KotlinFileContext
+import org.sonarsource.kotlin.api.frontend.RegexCache
+import org.sonarsource.kotlin.api.reporting.KotlinTextRanges.textRange
+import org.sonarsource.kotlin.api.reporting.Message
+
+class VisitorBusTest {
+
+    private val disposable = Disposer.newDisposable()
+
+    @AfterEach
+    fun dispose() {
+        Disposer.dispose(disposable)
+    }
+
+    private val content = """
+        fun f(x: Int): Int = g(x) + 1
+        fun g(x: Int): Int {
+            println(x)
+            return x * 2
+        }
+        """.trimIndent()
+
+    @Test
+    fun `each visitor sees the same nodes as when walking the tree on its own`() {
+        val visitors = listOf(AllNodesVisitor(), CallVisitor(), SkippingFunctionsVisitor())
+        val bus = VisitorBus(visitors)
+
+        bus.visit(kotlinFileContext())
+
+        val expected = listOf(AllNodesVisitor(), CallVisitor(), SkippingFunctionsVisitor())
+        expected.forEach { it.visit(kotlinFileContext()) }
+        visitors.zip(expected).forEach { (actual, expected) ->
+            assertThat(actual.visited).isEqualTo(expected.visited)
+            assertThat(actual.events).containsExactly("begin", "end")
+        }
+        assertThat(visitors[1].visited).containsExactly("g(x)", "println(x)")
+        assertThat(visitors[2].visited).containsExactly("KtFile", "KtNamedFunction", "KtNamedFunction")
+    }
+
+    @Test
+    fun `bus is syntax-only when all its visitors are`() {
+        assertThat(VisitorBus(listOf(AllNodesVisitor(), CallVisitor())).isSyntaxOnly).isTrue()
+        assertThat(VisitorBus(listOf(AllNodesVisitor(), object : CallVisitor() {
+            override val isSyntaxOnly = false
+        })).isSyntaxOnly).isFalse()
+    }
+
+    @Test
+    fun `a failing visitor does not prevent the others from ending the file`() {
+        val inputFile = TestInputFileBuilder("moduleKey", "file.kt")
+            .setCharset(StandardCharsets.UTF_8)
+            .initMetadata(content)
+            .build()
+        // Strict mock: reporting a suppressed issue must not create it
+        val inputFileContext = InputFileContextImpl(mockk<SensorContext>(), inputFile, false)
+        val failing = FailingVisitor()
+        val suppressing = SuppressingVisitor()
+        val recording = AllNodesVisitor()
+
+        assertThatThrownBy { VisitorBus(listOf(failing, suppressing, recording)).visit(kotlinFileContext(inputFileContext)) }
+            .isInstanceOf(IllegalStateException::class.java)
+            .hasMessage("Boom!")
+
+        val expected = AllNodesVisitor().apply { visit(kotlinFileContext()) }
+        assertThat(failing.visited).hasSize(1)
+        assertThat(failing.events).containsExactly("begin")
+        assertThat(suppressing.events).containsExactly("begin", "end")
+        assertThat(recording.events).containsExactly("begin", "end")
+        assertThat(recording.visited).isEqualTo(expected.visited)
+        inputFileContext.reportIssue(RuleKey.of("kotlin", "S1"), inputFile.newRange(3, 4, 3, 14), Message("Suppressed"), emptyList(), null)
+    }
+
+    private fun kotlinFileContext(inputFileContext: InputFileContext = mockk()): KotlinFileContext {
+        val environment = Environment(disposable, emptyList(), LanguageVersion.LATEST_STABLE)
+        return KotlinFileContext(inputFileContext, environment.ktPsiFactory.createFile(content), null, RegexCache())
+    }
+
+    private abstract class RecordingVisitor : FlatTreeVisitor() {
+        override val isSyntaxOnly = true
+        val visited = mutableListOf<String>()
+        val events = mutableListOf<String>()
+
+        override fun beginFile(kotlinFileContext: KotlinFileContext) {
+            events.add("begin")
+        }
+
+        override fun endFile(kotlinFileContext: KotlinFileContext) {
+            events.add("end")
+        }
+    }
+
+    private class AllNodesVisitor : RecordingVisitor() {
+        override fun visitNode(tree: FlatTree, index: Int, kotlinFileContext: KotlinFileContext): Int {
+            visited.add("${tree.node(index).javaClass.simpleName}@${tree.startOffset(index)}")
+            return index + 1
+        }
+    }
+
+    private open class CallVisitor : RecordingVisitor() {
+        override val nodeClasses = listOf(KtCallExpression::class.java)
+
+        override fun visitNode(tree: FlatTree, index: Int, kotlinFileContext: KotlinFileContext): Int {
+            visited.add(tree.node(index).text)
+            return index + 1
+        }
+    }
+
+    private class FailingVisitor : RecordingVisitor() {
+        override fun visitNode(tree: FlatTree, index: Int, kotlinFileContext: KotlinFileContext): Int {
+            visited.add(tree.node(index).javaClass.simpleName)
+            throw IllegalStateException("Boom!")
+        }
+    }
+
+    /**
+     * Suppresses `kotlin:S1` in the functions named `g`, once the whole file is visited.
+     */
+    private class SuppressingVisitor : RecordingVisitor() {
+        override val nodeClasses = listOf(KtNamedFunction::class.java)
+        private val suppressed = mutableSetOf<TextRange>()
+
+        override fun visitNode(tree: FlatTree, index: Int, kotlinFileContext: KotlinFileContext): Int {
+            val function = tree.node(index) as KtNamedFunction
+            // Function g spans lines 2 to 5
+            if (function.name == "g") suppressed.add(kotlinFileContext.textRange(2, 0, 5, 1))
+            return index + 1
+        }
+
+        override fun endFile(kotlinFileContext: KotlinFileContext) {
+            super.endFile(kotlinFileContext)
+            kotlinFileContext.inputFileContext.filteredRules = mapOf("kotlin:S1" to suppressed)
+        }
+    }
+
+    private class SkippingFunctionsVisitor : RecordingVisitor() {
+        override fun visitNode(tree: FlatTree, index: Int, kotlinFileContext: KotlinFileContext): Int {
+            val node = tree.node(index)
+            if (node is KtNamedFunction || index == 0) visited.add(node.javaClass.simpleName)
+            return if (node is KtNamedFunction) tree.subtreeEnd(index) else index + 1
+        }
+    }
+}
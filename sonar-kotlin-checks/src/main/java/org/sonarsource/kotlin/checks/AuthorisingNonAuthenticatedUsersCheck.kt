@@ -18,7 +18,6 @@ package org.sonarsource.kotlin.checks
 
 import org.jetbrains.kotlin.analysis.api.resolution.KaFunctionCall
 import org.jetbrains.kotlin.analysis.api.resolution.singleFunctionCallOrNull
-import org.jetbrains.kotlin.analysis.api.resolution.successfulFunctionCallOrNull
 import org.jetbrains.kotlin.psi.KtCallExpression
 import org.jetbrains.kotlin.psi.KtDotQualifiedExpression
 import org.sonar.check.Rule
@@ -30,6 +29,7 @@ import org.sonarsource.kotlin.api.checks.predictRuntimeBooleanValue
 import org.sonarsource.kotlin.api.reporting.SecondaryLocation
 import org.sonarsource.kotlin.api.reporting.KotlinTextRanges.textRange
 import org.sonarsource.kotlin.api.frontend.KotlinFileContext
+import org.sonarsource.kotlin.api.visiting.resolvedFunctionCall
 import org.sonarsource.kotlin.api.visiting.withKaSession
 
 private const val BUILDER = "android.security.keystore.KeyGenParameterSpec.Builder"
@@ -50,7 +50,7 @@ class AuthorisingNonAuthenticatedUsersCheck : CallAbstractCheck() {
         resolvedCall: KaFunctionCall<*>,
         kotlinFileContext: KotlinFileContext,
     ) = withKaSession {
-        var receiver = callExpression.resolveToCall()?.successfulFunctionCallOrNull() ?: return
+        var receiver = callExpression.resolvedFunctionCall() ?: return
         var callElement = callExpression
         val secondaryLocations = mutableListOf<SecondaryLocation>()
 
@@ -20,7 +20,6 @@ import com.intellij.psi.PsiElement
 import org.jetbrains.kotlin.analysis.api.resolution.KaCallableMemberCall
 import org.jetbrains.kotlin.analysis.api.resolution.KaFunctionCall
 import org.jetbrains.kotlin.analysis.api.resolution.successfulCallOrNull
-import org.jetbrains.kotlin.analysis.api.resolution.successfulFunctionCallOrNull
 import org.jetbrains.kotlin.psi.KtCallExpression
 import org.jetbrains.kotlin.psi.KtExpression
 import org.sonar.check.Rule
@@ -34,6 +33,7 @@ import org.sonarsource.kotlin.api.reporting.SecondaryLocation
 import org.sonarsource.kotlin.api.checks.predictRuntimeValueExpression
 import org.sonarsource.kotlin.api.reporting.KotlinTextRanges.textRange
 import org.sonarsource.kotlin.api.frontend.KotlinFileContext
+import org.sonarsource.kotlin.api.visiting.resolvedFunctionCall
 import org.sonarsource.kotlin.api.visiting.withKaSession
 
 private val CIPHER_INIT_MATCHER = FunMatcher(qualifier = "javax.crypto.Cipher", name = "init") {
@@ -95,7 +95,7 @@ private fun KtExpression.getByteExpression(secondaries: MutableList<PsiElement>)
 
 private fun KtExpression.getGCMExpression(secondaries: MutableList<PsiElement>) = withKaSession {
     predictRuntimeValueExpression()
-        .resolveToCall()?.successfulFunctionCallOrNull()?.let {
+        .resolvedFunctionCall()?.let {
             if (GCM_PARAMETER_SPEC_MATCHER.matches(it)) {
                 val argumentExpression = it.argumentMapping.keys.elementAt(1)
                 secondaries.add(argumentExpression)
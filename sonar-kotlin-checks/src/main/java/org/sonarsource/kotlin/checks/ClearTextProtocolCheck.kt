@@ -20,7 +20,6 @@ import org.jetbrains.kotlin.analysis.api.KaIdeApi
 import org.jetbrains.kotlin.analysis.api.resolution.KaCallableMemberCall
 import org.jetbrains.kotlin.analysis.api.resolution.KaFunctionCall
 import org.jetbrains.kotlin.analysis.api.resolution.successfulCallOrNull
-import org.jetbrains.kotlin.analysis.api.resolution.successfulFunctionCallOrNull
 import org.jetbrains.kotlin.idea.references.mainReference
 import org.jetbrains.kotlin.lexer.KtTokens
 import org.jetbrains.kotlin.psi.KtBinaryExpression
@@ -37,6 +36,7 @@ import org.sonarsource.kotlin.api.checks.getFirstArgumentExpression
 import org.sonarsource.kotlin.api.checks.predictRuntimeIntValue
 import org.sonarsource.kotlin.api.frontend.KotlinFileContext
 import org.sonarsource.kotlin.api.visiting.KtTreeVisitor
+import org.sonarsource.kotlin.api.visiting.resolvedFunctionCall
 import org.sonarsource.kotlin.api.visiting.withKaSession
 
 private const val CLEARTEXT_FQN = "okhttp3.ConnectionSpec.Companion.CLEARTEXT"
@@ -81,7 +81,7 @@ class ClearTextProtocolCheck : CallAbstractCheck() {
             analyzeOkHttpCall(kotlinFileContext, callExpression)
         } else if (matchedFun == ANDROID_SET_MIXED_CONTENT_MODE) {
             checkAndroidMixedContentArgument(kotlinFileContext,
-                deparenthesize(callExpression.resolveToCall()?.successfulFunctionCallOrNull()
+                deparenthesize(callExpression.resolvedFunctionCall()
                     ?.getFirstArgumentExpression())
             )
         }
@@ -18,7 +18,6 @@ package org.sonarsource.kotlin.checks
 
 import com.intellij.psi.PsiElement
 import org.jetbrains.kotlin.analysis.api.resolution.KaFunctionCall
-import org.jetbrains.kotlin.analysis.api.resolution.successfulFunctionCallOrNull
 import org.jetbrains.kotlin.analysis.api.symbols.KaSymbol
 import org.jetbrains.kotlin.idea.references.mainReference
 import org.jetbrains.kotlin.psi.KtCallExpression
@@ -36,6 +35,7 @@ import org.sonarsource.kotlin.api.checks.matches
 import org.sonarsource.kotlin.api.reporting.SecondaryLocation
 import org.sonarsource.kotlin.api.reporting.KotlinTextRanges.textRange
 import org.sonarsource.kotlin.api.frontend.KotlinFileContext
+import org.sonarsource.kotlin.api.visiting.resolvedFunctionCall
 import org.sonarsource.kotlin.api.visiting.withKaSession
 
 private const val MESSAGE = """Use "withTimeoutOrNull { }" instead of manual delayed cancellation."""
@@ -83,7 +83,7 @@ class CoroutinesTimeoutApiUnusedCheck : CallAbstractCheck() {
 
     private fun asDelayCallIfMatching(element: PsiElement): KtExpression? = withKaSession {
         if (element is KtCallExpression &&
-            element.resolveToCall()?.successfulFunctionCallOrNull() matches DELAY_MATCHER) {
+            element.resolvedFunctionCall() matches DELAY_MATCHER) {
             element.calleeExpression
         } else null
     }
@@ -94,7 +94,7 @@ class CoroutinesTimeoutApiUnusedCheck : CallAbstractCheck() {
     ): KtExpression? = withKaSession {
         if (element is KtProperty && element.symbol == targetInitializer) {
             val initializer = element.initializer as? KtCallExpression ?: return null
-            if (initializer.resolveToCall()?.successfulFunctionCallOrNull() matches LAUNCH_ASYNC_MATCHER) {
+            if (initializer.resolvedFunctionCall() matches LAUNCH_ASYNC_MATCHER) {
                 return initializer.calleeExpression
             }
         }
@@ -32,8 +32,7 @@ import org.sonarsource.kotlin.api.visiting.withKaSession
 class DeprecatedCodeUsedCheck : AbstractCheck() {
 
     override fun visitKtFile(file: KtFile, context: KotlinFileContext) = withKaSession {
-        context.kaDiagnostics
-            .filter { it.factoryName == FirErrors.DEPRECATION.name }
+        context.kaDiagnostics(FirErrors.DEPRECATION.name)
             .forEach { context.reportIssue(it.psi.elementToReport(), "Deprecated code should not be used.") }
     }
 
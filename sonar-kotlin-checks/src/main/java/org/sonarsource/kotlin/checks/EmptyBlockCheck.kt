@@ -28,6 +28,8 @@ import org.sonarsource.kotlin.api.frontend.KotlinFileContext
 @Rule(key = "S108")
 class EmptyBlockCheck : AbstractCheck() {
 
+    override val isSyntaxOnly = true
+
     private val message = "Either remove or fill this block of code."
 
     override fun visitWhenExpression(expression: KtWhenExpression, kotlinFileContext: KotlinFileContext) {
@@ -54,6 +54,7 @@ import org.sonarsource.kotlin.api.regex.PATTERN_COMPILE_MATCHER
 import org.sonarsource.kotlin.api.regex.REGEX_MATCHER
 import org.sonarsource.kotlin.api.regex.RegexContext
 import org.sonarsource.kotlin.api.regex.TO_REGEX_MATCHER
+import org.sonarsource.kotlin.api.visiting.resolvedFunctionCall
 import org.sonarsource.kotlin.api.visiting.withKaSession
 
 private const val MESSAGE = "Remove MULTILINE mode or change the regex."
@@ -203,18 +204,18 @@ private fun isNonCapturingWithoutChild(tree: RegexTree): Boolean {
 }
 
 private fun getStringInMatcherFind(ref: KtElement): KtExpression? = withKaSession {
-    val resolvedCall = (ref.parent as? KtExpression)?.resolveToCall()?.successfulFunctionCallOrNull() ?: return null
+    val resolvedCall = (ref.parent as? KtExpression)?.resolvedFunctionCall() ?: return null
     if (!(resolvedCall matches PATTERN_MATCHER)) return null
 
     return when (val preParent = ref.parent.parent) {
-        is KtExpression if (preParent.resolveToCall()?.successfulFunctionCallOrNull() matches PATTERN_FIND) -> extractArgument(resolvedCall)
+        is KtExpression if (preParent.resolvedFunctionCall() matches PATTERN_FIND) -> extractArgument(resolvedCall)
         is KtProperty if (preParent.findUsages().any { it.getParentCall() matches PATTERN_FIND }) -> extractArgument(resolvedCall)
         else -> null
     }
 }
 
 private fun getStringInRegexFind(ref: KtElement): KtExpression? = withKaSession {
-    val resolvedCall = (ref.parent as? KtExpression)?.resolveToCall()?.successfulFunctionCallOrNull() ?: return null
+    val resolvedCall = (ref.parent as? KtExpression)?.resolvedFunctionCall() ?: return null
     return if (resolvedCall matches REGEX_FIND) extractArgument(resolvedCall) else null
 }
 
@@ -25,6 +25,8 @@ import org.sonarsource.kotlin.api.frontend.KotlinFileContext
 
 @Rule(key = "S1451")
 class FileHeaderCheck : AbstractCheck() {
+
+    override val isSyntaxOnly = true
     @RuleProperty(
         key = "headerFormat",
         description = "Expected copyright and license header",
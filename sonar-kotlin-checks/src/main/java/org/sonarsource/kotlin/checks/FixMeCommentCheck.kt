@@ -30,6 +30,8 @@ val fixMePattern = Regex("(?i)(^|[[^\\p{L}]&&\\D])(fixme)($|[[^\\p{L}]&&\\D])")
 @Rule(key = "S1134")
 class FixMeCommentCheck : AbstractCheck() {
 
+    override val isSyntaxOnly = true
+
     override fun visitKtFile(file: KtFile, kotlinFileContext: KotlinFileContext) {
         file.accept(object : KtTreeVisitorVoid() {
             /** Note that [visitComment] not called for [org.jetbrains.kotlin.kdoc.psi.api.KDoc] */
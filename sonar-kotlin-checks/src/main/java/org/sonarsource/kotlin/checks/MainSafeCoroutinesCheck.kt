@@ -17,7 +17,6 @@
 package org.sonarsource.kotlin.checks
 
 import org.jetbrains.kotlin.analysis.api.resolution.KaFunctionCall
-import org.jetbrains.kotlin.analysis.api.resolution.successfulFunctionCallOrNull
 import org.jetbrains.kotlin.analysis.api.resolution.successfulVariableAccessCall
 import org.jetbrains.kotlin.analysis.api.resolution.symbol
 import org.jetbrains.kotlin.psi.KtCallExpression
@@ -38,6 +37,7 @@ import org.sonarsource.kotlin.api.checks.predictRuntimeValueExpression
 import org.sonarsource.kotlin.api.checks.suspendModifier
 import org.sonarsource.kotlin.api.checks.throwsExceptions
 import org.sonarsource.kotlin.api.frontend.KotlinFileContext
+import org.sonarsource.kotlin.api.visiting.resolvedFunctionCall
 import org.sonarsource.kotlin.api.visiting.withKaSession
 
 val THREAD_SLEEP_MATCHER = FunMatcher(qualifier = "java.lang.Thread", name = "sleep")
@@ -80,7 +80,7 @@ class MainSafeCoroutinesCheck : AbstractCheck() {
 
     private fun KtElement.reportBlockingFunctionCalls(context: KotlinFileContext) = withKaSession {
         forEachDescendantOfType<KtCallExpression> { call ->
-            val resolvedCall = call.resolveToCall()?.successfulFunctionCallOrNull()
+            val resolvedCall = call.resolvedFunctionCall()
             if (resolvedCall matches THREAD_SLEEP_MATCHER) {
                 context.reportIssue(call.calleeExpression!!, """Replace this "Thread.sleep()" call with "delay()".""")
             } else {
@@ -99,12 +99,12 @@ class MainSafeCoroutinesCheck : AbstractCheck() {
 
 private fun KtCallExpression.isInsideNonSafeDispatcher(): Boolean = withKaSession {
     var parentCallExpr: KtElement? = getParentCallExpr() ?: return true
-    var resolvedCall = parentCallExpr?.resolveToCall()?.successfulFunctionCallOrNull() ?: return false
+    var resolvedCall = parentCallExpr?.resolvedFunctionCall() ?: return false
 
     while (!FUNS_ACCEPTING_DISPATCHERS.any { resolvedCall matches it }) {
         parentCallExpr = parentCallExpr?.getParentCallExpr()
         if (parentCallExpr == null) return true
-        val newResolvedCall = parentCallExpr.resolveToCall()?.successfulFunctionCallOrNull()
+        val newResolvedCall = parentCallExpr.resolvedFunctionCall()
         if (newResolvedCall === resolvedCall || newResolvedCall == null) return false
         resolvedCall = newResolvedCall
     }
@@ -18,7 +18,6 @@ package org.sonarsource.kotlin.checks
 
 import com.intellij.psi.PsiElement
 import org.jetbrains.kotlin.analysis.api.resolution.KaFunctionCall
-import org.jetbrains.kotlin.analysis.api.resolution.successfulFunctionCallOrNull
 import org.jetbrains.kotlin.analysis.api.resolution.symbol
 import org.jetbrains.kotlin.analysis.api.symbols.KaConstructorSymbol
 import org.jetbrains.kotlin.analysis.api.symbols.name
@@ -39,6 +38,7 @@ import org.sonarsource.kotlin.api.checks.predictRuntimeValueExpression
 import org.sonarsource.kotlin.api.frontend.KotlinFileContext
 import org.sonarsource.kotlin.api.reporting.KotlinTextRanges.textRange
 import org.sonarsource.kotlin.api.reporting.SecondaryLocation
+import org.sonarsource.kotlin.api.visiting.resolvedFunctionCall
 import org.sonarsource.kotlin.api.visiting.withKaSession
 
 private const val SQLITE = "net.sqlcipher.database.SQLiteDatabase"
@@ -103,7 +103,7 @@ private fun KtElement.isHardCoded(secondaries: MutableList<PsiElement>): Boolean
     }
 
 fun KtCallExpression.returnsHardcoded(secondaries: MutableList<PsiElement>): Boolean = withKaSession {
-    val resultingDescriptor = this@returnsHardcoded.resolveToCall()?.successfulFunctionCallOrNull() ?: return false
+    val resultingDescriptor = this@returnsHardcoded.resolvedFunctionCall() ?: return false
     val declaration = resultingDescriptor.symbol.psi as? KtNamedFunction ?: return false
 
     if (!declaration.hasBody()) return false
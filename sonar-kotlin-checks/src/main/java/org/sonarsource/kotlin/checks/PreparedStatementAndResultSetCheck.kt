@@ -17,7 +17,6 @@
 package org.sonarsource.kotlin.checks
 
 import org.jetbrains.kotlin.analysis.api.resolution.KaFunctionCall
-import org.jetbrains.kotlin.analysis.api.resolution.successfulFunctionCallOrNull
 import org.jetbrains.kotlin.psi.KtCallExpression
 import org.jetbrains.kotlin.psi.KtExpression
 import org.sonar.check.Rule
@@ -31,6 +30,7 @@ import org.sonarsource.kotlin.api.checks.predictRuntimeIntValue
 import org.sonarsource.kotlin.api.checks.predictRuntimeStringValue
 import org.sonarsource.kotlin.api.checks.predictRuntimeValueExpression
 import org.sonarsource.kotlin.api.frontend.KotlinFileContext
+import org.sonarsource.kotlin.api.visiting.resolvedFunctionCall
 import org.sonarsource.kotlin.api.visiting.withKaSession
 
 private val PREPARE_STATEMENT = FunMatcher(qualifier = "java.sql.Connection", name = "prepareStatement")
@@ -84,7 +84,7 @@ class PreparedStatementAndResultSetCheck : CallAbstractCheck() {
 
 private fun getNumberOfParameters(receiver: KtExpression) = withKaSession {
     receiver.predictRuntimeValueExpression()
-        .resolveToCall()?.successfulFunctionCallOrNull()
+        .resolvedFunctionCall()
         ?.let {
             if (PREPARE_STATEMENT.matches(it)) {
                 it.argumentMapping.keys.elementAt(0)
@@ -25,7 +25,7 @@ import org.sonarsource.kotlin.api.frontend.KotlinFileContext
 @Rule(key = "S6530")
 class ReasonableTypeCastsCheck : AbstractCheck() {
     override fun visitKtFile(file: KtFile, context: KotlinFileContext) {
-        context.kaDiagnostics
+        context.kaDiagnostics(FirErrors.UNCHECKED_CAST.name, FirErrors.CAST_NEVER_SUCCEEDS.name)
             .mapNotNull { diagnostic ->
                 when (diagnostic.factoryName) {
                     FirErrors.UNCHECKED_CAST.name -> "Remove this unchecked cast."
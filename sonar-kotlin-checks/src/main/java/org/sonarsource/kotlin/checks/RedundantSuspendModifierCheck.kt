@@ -16,7 +16,6 @@
  */
 package org.sonarsource.kotlin.checks
 
-import org.jetbrains.kotlin.analysis.api.resolution.successfulFunctionCallOrNull
 import org.jetbrains.kotlin.analysis.api.resolution.symbol
 import org.jetbrains.kotlin.analysis.api.symbols.KaNamedFunctionSymbol
 import org.jetbrains.kotlin.psi.KtNameReferenceExpression
@@ -27,6 +26,7 @@ import org.sonarsource.kotlin.api.checks.AbstractCheck
 import org.sonarsource.kotlin.api.checks.overrides
 import org.sonarsource.kotlin.api.checks.suspendModifier
 import org.sonarsource.kotlin.api.frontend.KotlinFileContext
+import org.sonarsource.kotlin.api.visiting.resolvedFunctionCall
 import org.sonarsource.kotlin.api.visiting.withKaSession
 
 @Rule(key = "S6318")
@@ -37,7 +37,7 @@ class RedundantSuspendModifierCheck : AbstractCheck() {
         with(function) {
             if (hasBody() && !overrides()) {
                 findDescendantOfType<KtNameReferenceExpression> {
-                    (it.resolveToCall()?.successfulFunctionCallOrNull()
+                    (it.resolvedFunctionCall()
                         ?.symbol as? KaNamedFunctionSymbol)?.isSuspend
                         ?: true
                 } ?: context.reportIssue(suspendModifier, """Remove this unnecessary "suspend" modifier.""")
@@ -27,7 +27,7 @@ import org.sonarsource.kotlin.api.frontend.KotlinFileContext
 @Rule(key = "S6531")
 class RedundantTypeCastsCheck : AbstractCheck() {
     override fun visitKtFile(file: KtFile, context: KotlinFileContext) {
-        context.kaDiagnostics
+        context.kaDiagnostics(FirErrors.USELESS_CAST.name, FirErrors.USELESS_IS_CHECK.name)
             .mapNotNull { diagnostic ->
                 when (diagnostic.factoryName) {
                     FirErrors.USELESS_CAST.name -> Message("Remove this useless cast.")
@@ -17,7 +17,6 @@
 package org.sonarsource.kotlin.checks
 
 import org.jetbrains.kotlin.analysis.api.resolution.KaFunctionCall
-import org.jetbrains.kotlin.analysis.api.resolution.successfulFunctionCallOrNull
 import org.jetbrains.kotlin.psi.KtCallExpression
 import org.sonar.check.Rule
 import org.sonarsource.kotlin.api.checks.AbstractCheck
@@ -32,6 +31,7 @@ import org.sonarsource.kotlin.api.checks.predictReceiverExpression
 import org.sonarsource.kotlin.api.checks.predictRuntimeIntValue
 import org.sonarsource.kotlin.api.checks.predictRuntimeStringValue
 import org.sonarsource.kotlin.api.frontend.KotlinFileContext
+import org.sonarsource.kotlin.api.visiting.resolvedFunctionCall
 import org.sonarsource.kotlin.api.visiting.withKaSession
 
 private val ASYMMETRIC_INITIALIZE_MATCHER = FunMatcher {
@@ -75,7 +75,7 @@ private const val EC_MIN_KEY_SIZE = 224
 class RobustCryptographicKeysCheck : AbstractCheck() {
 
     override fun visitCallExpression(callExpr: KtCallExpression, context: KotlinFileContext) = withKaSession {
-        callExpr.resolveToCall()?.successfulFunctionCallOrNull()?.let { resolvedCall ->
+        callExpr.resolvedFunctionCall()?.let { resolvedCall ->
             when {
                 resolvedCall matches ASYMMETRIC_INITIALIZE_MATCHER -> handleKeyGeneratorAndKeyPairGenerator(
                     callExpr,
@@ -118,7 +118,7 @@ class RobustCryptographicKeysCheck : AbstractCheck() {
         val keySize = keySizeExpression.predictRuntimeIntValue()
         if (keySize != null && keySize < minKeySize) {
 
-            val getInstanceCall = callExpr.predictReceiverExpression()?.resolveToCall()?.successfulFunctionCallOrNull() ?: return
+            val getInstanceCall = callExpr.predictReceiverExpression()?.resolvedFunctionCall() ?: return
             if (getInstanceMatcher.matches(getInstanceCall)) {
 
                 val algoExpr = getInstanceCall.getFirstArgumentExpression()
@@ -17,7 +17,6 @@
 package org.sonarsource.kotlin.checks
 
 import org.jetbrains.kotlin.analysis.api.resolution.KaFunctionCall
-import org.jetbrains.kotlin.analysis.api.resolution.successfulFunctionCallOrNull
 import org.jetbrains.kotlin.psi.KtCallExpression
 import org.jetbrains.kotlin.psi.KtDotQualifiedExpression
 import org.jetbrains.kotlin.psi.KtQualifiedExpression
@@ -27,6 +26,7 @@ import org.sonarsource.kotlin.api.checks.CallAbstractCheck
 import org.sonarsource.kotlin.api.checks.FunMatcher
 import org.sonarsource.kotlin.api.frontend.KotlinFileContext
 import org.sonarsource.kotlin.api.reporting.message
+import org.sonarsource.kotlin.api.visiting.resolvedFunctionCall
 import org.sonarsource.kotlin.api.visiting.withKaSession
 
 private const val KOTLIN_COLLECTIONS_QUALIFIER = "kotlin.collections"
@@ -46,7 +46,7 @@ class SimplifyFilteringBeforeTerminalOperationCheck : CallAbstractCheck() {
             .let { it as? KtDotQualifiedExpression }
             ?.receiverExpression
             ?.deparenthesize()
-        receiverExpression?.resolveToCall()?.successfulFunctionCallOrNull()
+        receiverExpression?.resolvedFunctionCall()
             ?.takeIf { callBeforeTerminalOp -> FILTER_MATCHER.matches(callBeforeTerminalOp) }
             ?.let { filterCallBeforeTerminalOp ->
                 val callElement = if (receiverExpression is KtQualifiedExpression) receiverExpression.selectorExpression!! else receiverExpression
@@ -16,7 +16,6 @@
  */
 package org.sonarsource.kotlin.checks
 
-import org.jetbrains.kotlin.analysis.api.resolution.successfulFunctionCallOrNull
 import org.jetbrains.kotlin.analysis.api.resolution.symbol
 import org.jetbrains.kotlin.analysis.api.symbols.KaConstructorSymbol
 import org.jetbrains.kotlin.psi.KtBlockExpression
@@ -38,6 +37,7 @@ import org.sonarsource.kotlin.api.checks.ConstructorMatcher
 import org.sonarsource.kotlin.api.checks.FunMatcher
 import org.sonarsource.kotlin.api.frontend.KotlinFileContext
 import org.sonarsource.kotlin.api.visiting.KtTreeVisitor
+import org.sonarsource.kotlin.api.visiting.resolvedFunctionCall
 import org.sonarsource.kotlin.api.visiting.withKaSession
 
 private val lazyInitializationMatcher = FunMatcher(
@@ -97,7 +97,7 @@ private class SingleConstructorCallExtractor(
     override fun visitCallExpression(expression: KtCallExpression): Unit = withKaSession {
         if (singletonClassCandidates.isEmpty() || !constructorMatcher.matches(expression)) return
 
-        val kaConstructorSymbol = expression.resolveToCall()?.successfulFunctionCallOrNull()
+        val kaConstructorSymbol = expression.resolvedFunctionCall()
             ?.symbol as? KaConstructorSymbol ?: return
         val fqName = kaConstructorSymbol.containingClassId?.asFqNameString() ?: return
         singleConstructorCallByClass.put(fqName, expression)?.let {
@@ -24,6 +24,8 @@ import org.sonarsource.kotlin.api.frontend.KotlinFileContext
 @Rule(key = "S105")
 class TabsCheck : AbstractCheck() {
 
+    override val isSyntaxOnly = true
+
     override fun visitKtFile(file: KtFile, kotlinFileContext: KotlinFileContext) {
         if (file.text.contains('\t')) {
             kotlinFileContext.reportIssue(
@@ -30,6 +30,8 @@ val todoPattern = Regex("(?i)(^|[[^\\p{L}]&&\\D])(todo)($|[[^\\p{L}]&&\\D])")
 @Rule(key = "S1135")
 class TodoCommentCheck : AbstractCheck() {
 
+    override val isSyntaxOnly = true
+
     override fun visitKtFile(file: KtFile, kotlinFileContext: KotlinFileContext) {
         file.accept(object : KtTreeVisitorVoid() {
             /** Note that [visitComment] not called for [org.jetbrains.kotlin.kdoc.psi.api.KDoc] */
@@ -26,6 +26,8 @@ import org.sonarsource.kotlin.api.frontend.KotlinFileContext
 @Rule(key = "S103")
 class TooLongLineCheck : AbstractCheck() {
 
+    override val isSyntaxOnly = true
+
     companion object {
         const val DEFAULT_MAXIMUM_LINE_LENGTH = 200
     }
@@ -27,10 +27,7 @@ import org.sonarsource.kotlin.api.frontend.KotlinFileContext
 class UnusedLocalVariableCheck : AbstractCheck() {
 
     override fun visitKtFile(file: KtFile, context: KotlinFileContext) {
-        context.kaDiagnostics
-            .filter {
-                it.factoryName == FirErrors.UNUSED_VARIABLE.name
-            }
+        context.kaDiagnostics(FirErrors.UNUSED_VARIABLE.name)
             .map { it.psi as KtNamedDeclaration }
             .forEach {
                 context.reportIssue(it.nameIdentifier!!, """Remove this unused "${it.name}" local variable.""")
@@ -29,7 +29,11 @@ import org.sonarsource.kotlin.api.visiting.withKaSession
 class UselessAssignmentsCheck : AbstractCheck() {
 
     override fun visitKtFile(file: KtFile, context: KotlinFileContext) {
-        context.kaDiagnostics
+        context.kaDiagnostics(
+            FirErrors.VARIABLE_INITIALIZER_IS_REDUNDANT.name,
+            FirErrors.VARIABLE_NEVER_READ.name,
+            FirErrors.ASSIGNED_VALUE_IS_NEVER_READ.name,
+        )
             .mapNotNull { diagnostic ->
                 when (diagnostic.factoryName) {
                     FirErrors.VARIABLE_INITIALIZER_IS_REDUNDANT.name ->
@@ -17,7 +17,6 @@
 package org.sonarsource.kotlin.checks
 
 import com.intellij.psi.PsiElement
-import org.jetbrains.kotlin.analysis.api.resolution.successfulFunctionCallOrNull
 import org.jetbrains.kotlin.analysis.api.resolution.symbol
 import org.jetbrains.kotlin.analysis.api.symbols.name
 import org.jetbrains.kotlin.analysis.api.types.KaErrorType
@@ -38,6 +37,7 @@ import org.sonarsource.kotlin.api.checks.matches
 import org.sonarsource.kotlin.api.checks.predictRuntimeValueExpression
 import org.sonarsource.kotlin.api.frontend.KotlinFileContext
 import org.sonarsource.kotlin.api.reporting.Message
+import org.sonarsource.kotlin.api.visiting.resolvedFunctionCall
 import org.sonarsource.kotlin.api.visiting.withKaSession
 
 private val NON_NULL_CHECK_FUNS = FunMatcher("kotlin") {
@@ -101,7 +101,7 @@ class UselessNullCheckCheck : AbstractCheck() {
     }
 
     override fun visitCallExpression(callExpression: KtCallExpression, kfc: KotlinFileContext) {
-        val resolvedCall = withKaSession { callExpression.resolveToCall()?.successfulFunctionCallOrNull() } ?: return
+        val resolvedCall = withKaSession { callExpression.resolvedFunctionCall() } ?: return
         if (resolvedCall matches NON_NULL_CHECK_FUNS) {
             // requireNotNull and checkNotNull have no implementations without parameters. The first parameter is always the value to check.
             val argExpression = resolvedCall.argumentMapping.keys.first()
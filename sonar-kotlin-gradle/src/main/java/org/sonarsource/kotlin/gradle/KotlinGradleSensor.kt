@@ -29,6 +29,7 @@ import org.sonarsource.kotlin.api.common.KOTLIN_REPOSITORY_KEY
 import org.sonarsource.kotlin.api.common.KotlinLanguage
 import org.sonarsource.kotlin.api.sensors.AbstractKotlinSensor
 import org.sonarsource.kotlin.api.sensors.AbstractKotlinSensorExecuteContext
+import org.sonarsource.kotlin.api.sensors.SourceContentStore
 import org.sonarsource.kotlin.api.sensors.postAnalysisCrashWarning
 import org.sonarsource.kotlin.api.visiting.KtChecksVisitor
 import org.sonarsource.kotlin.metrics.TelemetryData
@@ -60,25 +61,26 @@ class KotlinGradleSensor(
         sensorContext: SensorContext,
         filesToAnalyze: Iterable<InputFile>,
         progressReport: ProgressReport,
-        filenames: List<String>
+        filenames: List<String>,
+        sourceContents: SourceContentStore,
     ) = object : AbstractKotlinSensorExecuteContext(
-        sensorContext, filesToAnalyze, progressReport, listOf(KtChecksVisitor(checks)), filenames, LOG
+        sensorContext, filesToAnalyze, progressReport, listOf(KtChecksVisitor(checks)), filenames, LOG, sourceContents
     ) {
         override val classpath: List<String> = listOf()
 
         override fun onFileRead() {
-            telemetryData.filesProcessed++
-            telemetryData.scriptsProcessed++
+            telemetryData.incrementFilesProcessed()
+            telemetryData.incrementScriptsProcessed()
         }
 
         override fun onParseFailure() {
-            telemetryData.parseFailures++
-            telemetryData.scriptParseFailures++
+            telemetryData.incrementParseFailures()
+            telemetryData.incrementScriptParseFailures()
         }
 
         override fun onReadFailure() {
-            telemetryData.readFailures++
-            telemetryData.scriptReadFailures++
+            telemetryData.incrementReadFailures()
+            telemetryData.incrementScriptReadFailures()
         }
 
         // A Set, so a file crashing in several visitors is counted and listed once
@@ -86,8 +88,8 @@ class KotlinGradleSensor(
 
         override fun onAnalysisCrash(inputFile: InputFile) {
             if (crashedFiles.add(inputFile.toString())) {
-                telemetryData.analysisCrashes++
-                telemetryData.scriptAnalysisCrashes++
+                telemetryData.incrementAnalysisCrashes()
+                telemetryData.incrementScriptAnalysisCrashes()
             }
         }
 
@@ -96,7 +98,7 @@ class KotlinGradleSensor(
         }
     }
 
-    override fun getFilesToAnalyse(sensorContext: SensorContext): Iterable<InputFile> {
+    override fun getFilesToAnalyse(sensorContext: SensorContext, sourceContents: SourceContentStore): Iterable<InputFile> {
         val fileSystem: FileSystem = sensorContext.fileSystem()
 
         val mainFilePredicate = fileSystem.predicates().and(
@@ -59,3 +59,14 @@ class CyclomaticComplexityVisitor : KtTreeVisitorVoid() {
         super.visitBinaryExpression(expression)
     }
 }
+
+/**
+ * Whether the element adds one to the cyclomatic complexity, like the ones collected by [CyclomaticComplexityVisitor].
+ */
+internal fun PsiElement.increasesComplexity() =
+    when (this) {
+        is KtNamedFunction -> hasBody() && name != null
+        is KtIfExpression, is KtLoopExpression, is KtWhenEntry -> true
+        is KtBinaryExpression -> operationToken == KtTokens.ANDAND || operationToken == KtTokens.OROR
+        else -> false
+    }
@@ -0,0 +1,72 @@
+/*
+ * SonarSource Kotlin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.kotlin.metrics
+
+import org.sonar.api.batch.fs.InputFile
+import org.sonar.api.batch.measure.Metric
+import org.sonar.api.batch.sensor.SensorContext
+import org.sonar.api.issue.NoSonarFilter
+import org.sonar.api.measures.CoreMetrics
+import org.sonar.api.measures.FileLinesContextFactory
+
+/**
+ * The measures computed by [MetricVisitor] on a file. They can be saved again for an unchanged file, without parsing it.
+ */
+class FileMeasures(
+    val linesOfCode: Set<Int>,
+    val commentLines: Int,
+    val nosonarLines: Set<Int>,
+    val executableLines: Set<Int>,
+    val functions: Int,
+    val classes: Int,
+    val complexity: Int,
+    val statements: Int,
+    val cognitiveComplexity: Int,
+    val hasAndroidImports: Boolean,
+) {
+
+    fun save(
+        sensorContext: SensorContext,
+        inputFile: InputFile,
+        fileLinesContextFactory: FileLinesContextFactory,
+        noSonarFilter: NoSonarFilter,
+        telemetryData: TelemetryData,
+    ) {
+        sensorContext.saveMetric(inputFile, CoreMetrics.NCLOC, linesOfCode.size)
+        sensorContext.saveMetric(inputFile, CoreMetrics.COMMENT_LINES, commentLines)
+        sensorContext.saveMetric(inputFile, CoreMetrics.FUNCTIONS, functions)
+        sensorContext.saveMetric(inputFile, CoreMetrics.CLASSES, classes)
+        sensorContext.saveMetric(inputFile, CoreMetrics.COMPLEXITY, complexity)
+        sensorContext.saveMetric(inputFile, CoreMetrics.STATEMENTS, statements)
+        sensorContext.saveMetric(inputFile, CoreMetrics.COGNITIVE_COMPLEXITY, cognitiveComplexity)
+
+        val fileLinesContext = fileLinesContextFactory.createFor(inputFile)
+        linesOfCode.forEach { line -> fileLinesContext.setIntValue(CoreMetrics.NCLOC_DATA_KEY, line, 1) }
+        executableLines.forEach { line -> fileLinesContext.setIntValue(CoreMetrics.EXECUTABLE_LINES_DATA_KEY, line, 1) }
+        fileLinesContext.save()
+        noSonarFilter.noSonarInFile(inputFile, nosonarLines)
+
+        if (hasAndroidImports) telemetryData.hasAndroidImports = true
+    }
+}
+
+private fun SensorContext.saveMetric(inputFile: InputFile, metric: Metric<Int>, value: Int) =
+    newMeasure<Int>()
+        .on(inputFile)
+        .forMetric(metric)
+        .withValue(value)
+        .save()
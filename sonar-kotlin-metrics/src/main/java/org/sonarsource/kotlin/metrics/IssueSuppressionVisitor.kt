@@ -24,10 +24,10 @@ import org.jetbrains.kotlin.psi.ValueArgument
 import org.sonar.api.batch.fs.TextRange
 import org.sonarsource.kotlin.api.checks.annotatedElement
 import org.sonarsource.kotlin.api.checks.asString
+import org.sonarsource.kotlin.api.frontend.FlatTree
 import org.sonarsource.kotlin.api.frontend.KotlinFileContext
 import org.sonarsource.kotlin.api.reporting.KotlinTextRanges.textRange
-import org.sonarsource.kotlin.api.visiting.KotlinFileVisitor
-import org.sonarsource.kotlin.api.visiting.KtTreeVisitor
+import org.sonarsource.kotlin.api.visiting.FlatTreeVisitor
 
 private val SUPPRESSION_ANNOTATION_NAMES = listOf("Suppress", "SuppressWarnings")
 
@@ -52,20 +52,36 @@ private val COMPILER_KEY_TO_SONAR_KEYS = mapOf(
     "USELESS_NULLABLE_CHECK" to sequenceOf("kotlin:S6619"),
 )
 
-class IssueSuppressionVisitor : KotlinFileVisitor() {
-    override fun visit(kotlinFileContext: KotlinFileContext) {
-        with(IssueSuppressionTreeVisitor(kotlinFileContext, mutableMapOf())) {
-            visitTree(kotlinFileContext.ktFile)
-            kotlinFileContext.inputFileContext.filteredRules = acc
+class IssueSuppressionVisitor : FlatTreeVisitor() {
+
+    override val isSyntaxOnly = true
+
+    override val nodeClasses = listOf(KtAnnotationEntry::class.java)
+
+    private lateinit var collector: SuppressedRulesCollector
+
+    override fun beginFile(kotlinFileContext: KotlinFileContext) {
+        collector = SuppressedRulesCollector(kotlinFileContext, mutableMapOf())
+    }
+
+    override fun visitNode(tree: FlatTree, index: Int, kotlinFileContext: KotlinFileContext): Int {
+        val node = tree.node(index)
+        if (node is KtAnnotationEntry && tree.isPsiChild(index)) {
+            collector.visitAnnotationEntry(node)
         }
+        return index + 1
+    }
+
+    override fun endFile(kotlinFileContext: KotlinFileContext) {
+        kotlinFileContext.inputFileContext.filteredRules = collector.acc
     }
 }
 
-private class IssueSuppressionTreeVisitor(
+private class SuppressedRulesCollector(
     val kotlinFileContext: KotlinFileContext,
     val acc: MutableMap<String, Set<TextRange>>,
-) : KtTreeVisitor() {
-    override fun visitAnnotationEntry(annotationEntry: KtAnnotationEntry) =
+) {
+    fun visitAnnotationEntry(annotationEntry: KtAnnotationEntry) =
         detectSuppressedRules(annotationEntry.annotatedElement())
 
     private fun detectSuppressedRules(node: KtAnnotated) {
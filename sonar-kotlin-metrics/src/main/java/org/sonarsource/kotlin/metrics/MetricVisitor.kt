@@ -19,7 +19,9 @@ package org.sonarsource.kotlin.metrics
 import com.intellij.openapi.editor.Document
 import com.intellij.openapi.util.TextRange
 import com.intellij.psi.PsiComment
+import com.intellij.psi.PsiElement
 import com.intellij.psi.PsiWhiteSpace
+import com.intellij.psi.impl.source.tree.LeafPsiElement
 import org.jetbrains.kotlin.kdoc.psi.api.KDoc
 import org.jetbrains.kotlin.name.Name
 import org.jetbrains.kotlin.psi.KtBlockExpression
@@ -30,17 +32,13 @@ import org.jetbrains.kotlin.psi.KtFile
 import org.jetbrains.kotlin.psi.KtImportDirective
 import org.jetbrains.kotlin.psi.KtNamedFunction
 import org.jetbrains.kotlin.psi.KtPackageDirective
-import org.jetbrains.kotlin.psi.KtTreeVisitorVoid
-import org.jetbrains.kotlin.psi.psiUtil.collectDescendantsOfType
-import org.sonar.api.batch.measure.Metric
+import org.jetbrains.kotlin.psi.KtProperty
 import org.sonar.api.issue.NoSonarFilter
-import org.sonar.api.measures.CoreMetrics
 import org.sonar.api.measures.FileLinesContextFactory
-import org.sonarsource.kotlin.api.checks.InputFileContext
 import org.sonarsource.kotlin.api.checks.getContent
-import org.sonarsource.kotlin.api.checks.linesOfCode
+import org.sonarsource.kotlin.api.frontend.FlatTree
 import org.sonarsource.kotlin.api.frontend.KotlinFileContext
-import org.sonarsource.kotlin.api.visiting.KotlinFileVisitor
+import org.sonarsource.kotlin.api.visiting.FlatTreeVisitor
 
 const val NOSONAR_PREFIX = "NOSONAR"
 
@@ -48,66 +46,95 @@ class MetricVisitor(
     private val fileLinesContextFactory: FileLinesContextFactory,
     private val noSonarFilter: NoSonarFilter,
     private val telemetryData: TelemetryData, // Some metrics are stored in telemetry
-) : KotlinFileVisitor() {
-    private lateinit var ktMetricVisitor: KtMetricVisitor
-
-    override fun visit(kotlinFileContext: KotlinFileContext) {
-        ktMetricVisitor = KtMetricVisitor()
-        val (ctx, file) = kotlinFileContext
-        file.accept(ktMetricVisitor)
-
-        saveMetric(ctx, CoreMetrics.NCLOC, ktMetricVisitor.linesOfCode.size)
-        saveMetric(ctx, CoreMetrics.COMMENT_LINES, ktMetricVisitor.commentLines.size)
-        saveMetric(ctx, CoreMetrics.FUNCTIONS, ktMetricVisitor.numberOfFunctions)
-        saveMetric(ctx, CoreMetrics.CLASSES, ktMetricVisitor.numberOfClasses)
-        saveMetric(ctx, CoreMetrics.COMPLEXITY, ktMetricVisitor.complexity)
-        saveMetric(ctx, CoreMetrics.STATEMENTS, ktMetricVisitor.statements)
-        saveMetric(ctx, CoreMetrics.COGNITIVE_COMPLEXITY, ktMetricVisitor.cognitiveComplexity)
-
-        val fileLinesContext = fileLinesContextFactory.createFor(ctx.inputFile)
-        ktMetricVisitor.linesOfCode.forEach { line -> fileLinesContext.setIntValue(CoreMetrics.NCLOC_DATA_KEY, line, 1) }
-        ktMetricVisitor.executableLines.forEach { line -> fileLinesContext.setIntValue(CoreMetrics.EXECUTABLE_LINES_DATA_KEY, line, 1) }
-        fileLinesContext.save()
-        noSonarFilter.noSonarInFile(ctx.inputFile, ktMetricVisitor.nosonarLines)
-
-        telemetryData.hasAndroidImports = telemetryData.hasAndroidImports || ktMetricVisitor.hasAndroidImports
+) : FlatTreeVisitor() {
+
+    override val isSyntaxOnly = true
+
+    private lateinit var fileMetrics: FileMetrics
+
+    private var hasCompletedFile = false
+
+    override fun beginFile(kotlinFileContext: KotlinFileContext) {
+        hasCompletedFile = false
+        fileMetrics = FileMetrics(kotlinFileContext.ktFile, kotlinFileContext.flatTree)
+    }
+
+    override fun visitNode(tree: FlatTree, index: Int, kotlinFileContext: KotlinFileContext) =
+        fileMetrics.visitNode(tree, index)
+
+    override fun endFile(kotlinFileContext: KotlinFileContext) {
+        val ctx = kotlinFileContext.inputFileContext
+        fileMeasures().save(ctx.sensorContext, ctx.inputFile, fileLinesContextFactory, noSonarFilter, telemetryData)
+        hasCompletedFile = true
     }
 
-    fun commentLines() = ktMetricVisitor.commentLines.toSet()
+    /**
+     * Whether the measures of the last visited file were computed and saved without failure.
+     */
+    fun hasCompletedFile() = hasCompletedFile
+
+    /**
+     * The measures of the file being visited, or of the last visited file once it was visited.
+     */
+    fun fileMeasures() = FileMeasures(
+        linesOfCode = fileMetrics.linesOfCode,
+        commentLines = fileMetrics.commentLines.size,
+        nosonarLines = fileMetrics.nosonarLines,
+        executableLines = fileMetrics.executableLines,
+        functions = fileMetrics.numberOfFunctions,
+        classes = fileMetrics.numberOfClasses,
+        complexity = fileMetrics.complexity,
+        statements = fileMetrics.statements,
+        cognitiveComplexity = fileMetrics.cognitiveComplexity,
+        hasAndroidImports = fileMetrics.hasAndroidImports,
+    )
 
-    fun linesOfCode() = ktMetricVisitor.linesOfCode.toSet()
+    fun commentLines() = fileMetrics.commentLines.toSet()
 
-    fun nosonarLines() = ktMetricVisitor.nosonarLines.toSet()
+    fun linesOfCode() = fileMetrics.linesOfCode.toSet()
 
-    fun numberOfFunctions() = ktMetricVisitor.numberOfFunctions
+    fun nosonarLines() = fileMetrics.nosonarLines.toSet()
 
-    fun numberOfClasses() = ktMetricVisitor.numberOfClasses
+    fun numberOfFunctions() = fileMetrics.numberOfFunctions
 
-    fun cognitiveComplexity() = ktMetricVisitor.cognitiveComplexity
+    fun numberOfClasses() = fileMetrics.numberOfClasses
 
-    fun executableLines() = ktMetricVisitor.executableLines
+    fun cognitiveComplexity() = fileMetrics.cognitiveComplexity
 
-    fun hasAndroidImports() = ktMetricVisitor.hasAndroidImports
+    fun executableLines() = fileMetrics.executableLines
+
+    fun hasAndroidImports() = fileMetrics.hasAndroidImports
 }
 
-private class KtMetricVisitor : KtTreeVisitorVoid() {
+/**
+ * Metrics of a file, computed node by node while its [FlatTree] is walked, see [MetricVisitor.visitNode].
+ */
+private class FileMetrics(file: KtFile, tree: FlatTree) {
     private companion object {
         val ANDROID_PACKAGES = setOf(Name.identifier("android"), Name.identifier("androidx"))
     }
 
+    private val document: Document = file.viewProvider.document!!
+
+    /**
+     * Index of the first top-level node after the file header, as we don't want to count file headers as comment.
+     */
+    private val headerEnd = tree.headerEnd()
+
+    /**
+     * Statements of local properties are not counted, see [StatementsVisitor.visitProperty].
+     */
+    private var statementsSkippedUntil = 0
+
     // User metrics
 
-    var linesOfCode: Set<Int> = mutableSetOf()
-        private set
+    val linesOfCode = mutableSetOf<Int>()
 
-    var commentLines = mutableSetOf<Int>()
-        private set
+    val commentLines = mutableSetOf<Int>()
 
-    var nosonarLines = mutableSetOf<Int>()
-        private set
+    val nosonarLines = mutableSetOf<Int>()
 
-    var executableLines = mutableSetOf<Int>()
-        private set
+    val executableLines = mutableSetOf<Int>()
 
     var numberOfFunctions = 0
         private set
@@ -121,62 +148,49 @@ private class KtMetricVisitor : KtTreeVisitorVoid() {
     var statements = 0
         private set
 
-    var cognitiveComplexity = 0
-        private set
+    // Cognitive complexity nests its increments, so it is still computed on its own
+    val cognitiveComplexity = org.sonarsource.kotlin.checks.CognitiveComplexity(file).value()
 
     // Telemetry metrics
 
     var hasAndroidImports = false
         private set
 
-    override fun visitKtFile(file: KtFile) {
-        linesOfCode = file.linesOfCode()
-
-        val complexityVisitor = CyclomaticComplexityVisitor()
-        file.accept(complexityVisitor)
-        complexity = complexityVisitor.complexityTrees().size
-
-        cognitiveComplexity = org.sonarsource.kotlin.checks.CognitiveComplexity(file).value()
-
-        val statementsVisitor = StatementsVisitor()
-        file.accept(statementsVisitor)
-        statements = statementsVisitor.statements
-
-        // We don't want to count file headers as comment.
-        file.children.dropWhile { it is PsiComment || it is PsiWhiteSpace }.forEach { it.accept(this) }
-
-        // Finding all multiline comments this way, as there is no an adequate visit method available in the visitor
-        file.containingFile.collectDescendantsOfType<KDoc>().forEach { addCommentMetrics(it, commentLines, nosonarLines) }
-    }
-
-    override fun visitComment(comment: PsiComment) {
-        addCommentMetrics(comment, commentLines, nosonarLines)
-    }
-
-    override fun visitNamedFunction(function: KtNamedFunction) {
-        if (function.hasBody() && function.name != null) {
-            numberOfFunctions++
+    fun visitNode(tree: FlatTree, index: Int): Int {
+        val node = tree.node(index)
+        if (node is PsiComment) {
+            // KDoc are counted even in the header, as the other multiline comments
+            if (node is KDoc || index >= headerEnd) addCommentMetrics(node, commentLines, nosonarLines)
+            return tree.subtreeEnd(index)
         }
-        super.visitNamedFunction(function)
-    }
-
-    override fun visitClass(klass: KtClass) {
-        numberOfClasses++
-        super.visitClass(klass)
-    }
-
-    override fun visitBlockExpression(expression: KtBlockExpression) {
-        addExecutableLines(expression.statements, expression.containingKtFile.viewProvider.document!!)
-        super.visitBlockExpression(expression)
+        if (node is LeafPsiElement && node !is PsiWhiteSpace) {
+            linesOfCode.add(document.getLineNumber(tree.startOffset(index)) + 1)
+        }
+        if (node.increasesComplexity()) complexity++
+        if (index >= statementsSkippedUntil) countStatements(tree, index, node)
+        when (node) {
+            is KtNamedFunction -> if (node.hasBody() && node.name != null) numberOfFunctions++
+            is KtClass -> numberOfClasses++
+            is KtBlockExpression -> addExecutableLines(node.statements)
+            is KtImportDirective -> hasAndroidImports = hasAndroidImports ||
+                ANDROID_PACKAGES.any { node.importPath?.fqName?.startsWith(it) ?: false }
+        }
+        return index + 1
     }
 
-    override fun visitImportDirective(importDirective: KtImportDirective) {
-        hasAndroidImports = hasAndroidImports ||
-            ANDROID_PACKAGES.any { importDirective.importPath?.fqName?.startsWith(it) ?: false }
-        super.visitImportDirective(importDirective)
+    private fun countStatements(tree: FlatTree, index: Int, node: PsiElement) {
+        when (node) {
+            is KtBlockExpression -> statements += node.blockStatements()
+            is KtNamedFunction -> statements += node.bodyExpression.statementCount()
+            is KtProperty -> if (node.isLocal) {
+                statementsSkippedUntil = tree.subtreeEnd(index)
+            } else {
+                statements += node.initializer.statementCount()
+            }
+        }
     }
 
-    private fun addExecutableLines(elements: List<KtElement>, document: Document) {
+    private fun addExecutableLines(elements: List<KtElement>) {
         elements.asSequence()
             .filterNot {
                 it is KtPackageDirective
@@ -189,12 +203,13 @@ private class KtMetricVisitor : KtTreeVisitorVoid() {
     }
 }
 
-private fun saveMetric(ctx: InputFileContext, metric: Metric<Int>, value: Int) =
-    ctx.sensorContext.newMeasure<Int>()
-        .on(ctx.inputFile)
-        .forMetric(metric)
-        .withValue(value)
-        .save()
+private fun FlatTree.headerEnd(): Int {
+    var index = 1
+    while (index < size && (node(index) is PsiComment || node(index) is PsiWhiteSpace)) {
+        index = subtreeEnd(index)
+    }
+    return index
+}
 
 private fun addCommentMetrics(comment: PsiComment, commentLines: MutableSet<Int>, nosonarLines: MutableSet<Int>) {
     val document = comment.containingFile.viewProvider.document!!
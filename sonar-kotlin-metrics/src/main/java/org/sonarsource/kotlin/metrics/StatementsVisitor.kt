@@ -39,54 +39,52 @@ class StatementsVisitor : KtTreeVisitorVoid() {
     var statements = 0
 
     override fun visitBlockExpression(expression: KtBlockExpression) {
-        expression.statements
-            .filter { !it.isDeclaration() }
-            .forEach { it.checkStatements() }
+        statements += expression.blockStatements()
         super.visitBlockExpression(expression)
     }
 
     override fun visitNamedFunction(function: KtNamedFunction) {
-        function.bodyExpression?.checkStatements()
+        statements += function.bodyExpression.statementCount()
         super.visitNamedFunction(function)
     }
 
     override fun visitProperty(property: KtProperty) {
         if (property.isLocal) return
-        property.initializer?.checkStatements()
+        statements += property.initializer.statementCount()
         super.visitProperty(property)
     }
+}
 
-    private fun KtExpression.checkStatements() = let {
-        if (it !is KtBlockExpression) {
-            processExpression(it)
-            statements++
-        }
-    }
-
-    private fun processExpression(expression: KtExpression) {
-        when (expression) {
-            is KtIfExpression -> processIfExpression(expression)
-            is KtWhenExpression -> processWhenExpression(expression)
-            is KtLoopExpression -> processLoopExpression(expression)
-        }
-    }
+/**
+ * Number of statements of the block, not counting the ones of the nested blocks.
+ */
+internal fun KtBlockExpression.blockStatements() =
+    statements
+        .filter { !it.isDeclaration() }
+        .sumOf { it.statementCount() }
 
-    private fun processIfExpression(expression: KtIfExpression) {
-        if (expression.then != null && expression.then !is KtBlockExpression) {
-            statements++
-        }
-        if (expression.`else` != null && expression.`else` !is KtBlockExpression) {
-            statements++
+/**
+ * Number of statements of the expression when it stands for a statement, not counting the ones of the nested blocks.
+ */
+internal fun KtExpression?.statementCount(): Int =
+    if (this == null || this is KtBlockExpression) {
+        0
+    } else {
+        1 + when (this) {
+            is KtIfExpression -> ifStatements()
+            is KtWhenExpression -> entries.count { it.expression !is KtBlockExpression }
+            is KtLoopExpression -> if (body !is KtBlockExpression) 1 else 0
+            else -> 0
         }
     }
 
-    private fun processWhenExpression(expression: KtWhenExpression) {
-        expression.entries
-            .filterNot { it.expression is KtBlockExpression }
-            .forEach { statements++ }
+private fun KtIfExpression.ifStatements(): Int {
+    var statements = 0
+    if (then != null && then !is KtBlockExpression) {
+        statements++
     }
-
-    private fun processLoopExpression(loopExpression: KtLoopExpression) {
-        if (loopExpression.body !is KtBlockExpression) statements++
+    if (`else` != null && `else` !is KtBlockExpression) {
+        statements++
     }
-}
\ No newline at end of file
+    return statements
+}
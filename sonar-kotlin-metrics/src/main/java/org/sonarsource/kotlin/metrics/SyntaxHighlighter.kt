@@ -28,30 +28,62 @@ import org.jetbrains.kotlin.lexer.KtKeywordToken
 import org.jetbrains.kotlin.psi.KtAnnotationEntry
 import org.jetbrains.kotlin.psi.KtConstantExpression
 import org.jetbrains.kotlin.psi.KtStringTemplateExpression
-import org.jetbrains.kotlin.psi.psiUtil.allChildren
+import org.sonar.api.batch.fs.InputFile
+import org.sonar.api.batch.fs.TextRange
+import org.sonar.api.batch.sensor.SensorContext
 import org.sonar.api.batch.sensor.highlighting.NewHighlighting
 import org.sonar.api.batch.sensor.highlighting.TypeOfText
+import org.sonarsource.kotlin.api.frontend.FlatTree
 import org.sonarsource.kotlin.api.frontend.KotlinFileContext
 import org.sonarsource.kotlin.api.reporting.KotlinTextRanges.textRange
-import org.sonarsource.kotlin.api.visiting.KotlinFileVisitor
+import org.sonarsource.kotlin.api.visiting.FlatTreeVisitor
 
-class SyntaxHighlighter : KotlinFileVisitor() {
-    override fun visit(kotlinFileContext: KotlinFileContext) {
-        val newHighlighting = kotlinFileContext.inputFileContext.sensorContext.newHighlighting()
+/**
+ * @param keepsHighlightings when `true`, the highlightings of the last visited file are kept in [highlightings]
+ */
+class SyntaxHighlighter(private val keepsHighlightings: Boolean = false) : FlatTreeVisitor() {
+
+    override val isSyntaxOnly = true
+
+    private lateinit var newHighlighting: NewHighlighting
+
+    private var highlightings = mutableListOf<Highlighting>()
+
+    private var hasCompletedFile = false
+
+    override fun beginFile(kotlinFileContext: KotlinFileContext) {
+        hasCompletedFile = false
+        newHighlighting = kotlinFileContext.inputFileContext.sensorContext.newHighlighting()
             .onFile(kotlinFileContext.inputFileContext.inputFile)
-        highlightElementsRec(kotlinFileContext.ktFile, newHighlighting, kotlinFileContext)
-        newHighlighting.save()
+        if (keepsHighlightings) highlightings = mutableListOf()
     }
 
-    private fun highlightElementsRec(node: PsiElement, newHighlighting: NewHighlighting, context: KotlinFileContext) {
-        val typeOfText = determineTypeOfText(node)
-        if (typeOfText != null) {
-            newHighlighting.highlight(context.textRange(node), typeOfText)
-        } else {
-            node.allChildren.forEach { highlightElementsRec(it, newHighlighting, context) }
-        }
+    /**
+     * Highlights the outermost nodes having a [TypeOfText], without looking into them.
+     */
+    override fun visitNode(tree: FlatTree, index: Int, kotlinFileContext: KotlinFileContext): Int {
+        val typeOfText = determineTypeOfText(tree.node(index)) ?: return index + 1
+        val textRange = kotlinFileContext.textRange(tree.startOffset(index), tree.endOffset(index))
+        newHighlighting.highlight(textRange, typeOfText)
+        if (keepsHighlightings) highlightings.add(Highlighting(textRange, typeOfText))
+        return tree.subtreeEnd(index)
     }
 
+    override fun endFile(kotlinFileContext: KotlinFileContext) {
+        newHighlighting.save()
+        hasCompletedFile = true
+    }
+
+    /**
+     * Whether the last visited file was highlighted and its highlighting saved without failure.
+     */
+    fun hasCompletedFile() = hasCompletedFile
+
+    /**
+     * The highlightings of the last visited file, empty unless [keepsHighlightings].
+     */
+    fun highlightings(): List<Highlighting> = highlightings
+
     private fun determineTypeOfText(node: PsiElement) =
         when (node) {
             is PsiAnnotation -> TypeOfText.ANNOTATION
@@ -71,3 +103,14 @@ class SyntaxHighlighter : KotlinFileVisitor() {
         if (node.elementType is KtKeywordToken) TypeOfText.KEYWORD
         else null
 }
+
+data class Highlighting(val textRange: TextRange, val typeOfText: TypeOfText)
+
+/**
+ * Saves again the highlightings of an unchanged file, see [SyntaxHighlighter.highlightings].
+ */
+fun saveHighlightings(sensorContext: SensorContext, inputFile: InputFile, highlightings: List<Highlighting>) {
+    val newHighlighting = sensorContext.newHighlighting().onFile(inputFile)
+    highlightings.forEach { newHighlighting.highlight(it.textRange, it.typeOfText) }
+    newHighlighting.save()
+}
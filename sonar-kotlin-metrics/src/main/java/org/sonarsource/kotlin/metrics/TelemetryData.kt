@@ -16,25 +16,51 @@
  */
 package org.sonarsource.kotlin.metrics
 
+import java.util.concurrent.atomic.AtomicInteger
 import org.sonar.api.scanner.ScannerSide
 import org.sonarsource.api.sonarlint.SonarLintSide
 
+/**
+ * File counters are updated from the worker threads of the parallel analysis, so they are atomic and can only be
+ * incremented. They are still exposed as read-only properties, but they are no longer public `var`s: they cannot be
+ * assigned anymore, e.g. `telemetryData.filesProcessed++` becomes `telemetryData.incrementFilesProcessed()`.
+ */
 @ScannerSide
 @SonarLintSide
 class TelemetryData {
+    @Volatile
     var hasAndroidImports = false
     var surefireClassesImported = 0
     var surefireClassesFailed = 0
     var surefireClassesDuplicated = 0
     var surefireClassesOverlapping = 0
+
     // .kt + .kts counters
-    var filesProcessed = 0
-    var readFailures = 0
-    var parseFailures = 0
-    var analysisCrashes = 0
+    private val filesProcessedCounter = AtomicInteger()
+    private val readFailuresCounter = AtomicInteger()
+    private val parseFailuresCounter = AtomicInteger()
+    private val analysisCrashesCounter = AtomicInteger()
     // .kts only counters
-    var scriptsProcessed = 0
-    var scriptReadFailures = 0
-    var scriptParseFailures = 0
-    var scriptAnalysisCrashes = 0
+    private val scriptsProcessedCounter = AtomicInteger()
+    private val scriptReadFailuresCounter = AtomicInteger()
+    private val scriptParseFailuresCounter = AtomicInteger()
+    private val scriptAnalysisCrashesCounter = AtomicInteger()
+
+    val filesProcessed: Int get() = filesProcessedCounter.get()
+    val readFailures: Int get() = readFailuresCounter.get()
+    val parseFailures: Int get() = parseFailuresCounter.get()
+    val analysisCrashes: Int get() = analysisCrashesCounter.get()
+    val scriptsProcessed: Int get() = scriptsProcessedCounter.get()
+    val scriptReadFailures: Int get() = scriptReadFailuresCounter.get()
+    val scriptParseFailures: Int get() = scriptParseFailuresCounter.get()
+    val scriptAnalysisCrashes: Int get() = scriptAnalysisCrashesCounter.get()
+
+    fun incrementFilesProcessed() = filesProcessedCounter.incrementAndGet()
+    fun incrementReadFailures() = readFailuresCounter.incrementAndGet()
+    fun incrementParseFailures() = parseFailuresCounter.incrementAndGet()
+    fun incrementAnalysisCrashes() = analysisCrashesCounter.incrementAndGet()
+    fun incrementScriptsProcessed() = scriptsProcessedCounter.incrementAndGet()
+    fun incrementScriptReadFailures() = scriptReadFailuresCounter.incrementAndGet()
+    fun incrementScriptParseFailures() = scriptParseFailuresCounter.incrementAndGet()
+    fun incrementScriptAnalysisCrashes() = scriptAnalysisCrashesCounter.incrementAndGet()
 }
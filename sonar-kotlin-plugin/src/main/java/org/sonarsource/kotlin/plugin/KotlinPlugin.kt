@@ -69,6 +69,7 @@ class KotlinPlugin : Plugin, KotlinPluginExtensionsProvider {
             context.addExtension(NoOpAnalysisWarnings::class.java)
         } else {
             context.addExtensions(
+                KotlinProjectAnalysis::class.java,
                 KotlinResourcesLocator::class.java,
                 KotlinSurefireParser::class.java,
                 KotlinSurefireSensor::class.java,
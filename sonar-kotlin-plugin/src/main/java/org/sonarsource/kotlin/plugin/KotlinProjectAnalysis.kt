@@ -0,0 +1,83 @@
+/*
+ * SonarSource Kotlin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.kotlin.plugin
+
+import com.sonarsource.plugins.kotlin.api.KotlinPluginExtensionsProvider
+import org.sonar.api.SonarProduct
+import org.sonar.api.batch.fs.InputFile
+import org.sonar.api.batch.rule.CheckFactory
+import org.sonar.api.batch.sensor.SensorContext
+import org.sonar.api.issue.NoSonarFilter
+import org.sonar.api.measures.FileLinesContextFactory
+import org.sonar.api.notifications.AnalysisWarnings
+import org.sonar.api.scanner.ScannerSide
+import org.sonarsource.kotlin.api.common.KotlinLanguage
+import org.sonarsource.kotlin.api.common.PROJECT_LEVEL_ANALYSIS_PROPERTY
+import org.sonarsource.kotlin.api.sensors.SourceContentStore
+import org.sonarsource.kotlin.metrics.TelemetryData
+
+/**
+ * Project-level analysis mode, enabled by [PROJECT_LEVEL_ANALYSIS_PROPERTY]. Instead of analyzing its files, the
+ * [KotlinSensor] of each module registers them here. [KotlinProjectSensor] then analyzes the files of all the modules
+ * in a single compiler session, where each module is a source module and the libraries are indexed only once.
+ */
+@ScannerSide
+class KotlinProjectAnalysis(
+    private val checkFactory: CheckFactory,
+    private val fileLinesContextFactory: FileLinesContextFactory,
+    private val noSonarFilter: NoSonarFilter,
+    private val language: KotlinLanguage,
+    private val telemetryData: TelemetryData,
+    private val extensionsProviders: Array<KotlinPluginExtensionsProvider>,
+    private val analysisWarnings: AnalysisWarnings,
+) {
+
+    private val modules = mutableListOf<KotlinSourceModule>()
+
+    /**
+     * Shared by the modules, so that the files read to select the files of a module are not read again by the analysis.
+     */
+    internal val sourceContents = SourceContentStore()
+
+    fun isEnabled(sensorContext: SensorContext): Boolean =
+        sensorContext.runtime().product != SonarProduct.SONARLINT &&
+            sensorContext.config().getBoolean(PROJECT_LEVEL_ANALYSIS_PROPERTY).orElse(false)
+
+    fun addModule(module: KotlinSourceModule) {
+        modules.add(module)
+    }
+
+    /**
+     * Analyzes the files of the registered modules, then forgets them.
+     */
+    fun execute(sensorContext: SensorContext) {
+        if (modules.isEmpty()) return
+        KotlinSensor(
+            checkFactory, fileLinesContextFactory, noSonarFilter, language, telemetryData, extensionsProviders, analysisWarnings
+        ).analyzeProject(sensorContext, modules.toList(), sourceContents)
+        modules.clear()
+    }
+}
+
+/**
+ * The files of a project module to analyze, and the classpath they are compiled with.
+ */
+class KotlinSourceModule(
+    val name: String,
+    val inputFiles: List<InputFile>,
+    val classpath: List<String>,
+)
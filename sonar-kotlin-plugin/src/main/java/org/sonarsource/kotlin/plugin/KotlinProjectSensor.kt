@@ -25,9 +25,14 @@ import org.sonarsource.kotlin.api.common.KOTLIN_LANGUAGE_KEY
 import org.sonarsource.kotlin.metrics.TelemetryData
 import java.util.Properties
 
-class KotlinProjectSensor(internal val telemetryData: TelemetryData) : ProjectSensor {
+class KotlinProjectSensor(
+    internal val telemetryData: TelemetryData,
+    private val projectAnalysis: KotlinProjectAnalysis?,
+) : ProjectSensor {
     private val LOG = LoggerFactory.getLogger(KotlinProjectSensor::class.java)
 
+    constructor(telemetryData: TelemetryData) : this(telemetryData, null)
+
     companion object {
         private const val PLUGIN_VERSION_RESOURCE = "org/sonar/plugins/kotlin/pluginVersion.properties"
         private const val UNKNOWN_VERSION = "unknown"
@@ -77,8 +82,10 @@ class KotlinProjectSensor(internal val telemetryData: TelemetryData) : ProjectSe
 
     /**
      * Executed once for entire project after all executions of [KotlinSensor.execute] for individual modules.
+     * Analyzes the files of all the modules first when the project-level analysis is enabled, see [KotlinProjectAnalysis].
      */
     override fun execute(context: SensorContext) {
+        projectAnalysis?.execute(context)
         if (context.runtime().apiVersion.isGreaterThanOrEqual(Version.create(10, 9))) {
             val extendedLogging = context.config().getBoolean(EXTENDED_LOGGING_PROPERTY_NAME).orElse(false)
             addAndLogTelemetryProperty(context, extendedLogging, "kotlin.pluginVersion", resolvePluginVersion())
@@ -31,14 +31,27 @@ import com.sonarsource.plugins.kotlin.api.KotlinPluginExtensionsProvider
 import org.sonarsource.analyzer.commons.ProgressReport
 import org.sonarsource.kotlin.api.checks.AbstractCheck
 import org.sonarsource.kotlin.api.checks.hasCacheEnabled
+import org.sonarsource.kotlin.api.common.ANALYSIS_THREADS_PROPERTY
+import org.sonarsource.kotlin.api.common.CheckDurations
 import org.sonarsource.kotlin.api.common.KotlinLanguage
+import org.sonarsource.kotlin.api.common.PERFORMANCE_MEASURE_ACTIVATION_PROPERTY
 import org.sonarsource.kotlin.api.common.SONAR_JAVA_BINARIES
 import org.sonarsource.kotlin.api.common.SONAR_JAVA_LIBRARIES
+import org.sonarsource.kotlin.api.common.SYNTAX_ONLY_ANALYSIS_PROPERTY
 import org.sonarsource.kotlin.api.logging.debug
 import org.sonarsource.kotlin.api.sensors.AbstractKotlinSensor
 import org.sonarsource.kotlin.api.sensors.AbstractKotlinSensorExecuteContext
+import org.sonarsource.kotlin.api.sensors.SourceContentStore
 import org.sonarsource.kotlin.api.sensors.postAnalysisCrashWarning
+import org.sonarsource.kotlin.api.sensors.postTimeBudgetWarning
 import org.sonarsource.kotlin.plugin.caching.ContentHashCache
+import org.sonarsource.kotlin.plugin.caching.DependencyGraph
+import org.sonarsource.kotlin.plugin.caching.DependencyRecorder
+import org.sonarsource.kotlin.plugin.caching.IssueReplayCache
+import org.sonarsource.kotlin.plugin.caching.MeasuresRecorder
+import org.sonarsource.kotlin.plugin.caching.copyIssuesFromPrevious
+import org.sonarsource.kotlin.plugin.caching.copyMeasuresFromPrevious
+import org.sonarsource.kotlin.plugin.caching.loadMeasures
 import org.sonarsource.kotlin.plugin.cpd.CopyPasteDetector
 import org.sonarsource.kotlin.plugin.cpd.copyCPDTokensFromPrevious
 import org.sonarsource.kotlin.plugin.cpd.loadCPDTokens
@@ -47,9 +60,11 @@ import org.sonarsource.kotlin.metrics.IssueSuppressionVisitor
 import org.sonarsource.kotlin.metrics.MetricVisitor
 import org.sonarsource.kotlin.metrics.SyntaxHighlighter
 import org.sonarsource.kotlin.api.visiting.KtChecksVisitor
+import org.sonarsource.kotlin.api.visiting.VisitorBus
 
 import kotlin.jvm.optionals.getOrElse
 import org.sonarsource.kotlin.metrics.TelemetryData
+import org.sonarsource.kotlin.metrics.saveHighlightings
 
 private val LOG = LoggerFactory.getLogger(KotlinSensor::class.java)
 
@@ -61,74 +76,199 @@ class KotlinSensor(
     private val noSonarFilter: NoSonarFilter,
     language: KotlinLanguage,
     private val telemetryData: TelemetryData,
-    extensionsProviders: Array<KotlinPluginExtensionsProvider>,
+    private val extensionsProviders: Array<KotlinPluginExtensionsProvider>,
     private val analysisWarnings: AnalysisWarnings,
+    private val projectAnalysis: KotlinProjectAnalysis?,
 ): AbstractKotlinSensor(
     checkFactory, instantiateRules(checkFactory, extensionsProviders), language, KOTLIN_CHECKS
 ) {
 
+    constructor(
+        checkFactory: CheckFactory,
+        fileLinesContextFactory: FileLinesContextFactory,
+        noSonarFilter: NoSonarFilter,
+        language: KotlinLanguage,
+        telemetryData: TelemetryData,
+        extensionsProviders: Array<KotlinPluginExtensionsProvider>,
+        analysisWarnings: AnalysisWarnings,
+    ) : this(
+        checkFactory, fileLinesContextFactory, noSonarFilter, language, telemetryData, extensionsProviders, analysisWarnings, null
+    )
+
     override fun describe(descriptor: SensorDescriptor) {
         descriptor
             .onlyOnLanguage(language.key)
             .name(language.name + " Sensor")
     }
 
+    override fun newExternalChecks(): Collection<AbstractCheck> = instantiateRules(checkFactory, extensionsProviders)
+
+    override fun execute(sensorContext: SensorContext) {
+        val projectAnalysis = projectAnalysis
+        if (projectAnalysis != null && projectAnalysis.isEnabled(sensorContext)) {
+            // The files are analyzed with the ones of the other modules, by KotlinProjectSensor
+            val filesToAnalyze = getFilesToAnalyse(sensorContext, projectAnalysis.sourceContents).toList()
+            projectAnalysis.addModule(
+                KotlinSourceModule(sensorContext.fileSystem().baseDir().path, filesToAnalyze, classpathOf(sensorContext))
+            )
+        } else {
+            super.execute(sensorContext)
+        }
+    }
+
+    /**
+     * Analyzes the files of all the given [modules] in a single compiler session, see [KotlinProjectAnalysis].
+     */
+    internal fun analyzeProject(
+        sensorContext: SensorContext,
+        modules: List<KotlinSourceModule>,
+        sourceContents: SourceContentStore,
+    ) = measurePerformance(sensorContext) {
+        val filesToAnalyze = modules.flatMap { it.inputFiles }
+        val filenames = filesToAnalyze.map { it.toString() }
+        if (filenames.isEmpty()) return@measurePerformance
+        val sourceModules = modules.flatMap { module -> module.inputFiles.map { it to module.name } }.toMap()
+        val classpath = modules.flatMap { it.classpath }.distinct()
+        LOG.info("Analyzing the Kotlin files of ${modules.size} modules in a single compiler session")
+        analyzeFiles(filenames) { progressReport ->
+            executeContext(sensorContext, filesToAnalyze, progressReport, filenames, sourceContents, classpath, sourceModules)
+        }
+    }
+
     override fun getExecuteContext(
         sensorContext: SensorContext,
         filesToAnalyze: Iterable<InputFile>,
         progressReport: ProgressReport,
-        filenames: List<String>
-    ) = object : AbstractKotlinSensorExecuteContext(
-        sensorContext, filesToAnalyze, progressReport, visitors(sensorContext), filenames, LOG
-    ) {
-        override val classpath: List<String> =
-            sensorContext.config().getStringArray(SONAR_JAVA_BINARIES).toList() +
-                    sensorContext.config().getStringArray(SONAR_JAVA_LIBRARIES).toList()
-
-        override fun onFileRead() {
-            telemetryData.filesProcessed++
-        }
+        filenames: List<String>,
+        sourceContents: SourceContentStore,
+    ) = executeContext(
+        sensorContext, filesToAnalyze, progressReport, filenames, sourceContents, classpathOf(sensorContext), emptyMap()
+    )
 
-        override fun onParseFailure() {
-            telemetryData.parseFailures++
-        }
+    private fun executeContext(
+        sensorContext: SensorContext,
+        filesToAnalyze: Iterable<InputFile>,
+        progressReport: ProgressReport,
+        filenames: List<String>,
+        sourceContents: SourceContentStore,
+        moduleClasspath: List<String>,
+        sourceModules: Map<InputFile, String>,
+    ): AbstractKotlinSensorExecuteContext {
+        // Shared by the visitors of all the threads, reported once the analysis is complete
+        val sharedCheckDurations = CheckDurations()
+        // Measuring each check around each of its calls is only done on demand, unlike the durations of the visitors
+        val measuredCheckDurations = sharedCheckDurations
+            .takeIf { sensorContext.config().getBoolean(PERFORMANCE_MEASURE_ACTIVATION_PROPERTY).orElse(false) }
+        val dependencyGraph = DependencyGraph.of(sensorContext, sourceContents, filesToAnalyze)
+        return object : AbstractKotlinSensorExecuteContext(
+            sensorContext,
+            filesToAnalyze,
+            progressReport,
+            visitors(sensorContext, measuredCheckDurations, dependencyGraph),
+            filenames,
+            LOG,
+            sourceContents,
+        ) {
+            override val classpath: List<String> = moduleClasspath
 
-        override fun onReadFailure() {
-            telemetryData.readFailures++
-        }
+            override val checkDurations: CheckDurations = sharedCheckDurations
+
+            override val issueCache: IssueReplayCache? = IssueReplayCache.of(sensorContext, sourceContents, moduleClasspath, dependencyGraph)
+
+            override fun sourceModuleNameOf(inputFile: InputFile): String =
+                sourceModules[inputFile] ?: super.sourceModuleNameOf(inputFile)
 
-        // A Set, so a file crashing in several visitors is counted and listed once
-        private val crashedFiles = mutableSetOf<String>()
+            override val workerVisitorsFactory: () -> List<KotlinFileVisitor> =
+                { listOf(KtChecksVisitor(checksToRun(sensorContext, newChecks()), measuredCheckDurations)) }
 
-        override fun onAnalysisCrash(inputFile: InputFile) {
-            if (crashedFiles.add(inputFile.toString())) {
-                telemetryData.analysisCrashes++
+            override fun onFileRead() {
+                telemetryData.incrementFilesProcessed()
+            }
+
+            override fun onParseFailure() {
+                telemetryData.incrementParseFailures()
+            }
+
+            override fun onReadFailure() {
+                telemetryData.incrementReadFailures()
+            }
+
+            // A Set, so a file crashing in several visitors is counted and listed once
+            private val crashedFiles = mutableSetOf<String>()
+
+            override fun onAnalysisCrash(inputFile: InputFile) {
+                if (crashedFiles.add(inputFile.toString())) {
+                    telemetryData.incrementAnalysisCrashes()
+                }
             }
-        }
 
-        override fun onAnalysisComplete() {
-            postAnalysisCrashWarning(analysisWarnings, crashedFiles)
+            private val budgetExceededFiles = mutableSetOf<String>()
+
+            override fun onTimeBudgetExceeded(inputFile: InputFile, exceeded: List<String>) {
+                budgetExceededFiles.add(inputFile.toString())
+            }
+
+            override fun onAnalysisComplete() {
+                postAnalysisCrashWarning(analysisWarnings, crashedFiles)
+                postTimeBudgetWarning(analysisWarnings, budgetExceededFiles)
+                dependencyGraph?.save()
+                issueCache?.let { LOG.debug { "Replayed the issues of ${it.replayedFiles()} unchanged Kotlin files" } }
+            }
         }
     }
 
-    private fun visitors(sensorContext: SensorContext): List<KotlinFileVisitor> =
+    private fun classpathOf(sensorContext: SensorContext): List<String> =
+        sensorContext.config().getStringArray(SONAR_JAVA_BINARIES).toList() +
+                sensorContext.config().getStringArray(SONAR_JAVA_LIBRARIES).toList()
+
+    /**
+     * The metrics, highlighting, CPD, suppression and dependency visitors share a single walk of each file, see
+     * [VisitorBus]. Issue suppression comes first, as it must know the suppressed rules before the checks report their
+     * issues.
+     */
+    private fun visitors(
+        sensorContext: SensorContext,
+        checkDurations: CheckDurations?,
+        dependencyGraph: DependencyGraph?,
+    ): List<KotlinFileVisitor> =
         if (sensorContext.runtime().product == SonarProduct.SONARLINT) {
             listOf(
-                IssueSuppressionVisitor(),
-                MetricVisitor(fileLinesContextFactory, noSonarFilter, telemetryData),
-                KtChecksVisitor(checks),
+                VisitorBus(listOfNotNull(
+                    IssueSuppressionVisitor(),
+                    MetricVisitor(fileLinesContextFactory, noSonarFilter, telemetryData),
+                    dependencyGraph?.let(::DependencyRecorder),
+                )),
+                KtChecksVisitor(checksToRun(sensorContext, checks), checkDurations),
             )
         } else {
+            val metricVisitor = MetricVisitor(fileLinesContextFactory, noSonarFilter, telemetryData)
+            val syntaxHighlighter = SyntaxHighlighter(keepsHighlightings = sensorContext.hasCacheEnabled())
             listOf(
-                IssueSuppressionVisitor(),
-                MetricVisitor(fileLinesContextFactory, noSonarFilter, telemetryData),
-                KtChecksVisitor(checks),
-                CopyPasteDetector(),
-                SyntaxHighlighter(),
+                VisitorBus(listOfNotNull(
+                    IssueSuppressionVisitor(),
+                    metricVisitor,
+                    CopyPasteDetector(),
+                    syntaxHighlighter,
+                    dependencyGraph?.let(::DependencyRecorder),
+                    MeasuresRecorder(metricVisitor, syntaxHighlighter, KotlinProjectSensor.resolvePluginVersion())
+                        .takeIf { sensorContext.hasCacheEnabled() },
+                )),
+                KtChecksVisitor(checksToRun(sensorContext, checks), checkDurations),
             )
         }
 
-    override fun getFilesToAnalyse(sensorContext: SensorContext): Iterable<InputFile> {
+    /**
+     * Only the syntax-only checks are run when [SYNTAX_ONLY_ANALYSIS_PROPERTY] is set, so that the files are analyzed
+     * without building a compiler session, see [AbstractCheck.isSyntaxOnly].
+     */
+    private fun checksToRun(sensorContext: SensorContext, checks: Collection<AbstractCheck>): Collection<AbstractCheck> =
+        if (sensorContext.config().getBoolean(SYNTAX_ONLY_ANALYSIS_PROPERTY).orElse(false)) {
+            checks.filter { it.isSyntaxOnly }
+        } else {
+            checks
+        }
+
+    override fun getFilesToAnalyse(sensorContext: SensorContext, sourceContents: SourceContentStore): Iterable<InputFile> {
         val fileSystem: FileSystem = sensorContext.fileSystem()
         val mainFilePredicate = fileSystem.predicates().and(
             fileSystem.predicates().hasLanguage(language.key),
@@ -142,16 +282,19 @@ class KotlinSensor(
             }
             val canSkipUnchangedFiles = canSkipUnchangedFiles(sensorContext)
             val contentHashCache = ContentHashCache.of(sensorContext)
+            contentHashCache?.precomputeHashes(mainFiles.toList(), sourceContents, analysisThreads(sensorContext))
+            val pluginVersion = KotlinProjectSensor.resolvePluginVersion()
             var totalFiles = 0
             val changedFiles = mainFiles.filter {
                 totalFiles++
                 // compares and saves hash
-                fileHasChanged(it, contentHashCache)
-                        || (canSkipUnchangedFiles && !reuseCPDTokens(it, sensorContext))
+                fileHasChanged(it, contentHashCache, sourceContents)
+                        || (canSkipUnchangedFiles && !reuseCachedResults(it, sensorContext, pluginVersion))
             }
             if (canSkipUnchangedFiles) {
                 LOG.debug("The Kotlin analyzer is running in a context where it can skip unchanged files.")
                 LOG.info("Only analyzing ${changedFiles.size} changed Kotlin files out of ${totalFiles}.")
+                mainFiles.minus(changedFiles.toSet()).forEach(sourceContents::release)
                 changedFiles
             } else {
                 LOG.debug("The Kotlin analyzer is running in a context where unchanged files cannot be skipped.")
@@ -160,26 +303,46 @@ class KotlinSensor(
         }
     }
 
-    private fun reuseCPDTokens(inputFile: InputFile, sensorContext: SensorContext): Boolean {
+    /**
+     * Saves again the CPD tokens, the measures and the highlighting of an unchanged file, as cached by the previous
+     * analysis, and copies them to the cache of the next one, with the issues of the file, so that the file does not
+     * need to be analyzed.
+     * Nothing is saved when any of them is missing from the cache, as the file is then analyzed.
+     */
+    private fun reuseCachedResults(inputFile: InputFile, sensorContext: SensorContext, pluginVersion: String): Boolean {
         if (!sensorContext.hasCacheEnabled()) {
             return false
         }
         val previousCache = sensorContext.previousCache()
-        return previousCache.loadCPDTokens(inputFile)?.let { previousTokens ->
-            sensorContext.newCpdTokens().onFile(inputFile).apply {
-                previousTokens.forEach { addToken(it.range, it.text) }
-                save()
-            }
-            val nextCache = sensorContext.nextCache()
-            try {
-                nextCache.copyCPDTokensFromPrevious(inputFile)
-            } catch (_: IllegalArgumentException) {
-                LOG.debug { "Unable to save the CPD tokens of file $inputFile for the next analysis." }
-            }
-            true
-        } ?: false
+        val previousMeasures = previousCache.loadMeasures(inputFile, pluginVersion) ?: return false
+        // Discarded without being saved when the tokens cannot be loaded, as the file is then analyzed
+        val cpdTokens = sensorContext.newCpdTokens().onFile(inputFile)
+        if (!previousCache.loadCPDTokens(inputFile, cpdTokens)) return false
+        cpdTokens.save()
+        previousMeasures.measures.save(sensorContext, inputFile, fileLinesContextFactory, noSonarFilter, telemetryData)
+        saveHighlightings(sensorContext, inputFile, previousMeasures.highlightings)
+        val nextCache = sensorContext.nextCache()
+        try {
+            nextCache.copyCPDTokensFromPrevious(inputFile)
+        } catch (_: IllegalArgumentException) {
+            LOG.debug { "Unable to save the CPD tokens of file $inputFile for the next analysis." }
+        }
+        try {
+            nextCache.copyMeasuresFromPrevious(inputFile)
+        } catch (_: IllegalArgumentException) {
+            LOG.debug { "Unable to save the measures of file $inputFile for the next analysis." }
+        }
+        try {
+            nextCache.copyIssuesFromPrevious(inputFile)
+        } catch (_: IllegalArgumentException) {
+            LOG.debug { "Unable to save the issues of file $inputFile for the next analysis." }
+        }
+        return true
     }
 
+    private fun analysisThreads(sensorContext: SensorContext): Int =
+        sensorContext.config().getInt(ANALYSIS_THREADS_PROPERTY).orElse(1)
+
     private fun canSkipUnchangedFiles(sensorContext: SensorContext): Boolean {
         return sensorContext.config().getBoolean(KotlinPlugin.SKIP_UNCHANGED_FILES_OVERRIDE).getOrElse {
             try {
@@ -191,8 +354,13 @@ class KotlinSensor(
         }
     }
 
-    private fun fileHasChanged(inputFile: InputFile, contentHashCache: ContentHashCache?): Boolean {
-        return contentHashCache?.hasDifferentContentCached(inputFile) ?: (inputFile.status() != InputFile.Status.SAME)
+    private fun fileHasChanged(
+        inputFile: InputFile,
+        contentHashCache: ContentHashCache?,
+        sourceContents: SourceContentStore,
+    ): Boolean {
+        return contentHashCache?.hasDifferentContentCached(inputFile, sourceContents)
+            ?: (inputFile.status() != InputFile.Status.SAME)
     }
 }
 
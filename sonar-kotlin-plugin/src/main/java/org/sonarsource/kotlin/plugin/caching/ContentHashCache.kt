@@ -23,11 +23,11 @@ import org.sonar.api.batch.sensor.cache.ReadCache
 import org.sonar.api.batch.sensor.cache.WriteCache
 import org.sonarsource.kotlin.api.checks.hasCacheEnabled
 import org.sonarsource.kotlin.api.logging.debug
+import org.sonarsource.kotlin.api.sensors.SourceContentStore
 import java.security.MessageDigest
 
 private val LOG = LoggerFactory.getLogger(ContentHashCache::class.java)
 private const val HASH_ALGORITHM = "MD5"
-private val messageDigest = MessageDigest.getInstance(HASH_ALGORITHM)
 private const val CONTENT_HASHES_KEY = "kotlin:contentHash:$HASH_ALGORITHM:"
 
 
@@ -49,11 +49,12 @@ class ContentHashCache private constructor(private val readCache: ReadCache, pri
      * Checks if the inputFile has a different content hash cached.
      * If that is the case, or the file has never been cached before, takes care of writing a new entry to the cache.
      * Otherwise, it will copy the content hash from the previous cache.
+     * The hash of the file is computed once through [sourceContents], and shared with the other consumers of the analysis.
      */
-    fun hasDifferentContentCached(inputFile: InputFile): Boolean {
+    fun hasDifferentContentCached(inputFile: InputFile, sourceContents: SourceContentStore): Boolean {
         val key = contentHashKey(inputFile)
+        val inputFileHash = sourceContents.digestOf(inputFile, HASH_ALGORITHM)
         read(key)?.let { cachedFileHash ->
-            val inputFileHash = getHash(inputFile)
             val cacheContentIsEqual = MessageDigest.isEqual(inputFileHash, cachedFileHash)
             if (cacheContentIsEqual) {
                 try {
@@ -65,11 +66,18 @@ class ContentHashCache private constructor(private val readCache: ReadCache, pri
                 return false
             }
         }
-        write(key, getHash(inputFile))
+        write(key, inputFileHash)
         LOG.debug { "Cache contained a different hash for file ${inputFile.filename()}" }
         return true
     }
 
+    /**
+     * Computes the content hashes of the given files on [threads] worker threads, ahead of [hasDifferentContentCached].
+     */
+    fun precomputeHashes(inputFiles: Collection<InputFile>, sourceContents: SourceContentStore, threads: Int) {
+        sourceContents.precomputeDigests(inputFiles, HASH_ALGORITHM, threads)
+    }
+
     private fun write(key: String, hash: ByteArray) {
         try {
             writeCache.write(key, hash)
@@ -83,7 +91,4 @@ class ContentHashCache private constructor(private val readCache: ReadCache, pri
     } else {
         null
     }
-
-    private fun getHash(inputFile: InputFile) =
-        inputFile.contents().byteInputStream().use { it.readAllBytes() }.let { messageDigest.digest(it) }
 }
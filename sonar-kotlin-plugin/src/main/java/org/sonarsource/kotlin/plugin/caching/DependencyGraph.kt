@@ -0,0 +1,230 @@
+/*
+ * SonarSource Kotlin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.kotlin.plugin.caching
+
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+import org.slf4j.LoggerFactory
+import org.sonar.api.batch.fs.InputFile
+import org.sonar.api.batch.sensor.SensorContext
+import org.sonar.api.batch.sensor.cache.ReadCache
+import org.sonar.api.batch.sensor.cache.WriteCache
+import org.sonarsource.kotlin.api.checks.hasCacheEnabled
+import org.sonarsource.kotlin.api.logging.debug
+import org.sonarsource.kotlin.api.sensors.SourceContentStore
+
+private val LOG = LoggerFactory.getLogger(DependencyGraph::class.java)
+private const val HASH_ALGORITHM = "MD5"
+internal const val DEPENDENCY_GRAPH_KEY = "kotlin:dependencyGraph"
+private const val MAGIC = 0x4b444550 // "KDEP"
+private const val FORMAT_VERSION = 1
+
+/**
+ * Matches the package directives of a file which could not be parsed yet. All the matches are kept, as some of them
+ * can be in comments.
+ */
+private val PACKAGE_DIRECTIVE_PATTERN = Regex("""^\s*package\s+([\w.`]+)""", RegexOption.MULTILINE)
+
+private fun InputFile.cacheKey() = key().replace('\\', '/')
+
+/**
+ * The package declared by a file and the packages it uses, with the hash of the content they were read from.
+ */
+internal class FileDependencies(val digest: ByteArray, val packageName: String, val usedPackages: Set<String>)
+
+/**
+ * Packages declared and used by the files of the module, kept in the cache of the analysis, see [DependencyRecorder].
+ *
+ * A file is [invalidated][isInvalidated] when its content changed since the previous analysis, or when it uses a
+ * package in which a file changed, was added, was removed, or was invalidated itself, since the declarations of a file
+ * can depend on the declarations of the packages it uses, e.g. through inferred types or supertypes.
+ * The dependencies are tracked per package rather than per declaration, which invalidates more files than needed but
+ * does not require resolving every reference of the files.
+ */
+class DependencyGraph internal constructor(
+    private val writeCache: WriteCache,
+    private val sourceContents: SourceContentStore,
+    private val currentFiles: Collection<InputFile>,
+    private val previousFiles: Map<String, FileDependencies>,
+) {
+
+    private val recordedFiles = ConcurrentHashMap<String, FileDependencies>()
+
+    private val invalidatedFiles: Set<String> by lazy { computeInvalidatedFiles() }
+
+    /**
+     * @return `true` when the file, or the packages it depends on, changed since the previous analysis
+     */
+    fun isInvalidated(inputFile: InputFile): Boolean = inputFile.cacheKey() in invalidatedFiles
+
+    /**
+     * Keeps the dependencies of the file, as read from its current content, for the next analysis.
+     */
+    fun record(inputFile: InputFile, packageName: String, usedNames: Set<String>) {
+        val digest = try {
+            sourceContents.digestOf(inputFile, HASH_ALGORITHM)
+        } catch (_: IOException) {
+            return
+        }
+        recordedFiles[inputFile.cacheKey()] = FileDependencies(digest, packageName, usedNames)
+    }
+
+    /**
+     * Writes the graph to the cache of the next analysis. The used names which are not packages of the module are
+     * dropped. The files which were not analyzed but did not change keep their previous dependencies.
+     */
+    fun save() {
+        val files = HashMap(recordedFiles)
+        currentFiles.forEach { inputFile ->
+            val key = inputFile.cacheKey()
+            val previous = previousFiles[key] ?: return@forEach
+            val digest = currentDigest(inputFile)
+            if (key !in files && digest != null && MessageDigest.isEqual(digest, previous.digest)) {
+                files[key] = previous
+            }
+        }
+        val packages = files.values.mapTo(HashSet()) { it.packageName }
+        val bytes = ByteArrayOutputStream()
+        try {
+            DataOutputStream(bytes).use { output -> writeGraph(output, files, packages) }
+            writeCache.write(DEPENDENCY_GRAPH_KEY, bytes.toByteArray())
+        } catch (_: IllegalArgumentException) {
+            LOG.warn("Cannot write the dependency graph to the cache as it has already been written")
+        } catch (e: IOException) {
+            LOG.debug { "Cannot write the dependency graph to the cache: ${e.message}" }
+        }
+    }
+
+    private fun currentDigest(inputFile: InputFile): ByteArray? =
+        try {
+            sourceContents.digestOf(inputFile, HASH_ALGORITHM)
+        } catch (_: IOException) {
+            null
+        }
+
+    /**
+     * Walks the reverse dependencies of the previous analysis, from the packages of the changed, added and removed files.
+     */
+    private fun computeInvalidatedFiles(): Set<String> {
+        val dependentsByPackage = HashMap<String, MutableList<String>>()
+        previousFiles.forEach { (key, file) ->
+            file.usedPackages.forEach { dependentsByPackage.getOrPut(it) { mutableListOf() }.add(key) }
+        }
+
+        val invalidated = HashSet<String>()
+        val dirtyPackages = ArrayDeque<String>()
+        val currentKeys = HashSet<String>()
+        currentFiles.forEach { inputFile ->
+            val key = inputFile.cacheKey()
+            currentKeys.add(key)
+            val previous = previousFiles[key]
+            val digest = currentDigest(inputFile)
+            if (previous == null || digest == null || !MessageDigest.isEqual(digest, previous.digest)) {
+                invalidated.add(key)
+                previous?.let { dirtyPackages.add(it.packageName) }
+                dirtyPackages.addAll(packagesDeclaredBy(inputFile))
+            }
+        }
+        previousFiles.forEach { (key, file) -> if (key !in currentKeys) dirtyPackages.add(file.packageName) }
+
+        val visitedPackages = HashSet<String>()
+        while (dirtyPackages.isNotEmpty()) {
+            val packageName = dirtyPackages.removeFirst()
+            if (!visitedPackages.add(packageName)) continue
+            dependentsByPackage[packageName]?.forEach { key ->
+                if (invalidated.add(key)) dirtyPackages.add(previousFiles.getValue(key).packageName)
+            }
+        }
+        LOG.debug { "${invalidated.size} Kotlin files out of ${currentFiles.size} changed or depend on a change" }
+        return invalidated
+    }
+
+    private fun packagesDeclaredBy(inputFile: InputFile): List<String> {
+        val text = try {
+            sourceContents.textOf(inputFile)
+        } catch (_: IOException) {
+            return emptyList()
+        }
+        val packages = PACKAGE_DIRECTIVE_PATTERN.findAll(text).map { it.groupValues[1].replace("`", "") }.toList()
+        return packages.ifEmpty { listOf("") }
+    }
+
+    companion object {
+        /**
+         * @return `null` when the cache is disabled
+         */
+        fun of(ctx: SensorContext, sourceContents: SourceContentStore, currentFiles: Iterable<InputFile>): DependencyGraph? {
+            if (!ctx.hasCacheEnabled()) {
+                LOG.debug("Dependency graph is disabled")
+                return null
+            }
+            return DependencyGraph(ctx.nextCache(), sourceContents, currentFiles.toList(), readGraph(ctx.previousCache()))
+        }
+
+        private fun readGraph(readCache: ReadCache): Map<String, FileDependencies> {
+            if (!readCache.contains(DEPENDENCY_GRAPH_KEY)) return emptyMap()
+            return try {
+                DataInputStream(readCache.read(DEPENDENCY_GRAPH_KEY).buffered()).use(::readGraph)
+            } catch (e: Exception) {
+                LOG.debug { "Cannot read the dependency graph from the cache: ${e.message}" }
+                emptyMap()
+            }
+        }
+    }
+}
+
+/**
+ * The names of the packages are written once, and referred to by their index in the files.
+ */
+private fun writeGraph(output: DataOutputStream, files: Map<String, FileDependencies>, packages: Set<String>) {
+    val packageIndexes = HashMap<String, Int>()
+    packages.forEachIndexed { index, packageName -> packageIndexes[packageName] = index }
+    output.writeInt(MAGIC)
+    output.writeInt(FORMAT_VERSION)
+    output.writeInt(packages.size)
+    packages.forEach(output::writeUTF)
+    output.writeInt(files.size)
+    files.forEach { (key, file) ->
+        output.writeUTF(key)
+        output.writeInt(file.digest.size)
+        output.write(file.digest)
+        output.writeInt(packageIndexes.getValue(file.packageName))
+        val usedPackages = file.usedPackages.mapNotNull { packageIndexes[it] }
+        output.writeInt(usedPackages.size)
+        usedPackages.forEach(output::writeInt)
+    }
+}
+
+private fun readGraph(input: DataInputStream): Map<String, FileDependencies> {
+    if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION) return emptyMap()
+    val packages = Array(input.readInt()) { input.readUTF() }
+    val count = input.readInt()
+    val files = HashMap<String, FileDependencies>(count)
+    repeat(count) {
+        val key = input.readUTF()
+        val digest = ByteArray(input.readInt())
+        input.readFully(digest)
+        val packageName = packages[input.readInt()]
+        val usedPackages = HashSet<String>().apply { repeat(input.readInt()) { add(packages[input.readInt()]) } }
+        files[key] = FileDependencies(digest, packageName, usedPackages)
+    }
+    return files
+}
@@ -0,0 +1,98 @@
+/*
+ * SonarSource Kotlin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.kotlin.plugin.caching
+
+import org.jetbrains.kotlin.psi.KtDotQualifiedExpression
+import org.jetbrains.kotlin.psi.KtImportDirective
+import org.jetbrains.kotlin.psi.KtNameReferenceExpression
+import org.jetbrains.kotlin.psi.KtPackageDirective
+import org.jetbrains.kotlin.psi.KtUserType
+import org.sonarsource.kotlin.api.frontend.FlatTree
+import org.sonarsource.kotlin.api.frontend.KotlinFileContext
+import org.sonarsource.kotlin.api.visiting.FlatTreeVisitor
+
+/**
+ * Records in the [DependencyGraph] the package of each file and the names which can stand for the packages it uses:
+ * its own package, the prefixes of its imports, and the qualifiers of the fully qualified names of its code.
+ * The names which are not packages of the module are dropped by [DependencyGraph.save].
+ */
+class DependencyRecorder(private val dependencyGraph: DependencyGraph) : FlatTreeVisitor() {
+
+    override val isSyntaxOnly = true
+
+    override val nodeClasses = listOf(
+        KtPackageDirective::class.java,
+        KtImportDirective::class.java,
+        KtUserType::class.java,
+        KtDotQualifiedExpression::class.java,
+    )
+
+    private var packageName = ""
+
+    private var usedNames = HashSet<String>()
+
+    override fun beginFile(kotlinFileContext: KotlinFileContext) {
+        packageName = kotlinFileContext.ktFile.packageFqName.asString()
+        usedNames = hashSetOf(packageName)
+    }
+
+    override fun visitNode(tree: FlatTree, index: Int, kotlinFileContext: KotlinFileContext): Int {
+        when (val node = tree.node(index)) {
+            is KtPackageDirective -> return tree.subtreeEnd(index)
+            is KtImportDirective -> {
+                node.importedFqName?.let { addPrefixes(it.asString(), includingName = node.isAllUnder) }
+                return tree.subtreeEnd(index)
+            }
+            is KtUserType -> node.qualifier?.let { qualifier -> qualifiedName(qualifier)?.let { addPrefixes(it, includingName = true) } }
+            is KtDotQualifiedExpression -> qualifiedName(node.receiverExpression)?.let { addPrefixes(it, includingName = true) }
+        }
+        return index + 1
+    }
+
+    override fun endFile(kotlinFileContext: KotlinFileContext) {
+        dependencyGraph.record(kotlinFileContext.inputFileContext.inputFile, packageName, usedNames)
+    }
+
+    /**
+     * Adds the qualifiers of the name, e.g. `a` and `a.b` for `a.b.C`, and the name itself when [includingName].
+     */
+    private fun addPrefixes(name: String, includingName: Boolean) {
+        var end = name.indexOf('.')
+        while (end >= 0) {
+            usedNames.add(name.substring(0, end))
+            end = name.indexOf('.', end + 1)
+        }
+        if (includingName) usedNames.add(name)
+    }
+}
+
+/**
+ * @return the text of a chain of simple names, e.g. `a.b.c`, or `null` for another expression
+ */
+private fun qualifiedName(element: Any): String? =
+    when (element) {
+        is KtNameReferenceExpression -> element.getReferencedName()
+        is KtDotQualifiedExpression -> {
+            val selector = element.selectorExpression as? KtNameReferenceExpression
+            selector?.let { qualifiedName(element.receiverExpression)?.let { receiver -> "$receiver.${it.getReferencedName()}" } }
+        }
+        is KtUserType -> {
+            val name = element.referencedName ?: return null
+            element.qualifier?.let { qualifiedName(it)?.let { qualifier -> "$qualifier.$name" } } ?: name
+        }
+        else -> null
+    }
@@ -0,0 +1,243 @@
+/*
+ * SonarSource Kotlin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.kotlin.plugin.caching
+
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.security.MessageDigest
+import org.slf4j.LoggerFactory
+import org.sonar.api.batch.fs.InputFile
+import org.sonar.api.batch.fs.TextRange
+import org.sonar.api.batch.sensor.SensorContext
+import org.sonar.api.batch.sensor.cache.ReadCache
+import org.sonar.api.batch.sensor.cache.WriteCache
+import org.sonar.api.rule.RuleKey
+import org.sonarsource.kotlin.api.checks.InputFileContext
+import org.sonarsource.kotlin.api.checks.hasCacheEnabled
+import org.sonarsource.kotlin.api.common.KOTLIN_LANGUAGE_VERSION
+import org.sonarsource.kotlin.api.common.SYNTAX_ONLY_ANALYSIS_PROPERTY
+import org.sonarsource.kotlin.api.logging.debug
+import org.sonarsource.kotlin.api.reporting.Message
+import org.sonarsource.kotlin.api.reporting.ReportedIssue
+import org.sonarsource.kotlin.api.reporting.SecondaryLocation
+import org.sonarsource.kotlin.api.sensors.IssueCache
+import org.sonarsource.kotlin.api.sensors.SourceContentStore
+import org.sonarsource.kotlin.plugin.KotlinProjectSensor
+
+private val LOG = LoggerFactory.getLogger(IssueReplayCache::class.java)
+private const val HASH_ALGORITHM = "MD5"
+private const val ISSUES_KEY = "kotlin:issues:"
+private const val MAGIC = 0x4b495353 // "KISS"
+private const val FORMAT_VERSION = 1
+private const val UNKNOWN_PLUGIN_VERSION = "unknown"
+
+/**
+ * Settings which change the issues reported on a file whose content did not change.
+ */
+private val ISSUE_SETTINGS = listOf(KOTLIN_LANGUAGE_VERSION, SYNTAX_ONLY_ANALYSIS_PROPERTY)
+
+internal fun issuesKey(inputFile: InputFile) = ISSUES_KEY + inputFile.key().replace('\\', '/')
+
+/**
+ * Copies the issues of an unchanged file from the previous analysis cache to the cache of the next analysis, so that
+ * they can still be replayed once the file changes again.
+ *
+ * @throws IllegalArgumentException If the previous cache does not contain issues for this file or issues have already
+ * been written in the cache for this file
+ */
+fun WriteCache.copyIssuesFromPrevious(inputFile: InputFile) {
+    copyFromPrevious(issuesKey(inputFile))
+}
+
+/**
+ * Keeps the issues of each file in the cache of the analysis, with the fingerprint of what they were computed from:
+ * the content of the file, the active rules and their parameters, the version of the plugin, the JDK, the classpath
+ * and the settings of the analysis. The issues of a file are replayed when its fingerprint did not change, and when the files it
+ * depends on did not change either, see [DependencyGraph].
+ */
+class IssueReplayCache internal constructor(
+    private val readCache: ReadCache,
+    private val writeCache: WriteCache,
+    private val sourceContents: SourceContentStore,
+    private val analysisFingerprint: ByteArray,
+    private val dependencyGraph: DependencyGraph?,
+) : IssueCache {
+
+    private var replayedFiles = 0
+
+    override fun previousIssues(inputFileContext: InputFileContext): List<ReportedIssue>? {
+        val inputFile = inputFileContext.inputFile
+        val key = issuesKey(inputFile)
+        if (!readCache.contains(key) || dependencyGraph?.isInvalidated(inputFile) == true) return null
+        return try {
+            DataInputStream(readCache.read(key).buffered()).use { input ->
+                readIssues(input, inputFile, fingerprintOf(inputFileContext))
+            }
+        } catch (e: IOException) {
+            LOG.debug { "Cannot read the issues of ${inputFile.filename()} from the cache: ${e.message}" }
+            null
+        } catch (e: IllegalArgumentException) {
+            // Thrown by InputFile.newRange for a range which is not in the file anymore
+            LOG.debug { "Cannot read the issues of ${inputFile.filename()} from the cache: ${e.message}" }
+            null
+        }?.also { replayedFiles++ }
+    }
+
+    override fun store(inputFileContext: InputFileContext, issues: List<ReportedIssue>) {
+        val key = issuesKey(inputFileContext.inputFile)
+        try {
+            val bytes = ByteArrayOutputStream()
+            DataOutputStream(bytes).use { output -> writeIssues(output, fingerprintOf(inputFileContext), issues) }
+            writeCache.write(key, bytes.toByteArray())
+        } catch (_: IllegalArgumentException) {
+            LOG.warn("Cannot write the issues of key $key to the cache as it has already been written")
+        } catch (e: IOException) {
+            LOG.debug { "Cannot write the issues of key $key to the cache: ${e.message}" }
+        }
+    }
+
+    /**
+     * @return the number of files whose issues were replayed so far
+     */
+    fun replayedFiles(): Int = replayedFiles
+
+    private fun fingerprintOf(inputFileContext: InputFileContext): ByteArray =
+        MessageDigest.getInstance(HASH_ALGORITHM).apply {
+            update(analysisFingerprint)
+            update(sourceContents.digestOf(inputFileContext.inputFile, HASH_ALGORITHM))
+            update(byteArrayOf(inputFileContext.isAndroid.toByte(), inputFileContext.isTestFile.toByte()))
+        }.digest()
+
+    companion object {
+        /**
+         * @return `null` when the cache is disabled, or when the version of the plugin is unknown, as the issues of
+         * another build of the plugin could then be replayed
+         */
+        fun of(
+            ctx: SensorContext,
+            sourceContents: SourceContentStore,
+            classpath: List<String>,
+            dependencyGraph: DependencyGraph?,
+            pluginVersion: String = KotlinProjectSensor.resolvePluginVersion(),
+        ): IssueReplayCache? {
+            if (!ctx.hasCacheEnabled() || pluginVersion == UNKNOWN_PLUGIN_VERSION) {
+                LOG.debug("Issue replay cache is disabled")
+                return null
+            }
+            LOG.debug("Issue replay cache was initialized")
+            return IssueReplayCache(
+                ctx.previousCache(), ctx.nextCache(), sourceContents, analysisFingerprint(ctx, classpath, pluginVersion), dependencyGraph
+            )
+        }
+
+        internal fun analysisFingerprint(ctx: SensorContext, classpath: List<String>, pluginVersion: String): ByteArray {
+            val digest = MessageDigest.getInstance(HASH_ALGORITHM)
+            fun add(value: String) = digest.update("$value\n".toByteArray(Charsets.UTF_8))
+
+            add(pluginVersion)
+            // The JDK the analysis runs with, as its classes resolve the references to the JDK
+            add("${System.getProperty("java.home")}|${Runtime.version()}")
+            // All the active rules, as the rules of the plugin extensions can belong to other repositories
+            ctx.activeRules().findAll()
+                .map { rule ->
+                    val params = rule.params().entries.sortedBy { it.key }.joinToString(",") { "${it.key}=${it.value}" }
+                    "${rule.ruleKey()}|${rule.templateRuleKey()}|$params"
+                }
+                .sorted()
+                .forEach(::add)
+            ISSUE_SETTINGS.forEach { add("$it=${ctx.config()[it].orElse("")}") }
+            classpath.forEach { entry -> classpathFingerprint(File(entry)).forEach(::add) }
+            return digest.digest()
+        }
+
+        /**
+         * The size and modification time of a jar, or of each file of a directory of classes.
+         */
+        private fun classpathFingerprint(entry: File): Sequence<String> =
+            if (entry.isDirectory) {
+                entry.walkTopDown().filter { it.isFile }.map { "${it.path}|${it.length()}|${it.lastModified()}" }.sorted()
+            } else {
+                sequenceOf("${entry.path}|${entry.length()}|${entry.lastModified()}")
+            }
+    }
+}
+
+private fun Boolean.toByte(): Byte = if (this) 1 else 0
+
+private fun writeIssues(output: DataOutputStream, fingerprint: ByteArray, issues: List<ReportedIssue>) {
+    output.writeInt(MAGIC)
+    output.writeInt(FORMAT_VERSION)
+    output.writeInt(fingerprint.size)
+    output.write(fingerprint)
+    output.writeInt(issues.size)
+    issues.forEach { issue ->
+        output.writeUTF(issue.ruleKey.toString())
+        output.writeRange(issue.textRange)
+        output.writeUTF(issue.message.text)
+        output.writeInt(issue.message.ranges.size)
+        issue.message.ranges.forEach { (start, end) ->
+            output.writeInt(start)
+            output.writeInt(end)
+        }
+        output.writeInt(issue.secondaryLocations.size)
+        issue.secondaryLocations.forEach { secondary ->
+            output.writeRange(secondary.textRange)
+            output.writeBoolean(secondary.message != null)
+            secondary.message?.let { output.writeUTF(it) }
+        }
+        output.writeBoolean(issue.gap != null)
+        issue.gap?.let { output.writeDouble(it) }
+    }
+}
+
+/**
+ * @return the issues, or `null` when they were stored with another [fingerprint] or in another format
+ */
+private fun readIssues(input: DataInputStream, inputFile: InputFile, fingerprint: ByteArray): List<ReportedIssue>? {
+    if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION) return null
+    val storedFingerprint = ByteArray(input.readInt())
+    input.readFully(storedFingerprint)
+    if (!MessageDigest.isEqual(storedFingerprint, fingerprint)) return null
+    return List(input.readInt()) {
+        val ruleKey = RuleKey.parse(input.readUTF())
+        val textRange = input.readRange(inputFile)
+        val text = input.readUTF()
+        val ranges = List(input.readInt()) { input.readInt() to input.readInt() }
+        val secondaryLocations = List(input.readInt()) {
+            val range = input.readRange(inputFile)!!
+            SecondaryLocation(range, if (input.readBoolean()) input.readUTF() else null)
+        }
+        val gap = if (input.readBoolean()) input.readDouble() else null
+        ReportedIssue(ruleKey, textRange, Message(text, ranges), secondaryLocations, gap)
+    }
+}
+
+private fun DataOutputStream.writeRange(range: TextRange?) {
+    writeBoolean(range != null)
+    if (range != null) {
+        writeInt(range.start().line())
+        writeInt(range.start().lineOffset())
+        writeInt(range.end().line())
+        writeInt(range.end().lineOffset())
+    }
+}
+
+private fun DataInputStream.readRange(inputFile: InputFile): TextRange? =
+    if (readBoolean()) inputFile.newRange(readInt(), readInt(), readInt(), readInt()) else null
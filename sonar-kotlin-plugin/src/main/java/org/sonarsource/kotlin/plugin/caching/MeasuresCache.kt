@@ -0,0 +1,198 @@
+/*
+ * SonarSource Kotlin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.kotlin.plugin.caching
+
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import org.slf4j.LoggerFactory
+import org.sonar.api.batch.fs.InputFile
+import org.sonar.api.batch.sensor.cache.ReadCache
+import org.sonar.api.batch.sensor.cache.WriteCache
+import org.sonar.api.batch.sensor.highlighting.TypeOfText
+import org.sonarsource.kotlin.api.frontend.FlatTree
+import org.sonarsource.kotlin.api.frontend.KotlinFileContext
+import org.sonarsource.kotlin.api.logging.debug
+import org.sonarsource.kotlin.api.visiting.FlatTreeVisitor
+import org.sonarsource.kotlin.metrics.FileMeasures
+import org.sonarsource.kotlin.metrics.Highlighting
+import org.sonarsource.kotlin.metrics.MetricVisitor
+import org.sonarsource.kotlin.metrics.SyntaxHighlighter
+
+private val LOG = LoggerFactory.getLogger(MeasuresRecorder::class.java)
+private const val MAGIC = 0x4b4d4541 // "KMEA"
+private const val FORMAT_VERSION = 1
+
+internal fun computeMeasuresCacheKey(file: InputFile) = "kotlin:measures:${file.key()}"
+
+/**
+ * What the metrics and highlighting visitors saved on a file, so that they can be saved again when the file is skipped
+ * by a later analysis, like its CPD tokens.
+ */
+class CachedMeasures(val measures: FileMeasures, val highlightings: List<Highlighting>)
+
+/**
+ * Stores in the cache of the next analysis the measures and the highlightings of each file, as computed by the given
+ * visitors, which must come first in the same [org.sonarsource.kotlin.api.visiting.VisitorBus].
+ */
+class MeasuresRecorder(
+    private val metricVisitor: MetricVisitor,
+    private val syntaxHighlighter: SyntaxHighlighter?,
+    private val pluginVersion: String,
+) : FlatTreeVisitor() {
+
+    override val isSyntaxOnly = true
+
+    // Only the end of the file matters
+    override val nodeClasses = emptyList<Class<*>>()
+
+    override fun visitNode(tree: FlatTree, index: Int, kotlinFileContext: KotlinFileContext) = index + 1
+
+    /**
+     * Runs after [metricVisitor] and [syntaxHighlighter] on each file. As the visitor bus keeps ending the file for the
+     * other visitors when one of them fails, nothing is stored unless both completed the file: the file is then
+     * measured again by the next analysis instead of being given partial or stale measures.
+     */
+    override fun endFile(kotlinFileContext: KotlinFileContext) {
+        val ctx = kotlinFileContext.inputFileContext
+        if (!metricVisitor.hasCompletedFile() || syntaxHighlighter?.hasCompletedFile() == false) {
+            LOG.debug { "Not caching the measures of ${ctx.inputFile}, as they were not fully computed" }
+            return
+        }
+        val measures = CachedMeasures(metricVisitor.fileMeasures(), syntaxHighlighter?.highlightings() ?: emptyList())
+        ctx.sensorContext.nextCache().storeMeasures(ctx.inputFile, measures, pluginVersion)
+    }
+}
+
+/**
+ * Load the measures stored in the cache during a previous analysis.
+ *
+ * @return `null` when no entry can be found for the file, or when the entry was stored by another version of the
+ * plugin, which can compute other measures
+ */
+fun ReadCache.loadMeasures(file: InputFile, pluginVersion: String): CachedMeasures? {
+    val key = computeMeasuresCacheKey(file)
+    if (!contains(key)) {
+        return null
+    }
+    return try {
+        DataInputStream(read(key).buffered()).use { readMeasures(it, file, pluginVersion) }
+    } catch (e: IOException) {
+        LOG.debug { "Cannot read the measures of file ${file.key()} from the cache: ${e.message}" }
+        null
+    } catch (e: IllegalArgumentException) {
+        // Thrown by InputFile.newRange for a range which is not in the file anymore
+        LOG.debug { "Cannot read the measures of file ${file.key()} from the cache: ${e.message}" }
+        null
+    }
+}
+
+fun WriteCache.storeMeasures(file: InputFile, measures: CachedMeasures, pluginVersion: String) {
+    val key = computeMeasuresCacheKey(file)
+    try {
+        write(key, serializeMeasures(measures, pluginVersion))
+    } catch (_: IllegalArgumentException) {
+        LOG.warn("Could not write measures under key $key in cache.")
+    }
+}
+
+/**
+ * @throws IllegalArgumentException If the previous cache does not contain measures for this file or measures have
+ * already been written in the cache for this file
+ */
+fun WriteCache.copyMeasuresFromPrevious(file: InputFile) {
+    copyFromPrevious(computeMeasuresCacheKey(file))
+}
+
+/**
+ * The lines are sorted and delta-encoded, and all the numbers are written as variable-length integers, as most of them
+ * are small: a typical record takes a few bytes per line of code.
+ */
+internal fun serializeMeasures(cached: CachedMeasures, pluginVersion: String): ByteArray {
+    val bytes = ByteArrayOutputStream()
+    DataOutputStream(bytes).use { output ->
+        output.writeInt(MAGIC)
+        output.writeInt(FORMAT_VERSION)
+        output.writeUTF(pluginVersion)
+        with(cached.measures) {
+            output.writeLines(linesOfCode)
+            output.writeVarInt(commentLines)
+            output.writeLines(nosonarLines)
+            output.writeLines(executableLines)
+            output.writeVarInt(functions)
+            output.writeVarInt(classes)
+            output.writeVarInt(complexity)
+            output.writeVarInt(statements)
+            output.writeVarInt(cognitiveComplexity)
+            output.writeBoolean(hasAndroidImports)
+        }
+        output.writeVarInt(cached.highlightings.size)
+        var previousLine = 0
+        cached.highlightings.forEach { (range, typeOfText) ->
+            // Highlightings are in the order of the file, so their start lines never decrease
+            output.writeVarInt(range.start().line() - previousLine)
+            output.writeVarInt(range.start().lineOffset())
+            output.writeVarInt(range.end().line() - range.start().line())
+            output.writeVarInt(range.end().lineOffset())
+            output.writeByte(typeOfText.ordinal)
+            previousLine = range.start().line()
+        }
+    }
+    return bytes.toByteArray()
+}
+
+private fun readMeasures(input: DataInputStream, file: InputFile, pluginVersion: String): CachedMeasures? {
+    if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION || input.readUTF() != pluginVersion) return null
+    val measures = FileMeasures(
+        linesOfCode = input.readLines(),
+        commentLines = input.readVarInt(),
+        nosonarLines = input.readLines(),
+        executableLines = input.readLines(),
+        functions = input.readVarInt(),
+        classes = input.readVarInt(),
+        complexity = input.readVarInt(),
+        statements = input.readVarInt(),
+        cognitiveComplexity = input.readVarInt(),
+        hasAndroidImports = input.readBoolean(),
+    )
+    val typesOfText = TypeOfText.values()
+    var previousLine = 0
+    val highlightings = List(input.readVarInt()) {
+        val startLine = previousLine + input.readVarInt()
+        val startOffset = input.readVarInt()
+        val endLine = startLine + input.readVarInt()
+        val endOffset = input.readVarInt()
+        previousLine = startLine
+        Highlighting(file.newRange(startLine, startOffset, endLine, endOffset), typesOfText[input.readUnsignedByte()])
+    }
+    return CachedMeasures(measures, highlightings)
+}
+
+private fun DataOutputStream.writeLines(lines: Set<Int>) {
+    writeVarInt(lines.size)
+    var previous = 0
+    lines.sorted().forEach { line ->
+        writeVarInt(line - previous)
+        previous = line
+    }
+}
+
+private fun DataInputStream.readLines(): Set<Int> {
+    var previous = 0
+    return List(readVarInt()) { (previous + readVarInt()).also { previous = it } }.toSet()
+}
@@ -0,0 +1,45 @@
+/*
+ * SonarSource Kotlin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.kotlin.plugin.caching
+
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+
+/**
+ * Writes an integer on 1 byte per 7 bits, the lowest bits first: 1 byte up to 127, 5 bytes for a negative integer.
+ */
+internal fun DataOutputStream.writeVarInt(value: Int) {
+    var remaining = value
+    while (remaining and 0x7F.inv() != 0) {
+        writeByte((remaining and 0x7F) or 0x80)
+        remaining = remaining ushr 7
+    }
+    writeByte(remaining)
+}
+
+internal fun DataInputStream.readVarInt(): Int {
+    var value = 0
+    var shift = 0
+    while (true) {
+        val byte = readUnsignedByte()
+        value = value or ((byte and 0x7F) shl shift)
+        if (byte and 0x80 == 0) return value
+        shift += 7
+        if (shift > 28) throw IOException("Malformed variable-length integer")
+    }
+}
@@ -16,13 +16,26 @@
  */
 package org.sonarsource.kotlin.plugin.cpd
 
+import java.io.BufferedInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.nio.ByteBuffer
 import org.slf4j.LoggerFactory
 import org.sonar.api.batch.fs.InputFile
+import org.sonar.api.batch.fs.TextRange
 import org.sonar.api.batch.sensor.cache.ReadCache
 import org.sonar.api.batch.sensor.cache.WriteCache
+import org.sonar.api.batch.sensor.cpd.NewCpdTokens
+import org.sonarsource.kotlin.api.logging.debug
 import org.sonarsource.kotlin.plugin.KotlinSensor
+import org.sonarsource.kotlin.plugin.caching.readVarInt
+import org.sonarsource.kotlin.plugin.caching.writeVarInt
 
 private const val DELIMITER: Char = 31.toChar() // ASCII unit delimiter
+private const val MAGIC = 0x4b435044 // "KCPD", the text format starts with a digit
+private const val FORMAT_VERSION = 1
 
 private val LOG = LoggerFactory.getLogger(KotlinSensor::class.java)
 
@@ -36,12 +49,37 @@ private val LOG = LoggerFactory.getLogger(KotlinSensor::class.java)
  * @return The list of tokens stored in a previous analysis for a given input file.
  */
 fun ReadCache.loadCPDTokens(file: InputFile): List<CPDToken>? {
+    val tokens = mutableListOf<CPDToken>()
+    return if (decodeCPDTokens(file) { range, text -> tokens.add(CPDToken(range, text)) }) tokens else null
+}
+
+/**
+ * Add the CPD tokens stored in the cache during a previous analysis to [cpdTokens], without saving them.
+ * The tokens are decoded one at a time, so that no list of tokens is built.
+ *
+ * @receiver ReadCache
+ * @param file The input file for which CPD tokens should be loaded
+ * @return false if no entry can be found for the file, or if the entry cannot be decoded, in which case some tokens
+ * may have been added already
+ */
+fun ReadCache.loadCPDTokens(file: InputFile, cpdTokens: NewCpdTokens): Boolean =
+    decodeCPDTokens(file) { range, text -> cpdTokens.addToken(range, text) }
+
+private fun ReadCache.decodeCPDTokens(file: InputFile, onToken: (TextRange, String) -> Unit): Boolean {
     val key = computeCPDTokensCacheKey(file)
     if (!contains(key)) {
-        return null
+        return false
+    }
+    return try {
+        read(key).buffered().use { decode(file, it, onToken) }
+    } catch (e: IOException) {
+        LOG.debug { "Could not read CPD tokens under key $key in cache: ${e.message}" }
+        false
+    } catch (e: IllegalArgumentException) {
+        // Thrown by InputFile.newRange for a range which is not in the file anymore
+        LOG.debug { "Could not read CPD tokens under key $key in cache: ${e.message}" }
+        false
     }
-    val serialized = read(key).readAllBytes()
-    return deserialize(file, serialized)
 }
 
 /**
@@ -86,13 +124,85 @@ fun WriteCache.copyCPDTokensFromPrevious(file: InputFile): String {
 
 internal fun computeCPDTokensCacheKey(file: InputFile) = "kotlin:cpdTokens:${file.key()}"
 
-internal fun serialize(tokens: List<CPDToken>): ByteArray =
-    tokens.joinToString(separator = DELIMITER.toString()) {
-        "${it.range.start().line()},${it.range.start().lineOffset()},${it.range.end().line()},${
-            it.range.end().lineOffset()
-        },${it.text}"
-    }.encodeToByteArray()
+/**
+ * Serializes the tokens in a compact binary format:
+ * - the distinct texts of the tokens, once each, as most of the texts are repeated keywords, operators and identifiers
+ * - for each token, the line of its start relative to the start of the previous token, the line of its end relative to
+ * its start, its offsets in their lines, and the index of its text
+ * All the numbers are variable-length integers, so that a token usually takes 5 bytes.
+ */
+internal fun serialize(tokens: List<CPDToken>): ByteArray {
+    val textIndexes = LinkedHashMap<String, Int>()
+    tokens.forEach { textIndexes.putIfAbsent(it.text, textIndexes.size) }
+    val bytes = ByteArrayOutputStream()
+    DataOutputStream(bytes).use { output ->
+        output.writeInt(MAGIC)
+        output.writeVarInt(FORMAT_VERSION)
+        output.writeVarInt(textIndexes.size)
+        textIndexes.keys.forEach { text ->
+            val encoded = text.encodeToByteArray()
+            output.writeVarInt(encoded.size)
+            output.write(encoded)
+        }
+        output.writeVarInt(tokens.size)
+        var previousLine = 0
+        tokens.forEach { token ->
+            val start = token.range.start()
+            val end = token.range.end()
+            output.writeVarInt(start.line() - previousLine)
+            output.writeVarInt(start.lineOffset())
+            output.writeVarInt(end.line() - start.line())
+            output.writeVarInt(end.lineOffset())
+            output.writeVarInt(textIndexes.getValue(token.text))
+            previousLine = start.line()
+        }
+    }
+    return bytes.toByteArray()
+}
+
+/**
+ * Decodes the tokens of [input], in the binary format of [serialize] or in the text format of the previous versions.
+ */
+private fun decode(file: InputFile, input: BufferedInputStream, onToken: (TextRange, String) -> Unit): Boolean {
+    input.mark(Int.SIZE_BYTES)
+    val header = input.readNBytes(Int.SIZE_BYTES)
+    if (header.size < Int.SIZE_BYTES || ByteBuffer.wrap(header).getInt() != MAGIC) {
+        input.reset()
+        deserialize(file, input.readAllBytes()).forEach { onToken(it.range, it.text) }
+        return true
+    }
+    val data = DataInputStream(input)
+    if (data.readVarInt() != FORMAT_VERSION) {
+        return false
+    }
+    // The texts are not preallocated from their count, which is only checked against the end of the entry
+    val texts = ArrayList<String>()
+    repeat(data.readCount()) {
+        texts.add(String(data.readNBytes(data.readCount()), Charsets.UTF_8))
+    }
+    var previousLine = 0
+    repeat(data.readCount()) {
+        val startLine = previousLine + data.readVarInt()
+        val startOffset = data.readVarInt()
+        val endLine = startLine + data.readVarInt()
+        val endOffset = data.readVarInt()
+        val textIndex = data.readVarInt()
+        if (textIndex !in texts.indices) {
+            throw IOException("Text index $textIndex out of ${texts.size} text(s)")
+        }
+        onToken(file.newRange(startLine, startOffset, endLine, endOffset), texts[textIndex])
+        previousLine = startLine
+    }
+    return true
+}
 
+private fun DataInputStream.readCount(): Int =
+    readVarInt().also { if (it < 0) throw IOException("Negative count $it") }
+
+/**
+ * Deserializes the text format of the previous versions: the tokens separated by [DELIMITER], each one made of the
+ * lines and offsets of its range and of its text, separated by commas.
+ */
 internal fun deserialize(inputFile: InputFile, serialized: ByteArray): List<CPDToken> {
     val stringTokens = serialized.decodeToString().split(DELIMITER)
     return stringTokens.mapNotNull { stringToCPDToken(inputFile, it) }.also {
@@ -26,48 +26,51 @@ import org.jetbrains.kotlin.psi.KtImportDirective
 import org.jetbrains.kotlin.psi.KtImportList
 import org.jetbrains.kotlin.psi.KtPackageDirective
 import org.jetbrains.kotlin.psi.KtStringTemplateExpression
-import org.jetbrains.kotlin.psi.psiUtil.allChildren
 import org.slf4j.LoggerFactory
 import org.sonar.api.batch.fs.InputFile
 import org.sonar.api.batch.fs.TextRange
 import org.sonar.api.batch.sensor.SensorContext
+import org.sonar.api.batch.sensor.cpd.NewCpdTokens
 import org.sonarsource.kotlin.api.checks.hasCacheEnabled
 import org.sonarsource.kotlin.api.reporting.KotlinTextRanges.textRange
+import org.sonarsource.kotlin.api.frontend.FlatTree
 import org.sonarsource.kotlin.api.frontend.KotlinFileContext
-import org.sonarsource.kotlin.api.visiting.KotlinFileVisitor
+import org.sonarsource.kotlin.api.visiting.FlatTreeVisitor
 
 private val LOG = LoggerFactory.getLogger(CopyPasteDetector::class.java)
 
-class CopyPasteDetector : KotlinFileVisitor() {
-    override fun visit(kotlinFileContext: KotlinFileContext) {
-        val sensorContext = kotlinFileContext.inputFileContext.sensorContext
-        val cpdTokens = sensorContext.newCpdTokens().onFile(kotlinFileContext.inputFileContext.inputFile)
+class CopyPasteDetector : FlatTreeVisitor() {
 
-        val tokens = collectCpdRelevantNodes(kotlinFileContext.ktFile).map { node ->
-            val text = if (node is KtStringTemplateExpression) "LITERAL" else node.text
-            val cpdToken = CPDToken(kotlinFileContext.textRange(node), text)
-            cpdTokens.addToken(cpdToken.range, cpdToken.text)
-            cpdToken
-        }
+    override val isSyntaxOnly = true
 
-        cpdTokens.save()
+    private lateinit var cpdTokens: NewCpdTokens
+    private var tokens = mutableListOf<CPDToken>()
 
-        cacheTokensForNextAnalysis(sensorContext, kotlinFileContext.inputFileContext.inputFile, tokens)
+    override fun beginFile(kotlinFileContext: KotlinFileContext) {
+        cpdTokens = kotlinFileContext.inputFileContext.sensorContext.newCpdTokens()
+            .onFile(kotlinFileContext.inputFileContext.inputFile)
+        tokens = mutableListOf()
     }
 
-    private fun collectCpdRelevantNodes(
-        node: PsiElement,
-        acc: MutableList<PsiElement> = mutableListOf()
-    ): List<PsiElement> {
-        if (!isExcludedFromCpd(node)) {
-            if ((node is LeafPsiElement && node !is PsiWhiteSpace) || node is KtStringTemplateExpression) {
-                acc.add(node)
-            } else {
-                node.allChildren.forEach { collectCpdRelevantNodes(it, acc) }
-            }
+    override fun visitNode(tree: FlatTree, index: Int, kotlinFileContext: KotlinFileContext): Int {
+        val node = tree.node(index)
+        if (isExcludedFromCpd(node)) {
+            return tree.subtreeEnd(index)
+        }
+        if ((node is LeafPsiElement && node !is PsiWhiteSpace) || node is KtStringTemplateExpression) {
+            val text = if (node is KtStringTemplateExpression) "LITERAL" else node.text
+            val cpdToken = CPDToken(kotlinFileContext.textRange(tree.startOffset(index), tree.endOffset(index)), text)
+            cpdTokens.addToken(cpdToken.range, cpdToken.text)
+            tokens.add(cpdToken)
+            return tree.subtreeEnd(index)
         }
+        return index + 1
+    }
+
+    override fun endFile(kotlinFileContext: KotlinFileContext) {
+        cpdTokens.save()
 
-        return acc
+        cacheTokensForNextAnalysis(kotlinFileContext.inputFileContext.sensorContext, kotlinFileContext.inputFileContext.inputFile, tokens)
     }
 
     private fun isExcludedFromCpd(node: PsiElement) =
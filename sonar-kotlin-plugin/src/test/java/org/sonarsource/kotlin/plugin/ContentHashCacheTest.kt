@@ -23,6 +23,7 @@ import org.sonar.api.batch.sensor.cache.ReadCache
 import org.sonar.api.batch.sensor.cache.WriteCache
 import org.sonarsource.kotlin.testapi.DummyInputFile
 import org.sonarsource.kotlin.plugin.caching.ContentHashCache
+import org.sonarsource.kotlin.api.sensors.SourceContentStore
 import org.sonarsource.kotlin.testapi.AbstractSensorTest
 import java.nio.file.Path
 import java.security.MessageDigest
@@ -40,20 +41,20 @@ class ContentHashCacheTest : AbstractSensorTest() {
     @Test
     fun `test stored contents are present`() {
         val contentHashCache = contentHashCacheOf("kotlin:contentHash:MD5:DummyFile.kt", fileHash)
-        assertThat(contentHashCache?.hasDifferentContentCached(dummyFile)).isFalse
+        assertThat(contentHashCache?.hasDifferentContentCached(dummyFile, SourceContentStore())).isFalse
     }
 
     @Test
     fun `test non-stored contents are not present`() {
         val contentHashCache = emptyContentHashCache()
-        assertThat(contentHashCache?.hasDifferentContentCached(dummyFile)).isTrue
+        assertThat(contentHashCache?.hasDifferentContentCached(dummyFile, SourceContentStore())).isTrue
     }
 
     @Test
     fun `test changed file detection`() {
         val key = "kotlin:contentHash:MD5:DummyFileChanged.kt"
         val contentHashCache = contentHashCacheOf(key, fileHash)
-        assertThat(contentHashCache?.hasDifferentContentCached(dummyFileChanged)).isTrue
+        assertThat(contentHashCache?.hasDifferentContentCached(dummyFileChanged, SourceContentStore())).isTrue
     }
 
     @Test
@@ -62,10 +63,19 @@ class ContentHashCacheTest : AbstractSensorTest() {
         val writeCache = DummyWriteCache()
         writeCache.write("kotlin:contentHash:MD5:DummyFile.kt", fileHash)
         val contentHashCache = cacheFromContextData(readCache, writeCache, true)
-        contentHashCache?.hasDifferentContentCached(dummyFile)
+        contentHashCache?.hasDifferentContentCached(dummyFile, SourceContentStore())
         assertThat(logTester.logs(Level.WARN)).contains("Cache already contains key kotlin:contentHash:MD5:DummyFile.kt")
     }
 
+    @Test
+    fun `test precomputed hashes are compared with the stored ones`() {
+        val contentHashCache = contentHashCacheOf("kotlin:contentHash:MD5:DummyFile.kt", fileHash)
+        val sourceContents = SourceContentStore()
+        contentHashCache?.precomputeHashes(listOf(dummyFile, dummyFileChanged), sourceContents, 2)
+        assertThat(contentHashCache?.hasDifferentContentCached(dummyFile, sourceContents)).isFalse
+        assertThat(contentHashCache?.hasDifferentContentCached(dummyFileChanged, sourceContents)).isTrue
+    }
+
     @Test
     fun `contentHashCache state is consistent with sensor context`() {
         val contentHashCacheEnabled = emptyContentHashCache()
@@ -0,0 +1,139 @@
+/*
+ * SonarSource Kotlin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.kotlin.plugin
+
+import com.intellij.openapi.util.Disposer
+import org.assertj.core.api.Assertions.assertThat
+import org.jetbrains.kotlin.config.LanguageVersion
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import org.sonar.api.batch.fs.InputFile
+import org.sonarsource.kotlin.api.checks.InputFileContextImpl
+import org.sonarsource.kotlin.api.frontend.Environment
+import org.sonarsource.kotlin.api.sensors.SourceContentStore
+import org.sonarsource.kotlin.plugin.caching.DependencyGraph
+import org.sonarsource.kotlin.plugin.caching.DependencyRecorder
+import org.sonarsource.kotlin.testapi.AbstractSensorTest
+import org.sonarsource.kotlin.testapi.kotlinTreeOf
+
+class DependencyGraphTest : AbstractSensorTest() {
+
+    private val disposable = Disposer.newDisposable()
+
+    @AfterEach
+    fun dispose() {
+        Disposer.dispose(disposable)
+    }
+
+    private val environment by lazy { Environment(disposable, emptyList(), LanguageVersion.LATEST_STABLE) }
+
+    @Test
+    fun `unchanged files are not invalidated`() {
+        val files = listOf(fileA(), fileB(), fileC(), fileD())
+        val previousCache = analyze(emptyMap(), files)
+
+        val graph = graphOf(previousCache, listOf(fileA(), fileB(), fileC(), fileD()))
+
+        assertThat(files.filter { graph.isInvalidated(it) }).isEmpty()
+    }
+
+    @Test
+    fun `files are invalidated when they depend on a changed file, directly or transitively`() {
+        val previousCache = analyze(emptyMap(), listOf(fileA(), fileB(), fileC(), fileD()))
+        val files = listOf(fileA("class A { fun a() = 42 }"), fileB(), fileC(), fileD())
+
+        val graph = graphOf(previousCache, files)
+
+        assertThat(files.filter { graph.isInvalidated(it) }.map { it.filename() })
+            .containsExactlyInAnyOrder("a.kt", "b.kt", "c.kt")
+    }
+
+    @Test
+    fun `files are invalidated when a file of a package they use is added or removed`() {
+        val previousCache = analyze(emptyMap(), listOf(fileA(), fileB(), fileC(), fileD()))
+
+        val withoutA = listOf(fileB(), fileC(), fileD())
+        assertThat(withoutA.filter { graphOf(previousCache, withoutA).isInvalidated(it) }.map { it.filename() })
+            .containsExactlyInAnyOrder("b.kt", "c.kt")
+
+        val withNewFile = listOf(fileA(), fileB(), fileC(), fileD(), createInputFile("e.kt", "package s\n\nfun e() = 1\n"))
+        assertThat(withNewFile.filter { graphOf(previousCache, withNewFile).isInvalidated(it) }.map { it.filename() })
+            .containsExactlyInAnyOrder("d.kt", "e.kt")
+    }
+
+    @Test
+    fun `all files are invalidated without a previous graph`() {
+        val files = listOf(fileA(), fileD())
+
+        val graph = graphOf(mapOf("kotlin:dependencyGraph" to byteArrayOf(1, 2, 3)), files)
+
+        assertThat(files).allMatch { graph.isInvalidated(it) }
+    }
+
+    @Test
+    fun `unchanged files which are not analyzed keep their dependencies`() {
+        val previousCache = analyze(emptyMap(), listOf(fileA(), fileB(), fileC(), fileD()))
+        // Only d.kt is analyzed again
+        val nextCache = analyze(previousCache, listOf(fileD()), currentFiles = listOf(fileA(), fileB(), fileC(), fileD()))
+        val files = listOf(fileA("class A { fun a() = 42 }"), fileB(), fileC(), fileD())
+
+        val graph = graphOf(nextCache, files)
+
+        assertThat(files.filter { graph.isInvalidated(it) }.map { it.filename() })
+            .containsExactlyInAnyOrder("a.kt", "b.kt", "c.kt")
+    }
+
+    private fun fileA(content: String = "class A { fun a() = 1 }") = createInputFile("a.kt", "package p\n\n$content\n")
+
+    // Uses p through a fully qualified name
+    private fun fileB() = createInputFile("b.kt", "package q\n\nfun b() = p.A().a()\n")
+
+    private fun fileC() = createInputFile("c.kt", "package r\n\nimport q.b\n\nfun c() = b()\n")
+
+    private fun fileD() = createInputFile("d.kt", "package s\n\nfun d() = 1\n")
+
+    /**
+     * @return the cache written by the analysis of the given files
+     */
+    private fun analyze(
+        previousCache: Map<String, ByteArray>,
+        files: List<InputFile>,
+        currentFiles: List<InputFile> = files,
+    ): Map<String, ByteArray> {
+        val writeCache = DummyWriteCache()
+        val sourceContents = SourceContentStore()
+        val graph = graphOf(previousCache, currentFiles, writeCache, sourceContents)
+        files.forEach { inputFile ->
+            val tree = kotlinTreeOf(inputFile.contents(), environment, inputFile)
+            DependencyRecorder(graph).scan(InputFileContextImpl(context, inputFile, false), tree)
+        }
+        graph.save()
+        return writeCache.cache
+    }
+
+    private fun graphOf(
+        previousCache: Map<String, ByteArray>,
+        currentFiles: List<InputFile>,
+        writeCache: DummyWriteCache = DummyWriteCache(),
+        sourceContents: SourceContentStore = SourceContentStore(),
+    ): DependencyGraph {
+        context.setPreviousCache(DummyReadCache(previousCache))
+        context.setNextCache(writeCache)
+        context.isCacheEnabled = true
+        return DependencyGraph.of(context, sourceContents, currentFiles)!!
+    }
+}
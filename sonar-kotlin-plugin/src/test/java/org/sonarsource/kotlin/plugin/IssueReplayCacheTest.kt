@@ -0,0 +1,136 @@
+/*
+ * SonarSource Kotlin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.kotlin.plugin
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import org.sonar.api.batch.fs.InputFile
+import org.sonar.api.rule.RuleKey
+import org.sonarsource.kotlin.api.checks.InputFileContextImpl
+import org.sonarsource.kotlin.api.reporting.Message
+import org.sonarsource.kotlin.api.reporting.ReportedIssue
+import org.sonarsource.kotlin.api.reporting.SecondaryLocation
+import org.sonarsource.kotlin.api.sensors.SourceContentStore
+import org.sonarsource.kotlin.plugin.caching.IssueReplayCache
+import org.sonarsource.kotlin.testapi.AbstractSensorTest
+
+class IssueReplayCacheTest : AbstractSensorTest() {
+
+    // Lazy, as the files are created in the base directory of each test
+    private val inputFile by lazy { createInputFile("file1.kt", "fun main() {\n    print(1 == 1)\n}\n") }
+
+    private val issues by lazy {
+        listOf(
+            ReportedIssue(
+                RuleKey.of("kotlin", "S1764"),
+                inputFile.newRange(2, 10, 2, 16),
+                Message("Correct one of the identical sub-expressions.", listOf(0 to 7)),
+                listOf(SecondaryLocation(inputFile.newRange(2, 15, 2, 16)), SecondaryLocation(inputFile.newRange(2, 10, 2, 11), "first")),
+                2.5,
+            ),
+            ReportedIssue(RuleKey.of("kotlin", "S100"), null, Message("File level issue"), emptyList(), null),
+        )
+    }
+
+    @Test
+    fun `issues stored by an analysis are replayed by the next one`() {
+        val writeCache = storeIssues(inputFile)
+
+        val replayed = issueReplayCache(writeCache.cache)!!.previousIssues(inputFileContext(inputFile))
+
+        assertThat(replayed).hasSize(2)
+        assertThat(replayed!![0].ruleKey).isEqualTo(issues[0].ruleKey)
+        assertThat(replayed[0].textRange).isEqualTo(issues[0].textRange)
+        assertThat(replayed[0].message.text).isEqualTo(issues[0].message.text)
+        assertThat(replayed[0].message.ranges).isEqualTo(issues[0].message.ranges)
+        assertThat(replayed[0].secondaryLocations).isEqualTo(issues[0].secondaryLocations)
+        assertThat(replayed[0].gap).isEqualTo(2.5)
+        assertThat(replayed[1].textRange).isNull()
+        assertThat(replayed[1].gap).isNull()
+    }
+
+    @Test
+    fun `issues are not replayed when the file changed`() {
+        val writeCache = storeIssues(inputFile)
+        val changedFile = createInputFile("file1.kt", "fun main() {\n    print(1 == 2)\n}\n", InputFile.Status.CHANGED)
+
+        assertThat(issueReplayCache(writeCache.cache)!!.previousIssues(inputFileContext(changedFile))).isNull()
+    }
+
+    @Test
+    fun `issues are not replayed when the active rules changed`() {
+        val writeCache = storeIssues(inputFile)
+        checkFactory("S1764")
+
+        assertThat(issueReplayCache(writeCache.cache)!!.previousIssues(inputFileContext(inputFile))).isNull()
+    }
+
+    @Test
+    fun `issues are not replayed by another version of the plugin`() {
+        val writeCache = storeIssues(inputFile)
+
+        val otherVersion = issueReplayCache(writeCache.cache, pluginVersion = "4.5.6")!!
+
+        assertThat(otherVersion.previousIssues(inputFileContext(inputFile))).isNull()
+    }
+
+    @Test
+    fun `issues are not replayed with another JDK`() {
+        val fingerprint = IssueReplayCache.analysisFingerprint(context, emptyList(), "1.2.3")
+        val javaHome = System.getProperty("java.home")
+        try {
+            System.setProperty("java.home", "$javaHome-other")
+            assertThat(IssueReplayCache.analysisFingerprint(context, emptyList(), "1.2.3")).isNotEqualTo(fingerprint)
+        } finally {
+            System.setProperty("java.home", javaHome)
+        }
+    }
+
+    @Test
+    fun `issues are not replayed from a corrupted entry`() {
+        val cache = mapOf("kotlin:issues:moduleKey:file1.kt" to byteArrayOf(1, 2, 3))
+
+        assertThat(issueReplayCache(cache)!!.previousIssues(inputFileContext(inputFile))).isNull()
+    }
+
+    @Test
+    fun `issue replay cache is disabled when the cache is disabled or the plugin version is unknown`() {
+        assertThat(issueReplayCache(emptyMap(), pluginVersion = "unknown")).isNull()
+        context.isCacheEnabled = false
+        assertThat(IssueReplayCache.of(context, SourceContentStore(), emptyList(), null, "1.2.3")).isNull()
+    }
+
+    private fun storeIssues(inputFile: InputFile): DummyWriteCache {
+        val writeCache = DummyWriteCache()
+        issueReplayCache(emptyMap(), writeCache = writeCache)!!.store(inputFileContext(inputFile), issues)
+        assertThat(writeCache.cache).containsOnlyKeys("kotlin:issues:moduleKey:file1.kt")
+        return writeCache
+    }
+
+    private fun issueReplayCache(
+        previousCache: Map<String, ByteArray>,
+        pluginVersion: String = "1.2.3",
+        writeCache: DummyWriteCache = DummyWriteCache(),
+    ): IssueReplayCache? {
+        context.setPreviousCache(DummyReadCache(previousCache))
+        context.setNextCache(writeCache)
+        context.isCacheEnabled = true
+        return IssueReplayCache.of(context, SourceContentStore(), emptyList(), null, pluginVersion)
+    }
+
+    private fun inputFileContext(inputFile: InputFile) = InputFileContextImpl(context, inputFile, false)
+}
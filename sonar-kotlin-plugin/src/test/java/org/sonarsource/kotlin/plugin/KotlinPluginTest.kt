@@ -42,7 +42,7 @@ internal class KotlinPluginTest {
 
     @Test
     fun testSonarQube() {
-        testSonarQube(20)
+        testSonarQube(21)
     }
 
     @Test
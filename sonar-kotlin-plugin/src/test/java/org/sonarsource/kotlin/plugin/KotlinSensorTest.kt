@@ -46,19 +46,28 @@ import org.sonar.api.notifications.AnalysisWarnings
 import org.sonar.api.utils.Version
 import org.sonar.check.Rule
 import org.sonarsource.kotlin.api.checks.AbstractCheck
+import org.sonarsource.kotlin.api.common.ANALYSIS_THREADS_PROPERTY
+import org.sonarsource.kotlin.api.common.PERFORMANCE_MEASURE_ACTIVATION_PROPERTY
+import org.sonarsource.kotlin.api.common.PERFORMANCE_MEASURE_DESTINATION_FILE
+import org.sonarsource.kotlin.api.common.PROJECT_LEVEL_ANALYSIS_PROPERTY
 import org.sonarsource.kotlin.api.common.FAIL_FAST_PROPERTY_NAME
 import org.sonarsource.kotlin.api.common.SONAR_ANDROID_DETECTED
 import org.sonarsource.kotlin.api.common.SONAR_JAVA_BINARIES
+import org.sonarsource.kotlin.api.common.SYNTAX_ONLY_ANALYSIS_PROPERTY
 import org.sonarsource.kotlin.api.frontend.KotlinFileContext
 import org.sonarsource.kotlin.api.frontend.KotlinSyntaxStructure
+import org.sonarsource.kotlin.plugin.caching.CachedMeasures
 import org.sonarsource.kotlin.plugin.caching.contentHashKey
+import org.sonarsource.kotlin.plugin.caching.serializeMeasures
 import org.sonarsource.kotlin.plugin.cpd.computeCPDTokensCacheKey
 import org.sonarsource.kotlin.testapi.AbstractSensorTest
 import java.io.File
 import java.io.IOException
 import java.io.InputStream
 import java.security.MessageDigest
+import kotlin.io.path.createDirectories
 import kotlin.time.ExperimentalTime
+import org.sonarsource.kotlin.metrics.FileMeasures
 import org.sonarsource.kotlin.metrics.TelemetryData
 
 private val LOG = LoggerFactory.getLogger(KotlinSensor::class.java)
@@ -112,6 +121,35 @@ internal class KotlinSensorTest : AbstractSensorTest() {
         assertTextRange(location.textRange()).hasRange(2, 12, 2, 13)
     }
 
+    @Test
+    fun `syntax-only analysis runs the syntax-only checks without a compiler session`() {
+        logTester.setLevel(Level.DEBUG)
+        val inputFile = createInputFile(
+            "file1.kt", "fun main(args: Array<String>) {\n\tprint (1 == 1)\n}"
+        )
+        context.fileSystem().add(inputFile)
+        context.setSettings(MapSettings().apply { setProperty(SYNTAX_ONLY_ANALYSIS_PROPERTY, "true") })
+
+        sensor(checkFactory("S1764", "S105")).execute(context)
+
+        assertThat(context.allIssues()).extracting<String> { it.ruleKey().rule() }.containsExactly("S105")
+        assertThat(context.measure(inputFile.key(), CoreMetrics.NCLOC)?.value()).isEqualTo(3)
+        assertThat(logTester.logs(Level.DEBUG))
+            .contains("Parsing the Kotlin files without a compiler session, all the visitors are syntax-only")
+    }
+
+    @Test
+    fun `the durations of the visitors are measured without the performance measures`() {
+        logTester.setLevel(Level.DEBUG)
+        context.fileSystem().add(createInputFile("file1.kt", "fun main(args: Array<String>) {\n\tprint (1 == 1)\n}"))
+
+        sensor(checkFactory("S1764")).execute(context)
+
+        assertThat(logTester.logs(Level.DEBUG))
+            .anyMatch { it.startsWith("Slowest visitors: ") && it.contains("KtChecksVisitor") }
+        assertThat(logTester.logs(Level.DEBUG)).noneMatch { it.contains("Slowest checks") }
+    }
+
     @Test
     fun test_no_rules_executed_for_Kotlin_scripts() {
         val inputFile = createInputFile(
@@ -325,6 +363,99 @@ internal class KotlinSensorTest : AbstractSensorTest() {
         assertThat(telemetryData.parseFailures).isEqualTo(2)
     }
 
+    @Test
+    fun `parallel analysis reports the same issues in the same order as the serial analysis`() {
+        val serialIssues = analyzeFilesWithIdenticalOperands(threads = null)
+        context = SensorContextTester.create(baseDir.toRealPath())
+        val parallelIssues = analyzeFilesWithIdenticalOperands(threads = 4)
+
+        assertThat(serialIssues).hasSize(12)
+        assertThat(parallelIssues).containsExactlyElementsOf(serialIssues)
+        assertThat(logTester.logs(Level.INFO)).contains("Analyzing Kotlin files with 4 threads")
+    }
+
+    private fun analyzeFilesWithIdenticalOperands(threads: Int?): List<String> {
+        threads?.let { context.setSettings(MapSettings().apply { setProperty(ANALYSIS_THREADS_PROPERTY, it.toString()) }) }
+        (1..6).forEach {
+            context.fileSystem().add(
+                createInputFile(
+                    "file$it.kt", """
+                    fun main(a: Int) {
+                        print(a == a); print($it == $it)
+                    }
+                    """.trimIndent()
+                )
+            )
+        }
+        val telemetryData = TelemetryData()
+        KotlinSensor(
+            checkFactory("S1764"), fileLinesContextFactory, DefaultNoSonarFilter(), language(), telemetryData, emptyArray(),
+            analysisWarnings
+        ).execute(context)
+        assertThat(telemetryData.filesProcessed).isEqualTo(6)
+        return context.allIssues().map {
+            val location = it.primaryLocation()
+            "${location.inputComponent()}:${location.textRange()}:${location.message()}"
+        }
+    }
+
+    @Test
+    fun `project-level analysis analyzes the files of all the modules in the project sensor`() {
+        val telemetryData = TelemetryData()
+        val projectAnalysis = KotlinProjectAnalysis(
+            checkFactory("S1764"), fileLinesContextFactory, DefaultNoSonarFilter(), language(), telemetryData, emptyArray(),
+            analysisWarnings
+        )
+        val moduleSensor = KotlinSensor(
+            checkFactory("S1764"), fileLinesContextFactory, DefaultNoSonarFilter(), language(), telemetryData, emptyArray(),
+            analysisWarnings, projectAnalysis
+        )
+        listOf("module1", "module2").forEach { module ->
+            val moduleContext = SensorContextTester.create(baseDir.resolve(module).createDirectories().toRealPath())
+            moduleContext.setSettings(MapSettings().apply { setProperty(PROJECT_LEVEL_ANALYSIS_PROPERTY, "true") })
+            moduleContext.fileSystem().add(createInputFile("$module/A.kt", "fun main(a: Int) { print(a == a) }"))
+            moduleSensor.execute(moduleContext)
+            assertThat(moduleContext.allIssues()).isEmpty()
+        }
+
+        KotlinProjectSensor(telemetryData, projectAnalysis).execute(context)
+
+        assertThat(context.allIssues())
+            .extracting<String> { it.primaryLocation().inputComponent().key() }
+            .containsExactlyInAnyOrder("moduleKey:module1/A.kt", "moduleKey:module2/A.kt")
+        assertThat(telemetryData.filesProcessed).isEqualTo(2)
+        assertThat(logTester.logs(Level.INFO))
+            .contains("Analyzing the Kotlin files of 2 modules in a single compiler session")
+    }
+
+    @Test
+    fun `project-level analysis writes the performance measure report`() {
+        val telemetryData = TelemetryData()
+        val projectAnalysis = KotlinProjectAnalysis(
+            checkFactory("S1764"), fileLinesContextFactory, DefaultNoSonarFilter(), language(), telemetryData, emptyArray(),
+            analysisWarnings
+        )
+        val moduleSensor = KotlinSensor(
+            checkFactory("S1764"), fileLinesContextFactory, DefaultNoSonarFilter(), language(), telemetryData, emptyArray(),
+            analysisWarnings, projectAnalysis
+        )
+        val moduleContext = SensorContextTester.create(baseDir.resolve("module1").createDirectories().toRealPath())
+        moduleContext.setSettings(MapSettings().apply { setProperty(PROJECT_LEVEL_ANALYSIS_PROPERTY, "true") })
+        moduleContext.fileSystem().add(createInputFile("module1/A.kt", "fun main(a: Int) { print(a == a) }"))
+        moduleSensor.execute(moduleContext)
+        val report = baseDir.resolve("performance.measure.json").toFile()
+        context.setSettings(MapSettings().apply {
+            setProperty(PERFORMANCE_MEASURE_ACTIVATION_PROPERTY, "true")
+            setProperty(PERFORMANCE_MEASURE_DESTINATION_FILE, report.path)
+        })
+
+        KotlinProjectSensor(telemetryData, projectAnalysis).execute(context)
+
+        assertThat(context.allIssues()).hasSize(1)
+        assertThat(report).exists()
+        assertThat(report.readText()).contains("KotlinSensor")
+    }
+
     @Test
     fun test_with_classpath() {
         val settings = MapSettings()
@@ -489,6 +620,19 @@ internal class KotlinSensorTest : AbstractSensorTest() {
         assertDoesNotThrow { sensor(checkFactory("S1764")).execute(context) }
     }
 
+    @Test
+    fun `a constructor called through a type alias declared in another file is matched`() {
+        context.fileSystem().add(createInputFile("aliases.kt", "typealias Pool = java.util.concurrent.ScheduledThreadPoolExecutor"))
+        val inputFile = createInputFile("file1.kt", "fun f() = Pool(0)")
+        context.fileSystem().add(inputFile)
+
+        sensor(checkFactory("S2122")).execute(context)
+
+        assertThat(context.allIssues())
+            .extracting<String> { it.primaryLocation().inputComponent().key() }
+            .containsExactly(inputFile.key())
+    }
+
     @Test
     fun `setting android_detected property to true triggers AndroidOnly check`() {
         val sensor = prepareSensorForAndroid(androidDetected = "true")
@@ -540,6 +684,48 @@ internal class KotlinSensorTest : AbstractSensorTest() {
     }
 
 
+    @Test
+    fun `the kotlin sensor saves the cached measures of the skipped files`() {
+        val files = incrementalAnalysisFileSet()
+
+        assertAnalysisIsIncremental(files)
+
+        val unchangedFile = files[InputFile.Status.SAME]!!
+        assertThat(context.measure(unchangedFile.key(), CoreMetrics.NCLOC).value()).isEqualTo(1)
+        assertThat(context.measure(unchangedFile.key(), CoreMetrics.FUNCTIONS).value()).isEqualTo(1)
+        assertThat(context.measure(unchangedFile.key(), CoreMetrics.COMPLEXITY).value()).isEqualTo(1)
+        assertThat((context.nextCache() as DummyWriteCache).cache).containsKey("kotlin:measures:${unchangedFile.key()}")
+    }
+
+    @Test
+    fun `the kotlin sensor keeps the cached issues of the skipped files for the next analysis`() {
+        val files = incrementalAnalysisFileSet()
+        val unchangedFile = files[InputFile.Status.SAME]!!
+        val previousCache = context.previousCache() as DummyReadCache
+        val issues = byteArrayOf(1, 2, 3)
+        val readCache = DummyReadCache(previousCache.cache + ("kotlin:issues:${unchangedFile.key()}" to issues))
+        context.setPreviousCache(readCache)
+        context.setNextCache(DummyWriteCache(readCache = readCache))
+
+        assertAnalysisIsIncremental(files)
+        assertThat((context.nextCache() as DummyWriteCache).cache["kotlin:issues:${unchangedFile.key()}"]).isEqualTo(issues)
+    }
+
+    @Test
+    fun `the kotlin sensor does not optimize analysis when the measures of a file are missing from the previous analysis cache`() {
+        val files = incrementalAnalysisFileSet()
+        val unchangedFile = files[InputFile.Status.SAME]!!
+        val previousCache = context.previousCache() as DummyReadCache
+        val readCache = DummyReadCache(previousCache.cache - "kotlin:measures:${unchangedFile.key()}")
+        context.setPreviousCache(readCache)
+        context.setNextCache(DummyWriteCache(readCache = readCache))
+
+        assertAnalysisIsNotIncremental(files)
+        // The measures are computed again, and cached for the next analysis
+        assertThat(context.measure(unchangedFile.key(), CoreMetrics.NCLOC).value()).isEqualTo(1)
+        assertThat((context.nextCache() as DummyWriteCache).cache).containsKey("kotlin:measures:${unchangedFile.key()}")
+    }
+
     @Test
     fun `the kotlin sensor optimizes analyses in contexts where sonar-kotlin-skipUnchanged is true`() {
         logTester.setLevel(Level.DEBUG)
@@ -715,6 +901,7 @@ internal class KotlinSensorTest : AbstractSensorTest() {
         val sameKeyFile = spyk(files[InputFile.Status.SAME]!!)
         every { sameKeyFile.key() } returns changedFile.key()
         every { sameKeyFile.contents() } returns changedFile.contents()
+        every { sameKeyFile.inputStream() } answers { changedFile.inputStream() }
         context.fileSystem().add(sameKeyFile)
         val checkFactory = checkFactory("S1764")
         sensor(checkFactory).execute(context)
@@ -850,6 +1037,11 @@ internal class KotlinSensorTest : AbstractSensorTest() {
                 }
                 // Add CPD tokens
                 cacheContentBeforeAnalysis["kotlin:cpdTokens:${it.key()}"] = ByteArray(0)
+                // Add measures
+                cacheContentBeforeAnalysis["kotlin:measures:${it.key()}"] = serializeMeasures(
+                    CachedMeasures(FileMeasures(setOf(1), 0, emptySet(), emptySet(), 1, 0, 1, 0, 0, false), emptyList()),
+                    "1.2.3-TEST",
+                )
             }
 
         context.isCacheEnabled = true
@@ -0,0 +1,171 @@
+/*
+ * SonarSource Kotlin
+ * Copyright (C) SonarSource Sàrl
+ * mailto:info AT sonarsource DOT com
+ *
+ * You can redistribute and/or modify this program under the terms of
+ * the Sonar Source-Available License Version 1, as published by SonarSource Sàrl.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the Sonar Source-Available License for more details.
+ *
+ * You should have received a copy of the Sonar Source-Available License
+ * along with this program; if not, see https://sonarsource.com/license/ssal/
+ */
+package org.sonarsource.kotlin.plugin
+
+import com.intellij.openapi.util.Disposer
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.jetbrains.kotlin.config.LanguageVersion
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import org.mockito.ArgumentMatchers
+import org.mockito.Mockito
+import org.sonar.api.batch.fs.InputFile
+import org.sonar.api.batch.sensor.highlighting.TypeOfText
+import org.sonar.api.issue.NoSonarFilter
+import org.sonar.api.measures.FileLinesContextFactory
+import org.sonarsource.kotlin.api.checks.InputFileContextImpl
+import org.sonarsource.kotlin.api.frontend.Environment
+import org.sonarsource.kotlin.api.visiting.VisitorBus
+import org.sonarsource.kotlin.metrics.FileMeasures
+import org.sonarsource.kotlin.metrics.Highlighting
+import org.sonarsource.kotlin.metrics.MetricVisitor
+import org.sonarsource.kotlin.metrics.SyntaxHighlighter
+import org.sonarsource.kotlin.metrics.TelemetryData
+import org.sonarsource.kotlin.plugin.caching.CachedMeasures
+import org.sonarsource.kotlin.plugin.caching.MeasuresRecorder
+import org.sonarsource.kotlin.plugin.caching.loadMeasures
+import org.sonarsource.kotlin.plugin.caching.storeMeasures
+import org.sonarsource.kotlin.testapi.AbstractSensorTest
+import org.sonarsource.kotlin.testapi.kotlinTreeOf
+
+class MeasuresCacheTest : AbstractSensorTest() {
+
+    private val disposable = Disposer.newDisposable()
+
+    @AfterEach
+    fun dispose() {
+        Disposer.dispose(disposable)
+    }
+
+    private val inputFile by lazy {
+        createInputFile(
+            "file1.kt", """
+            // NOSONAR
+            @Suppress("unused")
+            fun main() {
+                val text = "hello"
+                println(text)
+            }
+            """.trimIndent()
+        )
+    }
+
+    private val cachedMeasures by lazy {
+        CachedMeasures(
+            FileMeasures(
+                linesOfCode = setOf(2, 3, 4, 5, 6),
+                commentLines = 1,
+                nosonarLines = setOf(1),
+                executableLines = setOf(4, 5),
+                functions = 1,
+                classes = 0,
+                complexity = 1,
+                statements = 2,
+                cognitiveComplexity = 0,
+                hasAndroidImports = true,
+            ),
+            listOf(
+                Highlighting(inputFile.newRange(1, 0, 1, 10), TypeOfText.COMMENT),
+                Highlighting(inputFile.newRange(2, 0, 2, 19), TypeOfText.ANNOTATION),
+                Highlighting(inputFile.newRange(3, 0, 3, 3), TypeOfText.KEYWORD),
+                Highlighting(inputFile.newRange(4, 15, 4, 22), TypeOfText.STRING),
+            ),
+        )
+    }
+
+    @Test
+    fun `stored measures are loaded back`() {
+        val writeCache = DummyWriteCache()
+        writeCache.storeMeasures(inputFile, cachedMeasures, "1.2.3")
+
+        val loaded = DummyReadCache(writeCache.cache).loadMeasures(inputFile, "1.2.3")!!
+
+        with(loaded.measures) {
+            assertThat(linesOfCode).containsExactlyInAnyOrder(2, 3, 4, 5, 6)
+            assertThat(commentLines).isEqualTo(1)
+            assertThat(nosonarLines).containsExactly(1)
+            assertThat(executableLines).containsExactlyInAnyOrder(4, 5)
+            assertThat(functions).isEqualTo(1)
+            assertThat(classes).isZero()
+            assertThat(complexity).isEqualTo(1)
+            assertThat(statements).isEqualTo(2)
+            assertThat(cognitiveComplexity).isZero()
+            assertThat(hasAndroidImports).isTrue()
+        }
+        assertThat(loaded.highlightings).isEqualTo(cachedMeasures.highlightings)
+    }
+
+    @Test
+    fun `measures stored by another version of the plugin are not loaded`() {
+        val writeCache = DummyWriteCache()
+        writeCache.storeMeasures(inputFile, cachedMeasures, "1.2.3")
+
+        assertThat(DummyReadCache(writeCache.cache).loadMeasures(inputFile, "4.5.6")).isNull()
+    }
+
+    @Test
+    fun `missing or corrupted measures are not loaded`() {
+        assertThat(DummyReadCache(emptyMap()).loadMeasures(inputFile, "1.2.3")).isNull()
+
+        val corrupted = DummyReadCache(mapOf("kotlin:measures:${inputFile.key()}" to byteArrayOf(0x4b, 0x4d)))
+        assertThat(corrupted.loadMeasures(inputFile, "1.2.3")).isNull()
+    }
+
+    @Test
+    fun `measures are cached in a few bytes per line`() {
+        val writeCache = DummyWriteCache()
+        writeCache.storeMeasures(inputFile, cachedMeasures, "1.2.3")
+
+        assertThat(writeCache.cache.values.single().size).isLessThan(64)
+    }
+
+    @Test
+    fun `measures are recorded after the metrics and highlighting visitors`() {
+        val writeCache = DummyWriteCache()
+        context.setNextCache(writeCache)
+
+        scanWithRecorder(fileLinesContextFactory)
+
+        val loaded = DummyReadCache(writeCache.cache).loadMeasures(inputFile, "1.2.3")!!
+        assertThat(loaded.measures.linesOfCode).containsExactlyInAnyOrder(2, 3, 4, 5, 6)
+        assertThat(loaded.highlightings).isNotEmpty
+    }
+
+    @Test
+    fun `measures are not recorded when the metrics visitor fails`() {
+        val writeCache = DummyWriteCache()
+        context.setNextCache(writeCache)
+        val failingFactory = Mockito.mock(FileLinesContextFactory::class.java)
+        Mockito.`when`(failingFactory.createFor(ArgumentMatchers.any(InputFile::class.java)))
+            .thenThrow(IllegalStateException("Boom!"))
+
+        assertThatThrownBy { scanWithRecorder(failingFactory) }
+            .isInstanceOf(IllegalStateException::class.java)
+            .hasMessage("Boom!")
+
+        assertThat(writeCache.cache).isEmpty()
+    }
+
+    private fun scanWithRecorder(factory: FileLinesContextFactory) {
+        val metricVisitor = MetricVisitor(factory, Mockito.mock(NoSonarFilter::class.java), TelemetryData())
+        val syntaxHighlighter = SyntaxHighlighter(keepsHighlightings = true)
+        val bus = VisitorBus(listOf(metricVisitor, syntaxHighlighter, MeasuresRecorder(metricVisitor, syntaxHighlighter, "1.2.3")))
+        val environment = Environment(disposable, emptyList(), LanguageVersion.LATEST_STABLE)
+        bus.scan(InputFileContextImpl(context, inputFile, false), kotlinTreeOf(inputFile.contents(), environment, inputFile))
+    }
+}
@@ -18,6 +18,7 @@ package org.sonarsource.kotlin.plugin.cpd
 
 import io.mockk.every
 import io.mockk.mockk
+import io.mockk.verify
 import org.assertj.core.api.Assertions.assertThat
 import org.assertj.core.api.Assertions.assertThatThrownBy
 import org.junit.jupiter.api.Test
@@ -25,10 +26,14 @@ import org.junit.jupiter.api.extension.RegisterExtension
 import org.slf4j.event.Level
 import org.sonar.api.batch.fs.InputFile
 import org.sonar.api.batch.sensor.cache.ReadCache
+import org.sonar.api.batch.sensor.cpd.NewCpdTokens
 import org.sonar.api.testfixtures.log.LogTesterJUnit5
 import org.sonarsource.kotlin.testapi.DummyInputFile
 import org.sonarsource.kotlin.plugin.DummyReadCache
 import org.sonarsource.kotlin.plugin.DummyWriteCache
+import org.sonarsource.kotlin.plugin.caching.writeVarInt
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
 import java.nio.file.Path
 
 class CachingTest {
@@ -123,17 +128,77 @@ class CachingTest {
     }
 
     @Test
-    fun `serialize results can be reversed by deserialize`() {
-        val serialized = serialize(tokens)
+    fun `serialized tokens are loaded back`() {
+        val otherToken = CPDToken(file.newRange(3, 0, 3, 5), "class")
+        val readCache = DummyReadCache(mapOf("kotlin:cpdTokens:MyFile.kt" to serialize(listOf(token, otherToken, token))))
 
-        val expectedSerialized = byteArrayOf(
+        assertThat(readCache.loadCPDTokens(file)).containsExactly(token, otherToken, token)
+    }
+
+    @Test
+    fun `serialize writes each distinct text once`() {
+        val serialized = serialize(List(100) { CPDToken(file.newRange(1, 0, 1, 11), "package cpd") })
+        val legacySerialized = List(100) { "1,0,1,11,package cpd" }.joinToString(31.toChar().toString()).encodeToByteArray()
+
+        assertThat(serialized.size).isLessThan(legacySerialized.size / 3)
+        assertThat(serialized.decodeToString().windowed("package cpd".length).count { it == "package cpd" }).isEqualTo(1)
+    }
+
+    @Test
+    fun `loadCPDTokens adds the tokens to the given NewCpdTokens`() {
+        val readCache = DummyReadCache(mapOf("kotlin:cpdTokens:MyFile.kt" to serialize(tokens)))
+        val cpdTokens = mockk<NewCpdTokens>(relaxed = true)
+
+        assertThat(readCache.loadCPDTokens(file, cpdTokens)).isTrue()
+
+        verify(exactly = 2) { cpdTokens.addToken(token.range, token.text) }
+        verify(exactly = 0) { cpdTokens.save() }
+    }
+
+    @Test
+    fun `loadCPDTokens reads the tokens written in the text format`() {
+        val cpdTokens = mockk<NewCpdTokens>(relaxed = true)
+
+        assertThat(readCache.loadCPDTokens(file, cpdTokens)).isTrue()
+
+        verify(exactly = 1) { cpdTokens.addToken(token.range, token.text) }
+    }
+
+    @Test
+    fun `loadCPDTokens returns false when the tokens cannot be decoded`() {
+        val truncated = serialize(tokens).let { it.copyOf(it.size - 2) }
+        val readCache = DummyReadCache(mapOf("kotlin:cpdTokens:MyFile.kt" to truncated))
+
+        assertThat(readCache.loadCPDTokens(file, mockk(relaxed = true))).isFalse()
+        assertThat(readCache.loadCPDTokens(file)).isNull()
+        assertThat(DummyReadCache(mapOf()).loadCPDTokens(file, mockk(relaxed = true))).isFalse()
+    }
+
+    @Test
+    fun `loadCPDTokens returns false when a decoded value is out of range`() {
+        logTester.setLevel(Level.DEBUG)
+        val outOfRangeTextIndex = binaryEntry(textCount = 1, tokenCount = 1, textIndex = 5)
+        val negativeTextCount = binaryEntry(textCount = -1, tokenCount = 1, textIndex = 0)
+        val negativeTokenCount = binaryEntry(textCount = 1, tokenCount = -1, textIndex = 0)
+
+        listOf(outOfRangeTextIndex, negativeTextCount, negativeTokenCount).forEach { entry ->
+            val readCache = DummyReadCache(mapOf("kotlin:cpdTokens:MyFile.kt" to entry))
+            assertThat(readCache.loadCPDTokens(file, mockk(relaxed = true))).isFalse()
+            assertThat(readCache.loadCPDTokens(file)).isNull()
+        }
+        assertThat(logTester.logs(Level.DEBUG)).contains(
+            "Could not read CPD tokens under key kotlin:cpdTokens:MyFile.kt in cache: Text index 5 out of 1 text(s)"
+        )
+    }
+
+    @Test
+    fun `deserialize reads the text format`() {
+        val serialized = byteArrayOf(
             49, 44, 49, 44, 48, 44, 49, 50, 44, 112, 97, 99, 107, 97, 103, 101, 32, 99, 112, 100,
             31,
             49, 44, 49, 44, 48, 44, 49, 50, 44, 112, 97, 99, 107, 97, 103, 101, 32, 99, 112, 100
         )
 
-        assertThat(serialized).isEqualTo(expectedSerialized)
-
         val deserialized = deserialize(file, serialized)
         assertThat(deserialized).containsExactlyInAnyOrderElementsOf(tokens)
     }
@@ -186,4 +251,26 @@ class CachingTest {
 
         assertThat(logs).contains("An unexpected RuntimeException was caught when trying to deserialize a CPD token of MyMockedFile.kt: A fake exception for testing purposes")
     }
+
+    /**
+     * A binary entry with a valid header, made of [textCount] times the text "a" and [tokenCount] times a token of the
+     * first line with the text at [textIndex].
+     */
+    private fun binaryEntry(textCount: Int, tokenCount: Int, textIndex: Int): ByteArray {
+        val bytes = ByteArrayOutputStream()
+        DataOutputStream(bytes).use { output ->
+            output.writeInt(0x4b435044)
+            output.writeVarInt(1)
+            output.writeVarInt(textCount)
+            repeat(textCount) {
+                output.writeVarInt(1)
+                output.write("a".encodeToByteArray())
+            }
+            output.writeVarInt(tokenCount)
+            repeat(tokenCount) {
+                listOf(1, 0, 0, 1, textIndex).forEach(output::writeVarInt)
+            }
+        }
+        return bytes.toByteArray()
+    }
 }